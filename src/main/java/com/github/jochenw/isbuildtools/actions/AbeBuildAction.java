@@ -1,26 +1,191 @@
 package com.github.jochenw.isbuildtools.actions;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 
 import javax.inject.Inject;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
 
 import com.github.jochenw.afw.core.inject.IComponentFactory;
 import com.github.jochenw.afw.core.log.ILog;
+import com.github.jochenw.afw.core.props.IPropertyFactory;
+import com.github.jochenw.afw.core.util.Exceptions;
+import com.github.jochenw.isbuildtools.compile.ManifestParser;
+import com.github.jochenw.isbuildtools.compile.MarkdownConverter;
+import com.github.jochenw.isbuildtools.compile.PackageCompiler;
+import com.github.jochenw.isbuildtools.compile.PackageCompiler.CompilerStatusException;
+import com.github.jochenw.isbuildtools.compile.PackageFileCreator;
+import com.github.jochenw.isbuildtools.util.AtomicFiles;
+import com.github.jochenw.isbuildtools.util.BuildTracer;
+import com.github.jochenw.isbuildtools.util.FileLocks;
 
+
+/** An action, which builds the packages in the style of the Asset Build Environment (ABE):
+ * For every package, a deployable composite (<code>IS/&lt;package&gt;/&lt;package&gt;.zip</code>),
+ * and a build descriptor (<code>IS/&lt;package&gt;.acdl</code>) are created below
+ * <code>&lt;targetDir&gt;/is-build-tools/abe</code>. The packages are flowing through the
+ * stages (copy, compile, markdown, composite) of a {@link BuildPipeline} concurrently.
+ */
 public class AbeBuildAction extends AbstractAction {
 	private final ILog log;
+	private final PackageCompiler packageCompiler;
+	private final MarkdownConverter markdownConverter;
+	private final PackageFileCreator packageFileCreator;
+	private final IPropertyFactory propertyFactory;
+	private final BuildTracer tracer;
 
 	public @Inject AbeBuildAction(IComponentFactory pComponentFactory) {
 		super(pComponentFactory);
 		log = getLogger();
+		packageCompiler = pComponentFactory.requireInstance(PackageCompiler.class);
+		markdownConverter = pComponentFactory.requireInstance(MarkdownConverter.class);
+		packageFileCreator = pComponentFactory.requireInstance(PackageFileCreator.class);
+		propertyFactory = pComponentFactory.requireInstance(IPropertyFactory.class);
+		tracer = pComponentFactory.requireInstance(BuildTracer.class);
 	}
 
 	@Override
 	public void run() throws Exception {
 		log.entering("run");
-		final List<String> packageDirs = findPackageDirectories(null, null);
+		final Map<String,Path> packagePathsByName = new HashMap<>();
+		final List<Path> packageDirs = findPackageDirectories(null, (n,p) -> packagePathsByName.put(n, p));
 		log.debug("run", "List of package directories: {}",
 				  packageDirs);
+		for (Path packageDir : packageDirs) {
+			packagePathsByName.put(packageDir.getFileName().toString(), packageDir);
+		}
+		final PackageRegistry packageRegistry = createPackageRegistry(packagePathsByName);
+		final Function<String,Path> packageLocator = packageRegistry::require;
+		final BuildPipeline<Path> pipeline = new BuildPipeline<Path>(log, propertyFactory, "abe.pipeline").setTracer(tracer)
+				.setItemLocker((p) -> FileLocks.lock(getAbeOutputDir().resolve("locks").resolve(p.getFileName().toString() + ".lock"), log))
+				.stage("copy", BuildPipeline.Kind.IO, 2, (p) -> copy(p, getPackageBuildDir(p)))
+				.stage("compile", BuildPipeline.Kind.CPU, Runtime.getRuntime().availableProcessors(), (p) -> compile(getPackageBuildDir(p), packageLocator))
+				.stage("markdown", BuildPipeline.Kind.IO, 1, (p) -> markdownConverter.convertToHTML(getPackageBuildDir(p)))
+				.stage("composite", BuildPipeline.Kind.CPU, 2, (p) -> createComposite(getPackageBuildDir(p)));
+		try {
+			pipeline.run(packageDirs, (p) -> p.getFileName().toString());
+		} finally {
+			tracer.write(getAbeOutputDir().resolve("build-trace.json"));
+		}
 		log.exiting("run");
 	}
+
+	protected Path getAbeOutputDir() {
+		return getTargetDir().resolve("is-build-tools/abe");
+	}
+
+	protected Path getAbeStagingDir() {
+		return getAbeOutputDir().resolve("staging");
+	}
+
+	protected Path getPackageBuildDir(Path pPackageDir) {
+		return getAbeStagingDir().resolve(pPackageDir.getFileName().toString());
+	}
+
+	protected Path getAbeCompositesDir() {
+		return getAbeOutputDir().resolve("IS");
+	}
+
+	protected void copy(Path pPackageDir, Path pPackageBuildDir) {
+		log.debugf("copy", "Copying package %s to %s", pPackageDir, pPackageBuildDir);
+		getBuildUtils().copyDirectory(pPackageDir, pPackageBuildDir, getBuildUtils().getPackageCopyFilter());
+	}
+
+	protected void compile(Path pPackageBuildDir, Function<String,Path> pPackageLocator) {
+		final String packageName = pPackageBuildDir.getFileName().toString();
+		final Path diagnosticsFile = getAbeOutputDir().resolve("diagnostics").resolve(packageName + ".json");
+		try {
+			packageCompiler.compile(getWmHomeDir(), Paths.get(".").toAbsolutePath(), pPackageBuildDir, pPackageLocator, diagnosticsFile);
+		} catch (CompilerStatusException e) {
+			throw Exceptions.show(e);
+		}
+	}
+
+	protected void createComposite(Path pPackageBuildDir) {
+		final String packageName = pPackageBuildDir.getFileName().toString();
+		final Path compositeDir = getAbeCompositesDir().resolve(packageName);
+		final String compositeName = packageName + ".zip";
+		packageFileCreator.createArchive(pPackageBuildDir, compositeDir, compositeName);
+		writeDescriptor(pPackageBuildDir, compositeDir.resolve(compositeName),
+				        getAbeCompositesDir().resolve(packageName + ".acdl"));
+	}
+
+	protected void writeDescriptor(Path pPackageBuildDir, Path pCompositeFile, Path pDescriptorFile) {
+		final String packageName = pPackageBuildDir.getFileName().toString();
+		final String[] version = new String[1];
+		final Map<String,String> requiredPackages = new LinkedHashMap<>();
+		final Path manifestFile = pPackageBuildDir.resolve("manifest.v3");
+		if (Files.isRegularFile(manifestFile)) {
+			ManifestParser.parse(manifestFile, new ManifestParser.Listener() {
+				@Override
+				public void version(String pVersion) {
+					version[0] = pVersion;
+				}
+				@Override
+				public void requires(String pPackageName, String pVersion) {
+					requiredPackages.put(pPackageName, pVersion);
+				}
+			});
+		}
+		final String buildVersion = propertyFactory.getPropertyValue("project.version");
+		final Path tempFile = AtomicFiles.getTempFile(pDescriptorFile);
+		try (OutputStream os = Files.newOutputStream(tempFile)) {
+			final XMLStreamWriter xsw = XMLOutputFactory.newInstance().createXMLStreamWriter(os, "UTF-8");
+			xsw.writeStartDocument("UTF-8", "1.0");
+			xsw.writeCharacters("\n");
+			xsw.writeStartElement("asset_composite");
+			xsw.writeAttribute("name", packageName);
+			xsw.writeAttribute("displayName", packageName);
+			xsw.writeAttribute("runtimeType", "IS");
+			xsw.writeAttribute("type", "package");
+			if (version[0] != null) {
+				xsw.writeAttribute("version", version[0]);
+			}
+			if (buildVersion != null  &&  buildVersion.length() > 0) {
+				xsw.writeAttribute("buildVersion", buildVersion);
+			}
+			xsw.writeCharacters("\n  ");
+			xsw.writeEmptyElement("implementation.generic");
+			xsw.writeAttribute("type", "IS");
+			xsw.writeCharacters("\n  ");
+			xsw.writeEmptyElement("composite");
+			xsw.writeAttribute("file", pDescriptorFile.getParent().relativize(pCompositeFile).toString().replace('\\', '/'));
+			xsw.writeAttribute("size", String.valueOf(Files.size(pCompositeFile)));
+			xsw.writeCharacters("\n  ");
+			xsw.writeStartElement("dependencies");
+			for (Map.Entry<String,String> en : requiredPackages.entrySet()) {
+				xsw.writeCharacters("\n    ");
+				xsw.writeEmptyElement("dependency");
+				xsw.writeAttribute("name", en.getKey());
+				xsw.writeAttribute("runtimeType", "IS");
+				if (en.getValue() != null) {
+					xsw.writeAttribute("version", en.getValue());
+				}
+			}
+			xsw.writeCharacters("\n  ");
+			xsw.writeEndElement();
+			xsw.writeCharacters("\n");
+			xsw.writeEndElement();
+			xsw.writeCharacters("\n");
+			xsw.writeEndDocument();
+			xsw.close();
+		} catch (IOException e) {
+			AtomicFiles.deleteQuietly(tempFile);
+			throw new UncheckedIOException(e);
+		} catch (Exception e) {
+			AtomicFiles.deleteQuietly(tempFile);
+			throw Exceptions.show(e);
+		}
+		AtomicFiles.publish(tempFile, pDescriptorFile);
+	}
 }
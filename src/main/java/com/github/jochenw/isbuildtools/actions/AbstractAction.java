@@ -5,10 +5,15 @@ import java.io.UncheckedIOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.BiConsumer;
 import java.util.function.Predicate;
 
@@ -17,8 +22,8 @@ import javax.inject.Inject;
 import com.github.jochenw.afw.core.inject.IComponentFactory;
 import com.github.jochenw.afw.core.log.ILog;
 import com.github.jochenw.afw.core.log.ILogFactory;
-import com.github.jochenw.afw.core.util.Objects;
-import com.github.jochenw.afw.core.util.Predicates;
+import com.github.jochenw.afw.core.props.IPropertyFactory;
+import com.github.jochenw.isbuildtools.util.PathFilter;
 
 public abstract class AbstractAction extends Action {
 	private final ILog log;
@@ -28,21 +33,54 @@ public abstract class AbstractAction extends Action {
 		log = pComponentFactory.requireInstance(ILogFactory.class).getLog(AbstractAction.class);
 	}
 
-	protected List<String> findPackageDirectories(Predicate<String> pFilter,
-			                                      BiConsumer<String,Path> pSkippedPackagesListener) {
-		final Predicate<String> filter = Objects.notNull(pFilter, Predicates.alwaysTrue());
-		final Path projectDir = getProjectDir();
-		final List<String> packageDirs = new ArrayList<>();
+	/** Returns the directories of the packages in all project directories. The filter
+	 * is applied to the package directories path, relative to its project directory. If
+	 * it is null, the properties <code>project.packages.includes</code>, and
+	 * <code>project.packages.excludes</code> are used. Directories, which are excluded by
+	 * <code>project.scan.includes</code>, and <code>project.scan.excludes</code>, aren't
+	 * searched at all.
+	 */
+	protected List<Path> findPackageDirectories(Predicate<String> pFilter,
+			                                    BiConsumer<String,Path> pSkippedPackagesListener) {
+		final Map<String,Path> packageDirsByName = new HashMap<>();
+		final List<Path> packageDirs = new ArrayList<>();
+		for (Path projectDir : getProjectDirs()) {
+			for (Path packageDir : findPackageDirectories(projectDir, pFilter, pSkippedPackagesListener)) {
+				final String packageName = packageDir.getFileName().toString();
+				final Path otherDir = packageDirsByName.put(packageName, packageDir);
+				if (otherDir != null) {
+					throw new IllegalStateException("Package " + packageName + " is present in multiple project directories: "
+				                                    + otherDir + ", and " + packageDir);
+				}
+				packageDirs.add(packageDir);
+			}
+		}
+		return packageDirs;
+	}
+
+	protected List<Path> findPackageDirectories(Path pProjectDir, Predicate<String> pFilter,
+			                                    BiConsumer<String,Path> pSkippedPackagesListener) {
+		final IPropertyFactory propertyFactory = getComponentFactory().requireInstance(IPropertyFactory.class);
+		final Predicate<String> filter = pFilter == null ? PathFilter.of(propertyFactory, "project.packages", null) : pFilter;
+		final PathFilter scanFilter = PathFilter.of(propertyFactory, "project.scan", null);
+		final Path projectDir = pProjectDir;
+		final List<Path> packageDirs = new ArrayList<>();
+		final Deque<PathFilter.State> states = new ArrayDeque<>();
 		try {
 			Files.walkFileTree(projectDir, new SimpleFileVisitor<Path>() {
 				@Override
 				public FileVisitResult preVisitDirectory(Path pDir, BasicFileAttributes pAttrs) throws IOException {
+					final PathFilter.State state = states.isEmpty() ? scanFilter.root() : states.peek().enter(pDir.getFileName().toString());
+					if (state.isPruned()) {
+						log.debug("findPackageDirectories", "Skipping directory, as instructed by project.scan: {}", pDir);
+						return FileVisitResult.SKIP_SUBTREE;
+					}
 					final Path manifestFile = pDir.resolve("manifest.v3");
 					if (Files.isRegularFile(manifestFile)) {
 						final Path relativePath = projectDir.relativize(pDir);
 						final String relativePathStr = relativePath.toString().replace('\\', '/');
 						if (filter.test(relativePathStr)) {
-							packageDirs.add(relativePathStr);
+							packageDirs.add(pDir);
 						} else {
 							if (pSkippedPackagesListener != null) {
 								pSkippedPackagesListener.accept(pDir.getFileName().toString(), pDir);
@@ -51,9 +89,16 @@ public abstract class AbstractAction extends Action {
 						}
 						return FileVisitResult.SKIP_SUBTREE;
 					} else {
+						states.push(state);
 						return FileVisitResult.CONTINUE;
 					}
 				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path pDir, IOException pExc) throws IOException {
+					states.pop();
+					return super.postVisitDirectory(pDir, pExc);
+				}
 			});
 		} catch (IOException e) {
 			throw new UncheckedIOException(e);
@@ -61,6 +106,39 @@ public abstract class AbstractAction extends Action {
 		return packageDirs;
 	}
 
+	/** Creates a registry of the given packages from the project directories. Additional
+	 * package roots are given by the property <code>project.packages.roots</code> (a comma
+	 * separated list of directories), followed by the package directories of the
+	 * WM_HOME installation, unless the property <code>project.packages.wmHome</code> is false.
+	 */
+	protected PackageRegistry createPackageRegistry(Map<String,Path> pProjectPackages) {
+		final IPropertyFactory propertyFactory = getComponentFactory().requireInstance(IPropertyFactory.class);
+		final List<Path> roots = new ArrayList<>();
+		final String rootsStr = propertyFactory.getPropertyValue("project.packages.roots");
+		if (rootsStr != null) {
+			for (String rootStr : rootsStr.split(",")) {
+				if (rootStr.trim().length() > 0) {
+					final Path root = Paths.get(rootStr.trim());
+					if (!Files.isDirectory(root)) {
+						throw new IllegalStateException("Invalid value for property project.packages.roots: Directory not found: " + root);
+					}
+					roots.add(root);
+				}
+			}
+		}
+		final String wmHomeStr = propertyFactory.getPropertyValue("project.packages.wmHome");
+		if ((wmHomeStr == null  ||  wmHomeStr.trim().length() == 0  ||  Boolean.parseBoolean(wmHomeStr.trim()))
+				&&  getWmHomeDir() != null) {
+			for (String dir : new String[] {"IntegrationServer/instances/default/packages", "IntegrationServer/packages"}) {
+				final Path root = getWmHomeDir().resolve(dir);
+				if (Files.isDirectory(root)) {
+					roots.add(root);
+				}
+			}
+		}
+		return new PackageRegistry(log, pProjectPackages, getProjectDirs(), roots);
+	}
+
 	protected ILog getLogger() {
 		return getComponentFactory().requireInstance(ILogFactory.class).getLog(getClass());
 	}
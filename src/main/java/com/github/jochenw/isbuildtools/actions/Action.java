@@ -1,25 +1,44 @@
 package com.github.jochenw.isbuildtools.actions;
 
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import com.github.jochenw.afw.core.inject.ComponentFactoryBuilder.Module;
 import com.github.jochenw.afw.core.inject.IComponentFactory;
 import com.github.jochenw.afw.core.inject.Scopes;
+import com.github.jochenw.isbuildtools.cache.BuildCache;
+import com.github.jochenw.isbuildtools.compile.CompilerMemoryBudget;
+import com.github.jochenw.isbuildtools.compile.JarScanner;
 import com.github.jochenw.isbuildtools.compile.MarkdownConverter;
 import com.github.jochenw.isbuildtools.compile.PackageCompiler;
 import com.github.jochenw.isbuildtools.compile.PackageFileCreator;
+import com.github.jochenw.isbuildtools.compile.PackageFileVerifier;
+import com.github.jochenw.isbuildtools.compile.ServerStubs;
+import com.github.jochenw.isbuildtools.compile.ServiceIndexer;
+import com.github.jochenw.isbuildtools.util.BuildEventLog;
+import com.github.jochenw.isbuildtools.util.BuildTracer;
+import com.github.jochenw.isbuildtools.util.IoExecutor;
 
 public abstract class Action {
 	private final IComponentFactory componentFactory;
 	private final BuildUtils buildUtils;
 	private final Path wmHomeDir;
 	private final Path projectDir;
+	private final List<Path> projectDirs;
 	private final Path targetDir;
 
 	protected Action(IComponentFactory pComponentFactory) {
 		componentFactory = pComponentFactory;
 		wmHomeDir = componentFactory.requireInstance(Path.class, "wm.home.dir");
 		projectDir = componentFactory.requireInstance(Path.class, "project.dir");
+		final Path[] projectDirArray = componentFactory.getInstance(Path[].class, "project.dirs");
+		if (projectDirArray == null  ||  projectDirArray.length == 0) {
+			projectDirs = Collections.singletonList(projectDir);
+		} else {
+			projectDirs = Collections.unmodifiableList(Arrays.asList(projectDirArray));
+		}
 		targetDir = componentFactory.requireInstance(Path.class, "build.dir");
 		buildUtils = componentFactory.requireInstance(BuildUtils.class);
 	}
@@ -27,6 +46,10 @@ public abstract class Action {
 	public IComponentFactory getComponentFactory() { return componentFactory; }
 	public Path getWmHomeDir() { return wmHomeDir; }
 	public Path getProjectDir() { return projectDir; }
+	/** Returns the project directories, which are built in this run. The first element is
+	 * the {@link #getProjectDir() primary project directory}.
+	 */
+	public List<Path> getProjectDirs() { return projectDirs; }
 	public Path getTargetDir() { return targetDir; }
 	public BuildUtils getBuildUtils() { return buildUtils; }
 
@@ -35,10 +58,35 @@ public abstract class Action {
 		 .toClass(SimpleBuildAction.class).in(Scopes.SINGLETON);
 		b.bind(Action.class, com.github.jochenw.isbuildtools.cli.Main.ActionId.abeBuild.name())
 		 .toClass(AbeBuildAction.class).in(Scopes.SINGLETON);
+		b.bind(Action.class, com.github.jochenw.isbuildtools.cli.Main.ActionId.serviceIndex.name())
+		 .toClass(ServiceIndexAction.class).in(Scopes.SINGLETON);
+		b.bind(Action.class, com.github.jochenw.isbuildtools.cli.Main.ActionId.deploy.name())
+		 .toClass(DeployAction.class).in(Scopes.SINGLETON);
+		b.bind(Action.class, com.github.jochenw.isbuildtools.cli.Main.ActionId.cdsTraining.name())
+		 .toClass(CdsTrainingAction.class).in(Scopes.SINGLETON);
+		b.bind(Action.class, com.github.jochenw.isbuildtools.cli.Main.ActionId.cacheServer.name())
+		 .toClass(CacheServerAction.class).in(Scopes.SINGLETON);
+		b.bind(Action.class, com.github.jochenw.isbuildtools.cli.Main.ActionId.worker.name())
+		 .toClass(WorkerAction.class).in(Scopes.SINGLETON);
+		b.bind(Action.class, com.github.jochenw.isbuildtools.cli.Main.ActionId.distributedBuild.name())
+		 .toClass(DistributedBuildAction.class).in(Scopes.SINGLETON);
+		b.bind(Action.class, com.github.jochenw.isbuildtools.cli.Main.ActionId.verify.name())
+		 .toClass(VerifyAction.class).in(Scopes.SINGLETON);
+		b.bind(Action.class, com.github.jochenw.isbuildtools.cli.Main.ActionId.applyPatch.name())
+		 .toClass(ApplyPatchAction.class).in(Scopes.SINGLETON);
+		b.bind(BuildCache.class).in(Scopes.SINGLETON);
+		b.bind(BuildEventLog.class).in(Scopes.SINGLETON);
+		b.bind(BuildTracer.class).in(Scopes.SINGLETON);
 		b.bind(BuildUtils.class).in(Scopes.SINGLETON);
+		b.bind(CompilerMemoryBudget.class).in(Scopes.SINGLETON);
+		b.bind(IoExecutor.class).in(Scopes.SINGLETON);
+		b.bind(JarScanner.class).in(Scopes.SINGLETON);
 		b.bind(PackageCompiler.class).in(Scopes.SINGLETON);
 		b.bind(MarkdownConverter.class).in(Scopes.SINGLETON);
 		b.bind(PackageFileCreator.class).in(Scopes.SINGLETON);
+		b.bind(PackageFileVerifier.class).in(Scopes.SINGLETON);
+		b.bind(ServiceIndexer.class).in(Scopes.SINGLETON);
+		b.bind(ServerStubs.class).in(Scopes.SINGLETON);
 	};
 
 	public abstract void run() throws Exception;
@@ -0,0 +1,113 @@
+package com.github.jochenw.isbuildtools.actions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.inject.Inject;
+
+import com.github.jochenw.afw.core.inject.IComponentFactory;
+import com.github.jochenw.afw.core.log.ILog;
+import com.github.jochenw.afw.core.props.IPropertyFactory;
+import com.github.jochenw.isbuildtools.compile.PackageFileCreator;
+import com.github.jochenw.isbuildtools.compile.PackageFileIndex;
+import com.github.jochenw.isbuildtools.compile.PackageFileVerifier;
+
+
+/** An action, which recreates a package archive from a baseline archive, and a patch
+ * archive, which has been created with the property <code>project.archive.baseline</code>.
+ * If the patch contains an index, then the result is verified against it.
+ *
+ * Properties:
+ * <ul>
+ *   <li><code>patch.baseline</code>: The baseline archive (required)</li>
+ *   <li><code>patch.file</code>: The patch archive (required)</li>
+ *   <li><code>patch.target</code>: The archive, which is being created (default: the
+ *     original archives name, next to the patch archive)</li>
+ * </ul>
+ */
+public class ApplyPatchAction extends AbstractAction {
+	private final ILog log;
+	private final IPropertyFactory propertyFactory;
+	private final PackageFileCreator packageFileCreator;
+	private final PackageFileVerifier packageFileVerifier;
+
+	public @Inject ApplyPatchAction(IComponentFactory pComponentFactory) {
+		super(pComponentFactory);
+		log = getLogger();
+		propertyFactory = pComponentFactory.requireInstance(IPropertyFactory.class);
+		packageFileCreator = pComponentFactory.requireInstance(PackageFileCreator.class);
+		packageFileVerifier = pComponentFactory.requireInstance(PackageFileVerifier.class);
+	}
+
+	protected Path getFile(String pProperty, boolean pRequired) {
+		final String value = propertyFactory.getPropertyValue(pProperty);
+		if (value == null  ||  value.trim().length() == 0) {
+			if (pRequired) {
+				throw new IllegalStateException("Missing property: " + pProperty);
+			}
+			return null;
+		}
+		final Path file = Paths.get(value.trim());
+		if (pRequired  &&  !Files.isRegularFile(file)) {
+			throw new IllegalStateException("Invalid value for property " + pProperty + ": File not found: " + file);
+		}
+		return file;
+	}
+
+	@Override
+	public void run() throws Exception {
+		log.entering("run");
+		final Path baselineFile = getFile("patch.baseline", true);
+		final Path patchFile = getFile("patch.file", true);
+		Path targetFile = getFile("patch.target", false);
+		if (targetFile == null) {
+			targetFile = patchFile.toAbsolutePath().resolveSibling(getTargetName(patchFile));
+		}
+		final Path dir = targetFile.toAbsolutePath().getParent();
+		if (dir != null) {
+			Files.createDirectories(dir);
+		}
+		packageFileCreator.applyPatch(baselineFile, patchFile, targetFile);
+		if (Files.isRegularFile(PackageFileIndex.getEntriesFile(targetFile))) {
+			packageFileVerifier.check(targetFile, null);
+		}
+		log.exiting("run");
+	}
+
+	protected String getTargetName(Path pPatchFile) {
+		try (ZipFile zipFile = new ZipFile(pPatchFile.toFile(), StandardCharsets.UTF_8)) {
+			final ZipEntry ze = zipFile.getEntry(PackageFileCreator.PATCH_PROPERTIES);
+			if (ze == null) {
+				throw new IllegalStateException("Not a patch archive: " + pPatchFile);
+			}
+			final Properties props = new Properties();
+			try (InputStream in = zipFile.getInputStream(ze)) {
+				props.load(in);
+			}
+			return checkTargetName(pPatchFile, props.getProperty("target"));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/** Checks, that the target name from the patch archive is a plain file name, so
+	 * that the target can't be written outside of the patch archives directory.
+	 */
+	protected String checkTargetName(Path pPatchFile, String pTargetName) {
+		if (pTargetName == null  ||  pTargetName.trim().length() == 0) {
+			throw new IllegalStateException("The patch archive " + pPatchFile + " doesn't specify a target name. Use the property patch.target.");
+		}
+		if (pTargetName.indexOf('/') != -1  ||  pTargetName.indexOf('\\') != -1  ||  pTargetName.contains("..")) {
+			throw new IllegalStateException("Invalid target name in patch archive " + pPatchFile + ": " + pTargetName);
+		}
+		return pTargetName;
+	}
+}
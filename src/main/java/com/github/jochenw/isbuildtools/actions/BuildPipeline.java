@@ -0,0 +1,335 @@
+package com.github.jochenw.isbuildtools.actions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import com.github.jochenw.afw.core.log.ILog;
+import com.github.jochenw.afw.core.props.IPropertyFactory;
+import com.github.jochenw.isbuildtools.util.BuildEvents;
+import com.github.jochenw.isbuildtools.util.BuildTracer;
+
+
+/** A staged pipeline: Every stage has its own executor, and a bounded hand-off queue.
+ * Items (typically packages) are flowing through the stages in the order, in which
+ * the stages have been added. While one item is processed by a stage, other items
+ * can be processed by the other stages. If a stages queue is full, then the previous
+ * stage is blocked, until the queue has room again (backpressure).
+ *
+ * The number of threads, and the queue capacity, can be configured by the properties
+ * <code>&lt;prefix&gt;.&lt;stage&gt;.threads</code>, and <code>&lt;prefix&gt;.&lt;stage&gt;.queue</code>.
+ *
+ * Unless the number of threads is configured, it is adjusted at runtime by a
+ * {@link ConcurrencyController}, starting with the stages default, and up to
+ * <code>&lt;prefix&gt;.&lt;stage&gt;.maxThreads</code>. This can be disabled by setting
+ * <code>&lt;prefix&gt;.adaptive</code> to false. Other properties:
+ * <code>&lt;prefix&gt;.adaptive.window</code> (sampling window in milliseconds, default: 500),
+ * and <code>&lt;prefix&gt;.adaptive.minFreeHeap</code> (in MB, default: 10% of the max heap).
+ */
+public class BuildPipeline<T> {
+	public interface Task<T> {
+		void run(T pItem) throws Exception;
+	}
+	/** Whether a stage is limited by the processors, or by the disk (or network).
+	 */
+	public enum Kind {
+		CPU, IO;
+	}
+	public static class Stage<T> {
+		private final String name;
+		private final Kind kind;
+		private final int threads, maxThreads, queueCapacity;
+		private final boolean adaptive;
+		private final Task<T> task;
+
+		public Stage(String pName, int pThreads, int pQueueCapacity, Task<T> pTask) {
+			this(pName, Kind.IO, pThreads, pThreads, false, pQueueCapacity, pTask);
+		}
+		public Stage(String pName, Kind pKind, int pThreads, int pMaxThreads, boolean pAdaptive, int pQueueCapacity, Task<T> pTask) {
+			name = pName;
+			kind = pKind;
+			threads = pThreads;
+			maxThreads = pMaxThreads;
+			adaptive = pAdaptive;
+			queueCapacity = pQueueCapacity;
+			task = pTask;
+		}
+		public String getName() { return name; }
+		public Kind getKind() { return kind; }
+		public int getThreads() { return threads; }
+		public int getMaxThreads() { return maxThreads; }
+		public boolean isAdaptive() { return adaptive; }
+		public int getQueueCapacity() { return queueCapacity; }
+		public Task<T> getTask() { return task; }
+	}
+	public static class PipelineException extends RuntimeException {
+		private static final long serialVersionUID = -3190487251358418137L;
+		private final Map<String,Throwable> failures;
+
+		public PipelineException(String pMessage, Map<String,Throwable> pFailures) {
+			super(pMessage);
+			failures = pFailures;
+			for (Throwable t : pFailures.values()) {
+				addSuppressed(t);
+			}
+		}
+		public Map<String,Throwable> getFailures() { return failures; }
+	}
+
+	private final ILog log;
+	private final IPropertyFactory propertyFactory;
+	private final String propertyPrefix;
+	private final List<Stage<T>> stages = new ArrayList<>();
+	private boolean failingFast = true;
+	private BuildTracer tracer;
+	private Function<T,AutoCloseable> itemLocker;
+	private final boolean adaptive;
+	private final AtomicInteger busyCpuThreads = new AtomicInteger();
+
+	public BuildPipeline(ILog pLog, IPropertyFactory pPropertyFactory, String pPropertyPrefix) {
+		log = pLog;
+		propertyFactory = pPropertyFactory;
+		propertyPrefix = pPropertyPrefix;
+		final String failFast = propertyFactory.getPropertyValue(propertyPrefix + ".failFast");
+		if (failFast != null  &&  failFast.trim().length() > 0) {
+			failingFast = Boolean.parseBoolean(failFast.trim());
+		}
+		final String adaptiveStr = propertyFactory.getPropertyValue(propertyPrefix + ".adaptive");
+		adaptive = adaptiveStr == null  ||  adaptiveStr.trim().length() == 0  ||  Boolean.parseBoolean(adaptiveStr.trim());
+	}
+
+	public boolean isFailingFast() { return failingFast; }
+	public void setFailingFast(boolean pFailingFast) { failingFast = pFailingFast; }
+	/** Sets the tracer, which records a span for every item, and stage.
+	 */
+	public BuildPipeline<T> setTracer(BuildTracer pTracer) { tracer = pTracer; return this; }
+	/** Sets a function, which locks an item, before it enters the first stage. The lock
+	 * is released, when the item leaves the pipeline (successfully, or not).
+	 */
+	public BuildPipeline<T> setItemLocker(Function<T,AutoCloseable> pLocker) { itemLocker = pLocker; return this; }
+
+	public BuildPipeline<T> stage(String pName, int pDefaultThreads, Task<T> pTask) {
+		return stage(pName, Kind.IO, pDefaultThreads, pTask);
+	}
+
+	/** Adds a stage.
+	 * @param pName The stages name, which is also used in property names.
+	 * @param pKind Whether the stage is CPU bound, or I/O bound. This determines the
+	 *   maximum number of threads, if the stage is adaptive.
+	 * @param pDefaultThreads The initial number of threads.
+	 * @param pTask The task, that is performed for every item.
+	 */
+	public BuildPipeline<T> stage(String pName, Kind pKind, int pDefaultThreads, Task<T> pTask) {
+		final String threadsStr = propertyFactory.getPropertyValue(propertyPrefix + "." + pName + ".threads");
+		final boolean configured = threadsStr != null  &&  threadsStr.trim().length() > 0;
+		final int threads = getIntProperty(pName + ".threads", pDefaultThreads);
+		final int processors = Runtime.getRuntime().availableProcessors();
+		final int maxThreads = Math.max(threads, getIntProperty(pName + ".maxThreads", pKind == Kind.CPU ? processors : 4 * processors));
+		final int queueCapacity = getIntProperty(pName + ".queue", Math.max(2, threads));
+		stages.add(new Stage<T>(pName, pKind, threads, maxThreads, adaptive  &&  !configured, queueCapacity, pTask));
+		return this;
+	}
+
+	public List<Stage<T>> getStages() {
+		return Collections.unmodifiableList(stages);
+	}
+
+	protected int getIntProperty(String pKey, int pDefault) {
+		final String property = propertyPrefix + "." + pKey;
+		final String value = propertyFactory.getPropertyValue(property);
+		if (value == null  ||  value.trim().length() == 0) {
+			return pDefault;
+		}
+		try {
+			return Math.max(1, Integer.parseInt(value.trim()));
+		} catch (NumberFormatException e) {
+			throw new IllegalStateException("Invalid value for property " + property + ": " + value);
+		}
+	}
+
+	/** Passes the given items through all stages, and waits, until every item has either
+	 * passed the last stage, or failed.
+	 * @param pItems The items being processed.
+	 * @param pNameMapper Converts an item into a name, for use in log messages.
+	 * @throws PipelineException At least one item has failed.
+	 */
+	public void run(List<T> pItems, Function<T,String> pNameMapper) throws InterruptedException {
+		if (stages.isEmpty()  ||  pItems.isEmpty()) {
+			return;
+		}
+		final CountDownLatch latch = new CountDownLatch(pItems.size());
+		final Map<String,Throwable> failures = Collections.synchronizedMap(new LinkedHashMap<>());
+		final AtomicBoolean cancelled = new AtomicBoolean();
+		final List<ThreadPoolExecutor> executors = new ArrayList<>(stages.size());
+		final List<ConcurrencyController> controllers = new ArrayList<>(stages.size());
+		for (Stage<T> stage : stages) {
+			final ThreadPoolExecutor executor = newExecutor(stage);
+			executors.add(executor);
+			controllers.add(stage.isAdaptive() ? newController(stage, executor) : null);
+		}
+		try {
+			for (T item : pItems) {
+				if (cancelled.get()) {
+					latch.countDown();
+				} else {
+					final String name = pNameMapper.apply(item);
+					final BuildTracer.Span itemSpan = tracer == null ? null : tracer.asyncSpan("package", name);
+					final BuildEvents.Scope itemEvent = BuildEvents.packageBuild(name);
+					final AtomicReference<AutoCloseable> itemLock = new AtomicReference<>();
+					submit(executors, controllers, 0, item, pNameMapper, itemLock, () -> {
+						unlock(name, itemLock.getAndSet(null));
+						if (itemSpan != null) {
+							itemSpan.close();
+						}
+						itemEvent.close();
+						latch.countDown();
+					}, failures, cancelled);
+				}
+			}
+			latch.await();
+		} finally {
+			for (ThreadPoolExecutor executor : executors) {
+				executor.shutdownNow();
+			}
+			for (ConcurrencyController controller : controllers) {
+				if (controller != null) {
+					controller.logSummary();
+				}
+			}
+		}
+		if (!failures.isEmpty()) {
+			throw new PipelineException("Build failed for " + failures.size() + " item(s): "
+		                                + String.join(", ", failures.keySet()), failures);
+		}
+	}
+
+	protected void unlock(String pName, AutoCloseable pLock) {
+		if (pLock != null) {
+			try {
+				pLock.close();
+			} catch (Throwable t) {
+				log.error("run", "Failed to release the lock for " + pName + ": " + t.getMessage());
+			}
+		}
+	}
+
+	protected void submit(List<ThreadPoolExecutor> pExecutors, List<ConcurrencyController> pControllers, int pStageIndex, T pItem, Function<T,String> pNameMapper,
+			              AtomicReference<AutoCloseable> pLock, Runnable pDone, Map<String,Throwable> pFailures,
+			              AtomicBoolean pCancelled) {
+		final Stage<T> stage = stages.get(pStageIndex);
+		final Runnable runnable = () -> {
+			final String name = pNameMapper.apply(pItem);
+			if (pCancelled.get()) {
+				log.debug("run", "Skipping stage " + stage.getName() + " for " + name + ", because the pipeline has been cancelled.");
+				pDone.run();
+				return;
+			}
+			final BuildTracer.Span span = tracer == null ? null : tracer.span("stage", stage.getName(), name);
+			try {
+				if (pStageIndex == 0  &&  itemLocker != null) {
+					final BuildTracer.Span lockSpan = tracer == null ? null : tracer.span("lock", "wait for lock", name);
+					try {
+						pLock.set(itemLocker.apply(pItem));
+					} finally {
+						close(lockSpan);
+					}
+				}
+				log.debug("run", "Entering stage " + stage.getName() + " for " + name);
+				runTask(stage, pControllers.get(pStageIndex), pItem);
+				log.debug("run", "Leaving stage " + stage.getName() + " for " + name);
+			} catch (Throwable t) {
+				log.error("run", "Stage " + stage.getName() + " failed for " + name + ": " + t.getMessage());
+				pFailures.put(name, t);
+				if (isFailingFast()) {
+					pCancelled.set(true);
+				}
+				pDone.run();
+				return;
+			} finally {
+				close(span);
+			}
+			if (pStageIndex+1 < stages.size()) {
+				submit(pExecutors, pControllers, pStageIndex+1, pItem, pNameMapper, pLock, pDone, pFailures, pCancelled);
+			} else {
+				pDone.run();
+			}
+		};
+		try {
+			pExecutors.get(pStageIndex).execute(runnable);
+		} catch (RejectedExecutionException e) {
+			pFailures.put(pNameMapper.apply(pItem), e);
+			pDone.run();
+		}
+	}
+
+	private static void close(BuildTracer.Span pSpan) {
+		if (pSpan != null) {
+			pSpan.close();
+		}
+	}
+
+	protected void runTask(Stage<T> pStage, ConcurrencyController pController, T pItem) throws Exception {
+		final boolean cpuBound = pStage.getKind() == Kind.CPU;
+		if (cpuBound) {
+			busyCpuThreads.incrementAndGet();
+		}
+		final long start = System.nanoTime();
+		try {
+			pStage.getTask().run(pItem);
+		} finally {
+			if (cpuBound) {
+				busyCpuThreads.decrementAndGet();
+			}
+			if (pController != null) {
+				pController.completed(System.nanoTime() - start);
+			}
+		}
+	}
+
+	protected ConcurrencyController newController(Stage<T> pStage, ThreadPoolExecutor pExecutor) {
+		final long window = getIntProperty("adaptive.window", 500);
+		final long maxHeapMb = Runtime.getRuntime().maxMemory() / (1024*1024);
+		final long minFreeHeap = getIntProperty("adaptive.minFreeHeap", (int) Math.min(Integer.MAX_VALUE, maxHeapMb / 10)) * 1024L * 1024L;
+		return new ConcurrencyController(log, propertyPrefix + "." + pStage.getName(), pExecutor, pStage.getKind() == Kind.CPU,
+				                         busyCpuThreads::get, pStage.getMaxThreads(), window, minFreeHeap);
+	}
+
+	protected ThreadPoolExecutor newExecutor(Stage<T> pStage) {
+		final AtomicInteger counter = new AtomicInteger();
+		final String prefix = propertyPrefix + "-" + pStage.getName() + "-";
+		// Block the submitting thread, if the queue is full. This is what provides the backpressure.
+		final RejectedExecutionHandler blockingHandler = (r, executor) -> {
+			if (executor.isShutdown()) {
+				throw new RejectedExecutionException("Executor has been shut down");
+			}
+			final BuildTracer.Span span = tracer == null ? null : tracer.span("queue", "wait for " + pStage.getName(), null);
+			try {
+				executor.getQueue().put(r);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException(e);
+			} finally {
+				close(span);
+			}
+		};
+		return new ThreadPoolExecutor(pStage.getThreads(), pStage.getThreads(), 0, TimeUnit.MILLISECONDS,
+				                      new ArrayBlockingQueue<Runnable>(pStage.getQueueCapacity()),
+				                      (r) -> {
+				                    	  final Thread t = new Thread(r, prefix + counter.incrementAndGet());
+				                    	  t.setDaemon(true);
+				                    	  return t;
+				                      }, blockingHandler);
+	}
+}
@@ -0,0 +1,98 @@
+package com.github.jochenw.isbuildtools.actions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import com.github.jochenw.isbuildtools.util.AtomicFiles;
+
+
+/** Historical build times of the packages, in milliseconds. The times of the current
+ * build are merged into the history as an exponential moving average, so a single
+ * slow, or fast, build doesn't distort the weights.
+ */
+public class BuildTimes {
+	private final Map<String,Long> history = new ConcurrentHashMap<>();
+	private final Map<String,Long> current = new ConcurrentHashMap<>();
+
+	public static BuildTimes read(Path pFile) {
+		final BuildTimes buildTimes = new BuildTimes();
+		if (Files.isRegularFile(pFile)) {
+			final Properties props = new Properties();
+			try (InputStream in = Files.newInputStream(pFile)) {
+				props.load(in);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			for (String key : props.stringPropertyNames()) {
+				try {
+					buildTimes.history.put(key, Long.valueOf(props.getProperty(key)));
+				} catch (NumberFormatException e) {
+					// Ignore this entry
+				}
+			}
+		}
+		return buildTimes;
+	}
+
+	public Long getTime(String pPackageName) {
+		return history.get(pPackageName);
+	}
+
+	public Map<String,Long> getTimes() {
+		return history;
+	}
+
+	/** Adds the given duration to the current build time of the given package.
+	 */
+	public void add(String pPackageName, long pMillis) {
+		current.merge(pPackageName, Long.valueOf(pMillis), Long::sum);
+	}
+
+	/** Wraps the given pipeline task, so that its duration is added to the
+	 * current build time of the item's package.
+	 */
+	public <T> BuildPipeline.Task<T> measure(Function<T,String> pNameMapper, BuildPipeline.Task<T> pTask) {
+		return (t) -> {
+			final long start = System.currentTimeMillis();
+			try {
+				pTask.run(t);
+			} finally {
+				add(pNameMapper.apply(t), System.currentTimeMillis()-start);
+			}
+		};
+	}
+
+	public void write(Path pFile) {
+		final Properties props = new Properties();
+		for (Map.Entry<String,Long> en : history.entrySet()) {
+			props.setProperty(en.getKey(), en.getValue().toString());
+		}
+		for (Map.Entry<String,Long> en : current.entrySet()) {
+			final Long previous = history.get(en.getKey());
+			final long time = previous == null ? en.getValue().longValue() : (previous.longValue() + en.getValue().longValue()) / 2;
+			props.setProperty(en.getKey(), String.valueOf(time));
+		}
+		final Path tempFile = AtomicFiles.getTempFile(pFile);
+		try {
+			final Path dir = pFile.getParent();
+			if (dir != null) {
+				Files.createDirectories(dir);
+			}
+			try (OutputStream out = Files.newOutputStream(tempFile)) {
+				props.store(out, "Package build times in milliseconds");
+			}
+			AtomicFiles.publish(tempFile, pFile);
+		} catch (IOException e) {
+			AtomicFiles.deleteQuietly(tempFile);
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -9,61 +9,94 @@ import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.function.Predicate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 
 import javax.inject.Inject;
 
 import com.github.jochenw.afw.core.inject.IComponentFactory;
 import com.github.jochenw.afw.core.log.ILog;
 import com.github.jochenw.afw.core.log.ILogFactory;
+import com.github.jochenw.afw.core.props.IPropertyFactory;
 import com.github.jochenw.afw.core.util.Exceptions;
+import com.github.jochenw.isbuildtools.util.BuildEventLog;
+import com.github.jochenw.isbuildtools.util.BuildEvents;
+import com.github.jochenw.isbuildtools.util.IoExecutor;
+import com.github.jochenw.isbuildtools.util.PathFilter;
 
 public class BuildUtils {
 	private final ILog log;
+	private final IoExecutor ioExecutor;
+	private final BuildEventLog events;
+	private final PathFilter packageCopyFilter;
 
 	public @Inject BuildUtils(IComponentFactory pComponentFactory) {
 		log = pComponentFactory.requireInstance(ILogFactory.class).getLog(BuildUtils.class);
+		ioExecutor = pComponentFactory.requireInstance(IoExecutor.class);
+		events = pComponentFactory.requireInstance(BuildEventLog.class);
+		packageCopyFilter = PathFilter.of(pComponentFactory.requireInstance(IPropertyFactory.class), "build.copy", null, "code/classes");
 	}
 
 	public void copyDirectory(Path pSource, Path pTarget, String... pExcludes) {
 		log.trace("copyDirectory", "-> ", pSource, pTarget, pExcludes);
-		final Predicate<String> predicate = (s) -> {
-			if (pExcludes != null) {
-				for (String exc : pExcludes) {
-					if (exc.equals(s)) {
-						return false;
-					}
-				}
-			}
-			return true;
-		};
-		copyDirectory(pSource, pTarget, predicate);
+		copyDirectory(pSource, pTarget, PathFilter.excluding(pExcludes));
 		log.trace("copyDirectory", " <-");
 	}
 
-	public void copyDirectory(Path pSource, Path pTarget, Predicate<String> pExcludeFilter) {
+	/** Copies the files from the source directory, which are included by the given
+	 * filter. Excluded directories are skipped with their contents.
+	 */
+	public void copyDirectory(Path pSource, Path pTarget, PathFilter pFilter) {
+		// Directories are created while walking the tree, so the actual file copies
+		// can run concurrently on the I/O executor.
+		final List<Runnable> copyTasks = new ArrayList<>();
+		final long[] bytes = new long[1];
+		final boolean tracing = log.isTraceEnabled();
+		final Deque<PathFilter.State> states = new ArrayDeque<>();
 		final FileVisitor<Path> fv = new SimpleFileVisitor<Path>() {
 			@Override
 			public FileVisitResult preVisitDirectory(Path pDir, BasicFileAttributes pAttrs) throws IOException {
-				final Path relativePath = pSource.relativize(pDir);
-				final String relativePathStr = relativePath.toString().replace('\\', '/');
-				if (!pExcludeFilter.test(relativePathStr)) {
-					log.tracef("copyDirectory", "Skipping subdirectory %s", pDir);
+				final PathFilter.State state = states.isEmpty() ? pFilter.root() : states.peek().enter(pDir.getFileName().toString());
+				if (state.isPruned()) {
+					if (tracing) {
+						events.tracef(log, "copyDirectory", "Skipping subdirectory %s", pDir);
+					}
 					return FileVisitResult.SKIP_SUBTREE;
 				}
+				states.push(state);
+				Files.createDirectories(pTarget.resolve(pSource.relativize(pDir)));
 				return FileVisitResult.CONTINUE;
 			}
 
+			@Override
+			public FileVisitResult postVisitDirectory(Path pDir, IOException pExc) throws IOException {
+				states.pop();
+				return super.postVisitDirectory(pDir, pExc);
+			}
+
 			@Override
 			public FileVisitResult visitFile(Path pFile, BasicFileAttributes pAttrs) throws IOException {
+				if (!states.peek().enter(pFile.getFileName().toString()).isIncluded()) {
+					if (tracing) {
+						events.tracef(log, "copyDirectory", "Skipping file %s", pFile);
+					}
+					return FileVisitResult.CONTINUE;
+				}
 				final Path relativePath = pSource.relativize(pFile);
 				final Path targetFile = pTarget.resolve(relativePath);
-				log.tracef("copyDirectory", "Copying file %s to %s", pFile, targetFile);
-				final Path targetDir = targetFile.getParent();
-				if (targetDir != null) {
-					Files.createDirectories(targetDir);
-				}
-				Files.copy(pFile, targetFile, StandardCopyOption.REPLACE_EXISTING);
+				bytes[0] += pAttrs.size();
+				copyTasks.add(() -> {
+					if (tracing) {
+						events.tracef(log, "copyDirectory", "Copying file %s to %s", pFile, targetFile);
+					}
+					try {
+						Files.copy(pFile, targetFile, StandardCopyOption.REPLACE_EXISTING);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
 				return FileVisitResult.CONTINUE;
 			}
 		};
@@ -72,5 +105,42 @@ public class BuildUtils {
 		} catch (IOException e) {
 			throw Exceptions.show(e);
 		}
+		final BuildEvents.Scope event = BuildEvents.copyBatch(pSource.toString(), copyTasks.size(), bytes[0]);
+		try {
+			ioExecutor.runAll(copyTasks);
+		} finally {
+			event.close();
+		}
+	}
+
+	/** Returns the filter for copying a package into the build directory: The
+	 * properties <code>build.copy.includes</code>, and <code>build.copy.excludes</code>
+	 * are applied, and <code>code/classes</code> is always excluded.
+	 */
+	public PathFilter getPackageCopyFilter() {
+		return packageCopyFilter;
+	}
+
+	public void deleteDirectory(Path pDir) {
+		if (!Files.isDirectory(pDir)) {
+			return;
+		}
+		try {
+			Files.walkFileTree(pDir, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path pFile, BasicFileAttributes pAttrs) throws IOException {
+					Files.delete(pFile);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path pDir, IOException pExc) throws IOException {
+					Files.delete(pDir);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
 	}
 }
@@ -0,0 +1,65 @@
+package com.github.jochenw.isbuildtools.actions;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import javax.inject.Inject;
+
+import com.github.jochenw.afw.core.inject.IComponentFactory;
+import com.github.jochenw.afw.core.log.ILog;
+import com.github.jochenw.afw.core.props.IPropertyFactory;
+import com.github.jochenw.isbuildtools.cache.CacheServer;
+
+
+/** An action, which runs the embedded {@link CacheServer build cache server} until the
+ * JVM is terminated. Builds are using it by setting the property <code>build.cache.remote.url</code>
+ * to <code>http://&lt;host&gt;:&lt;port&gt;</code>.
+ *
+ * Properties:
+ * <ul>
+ *   <li><code>build.cache.server.host</code>: Address to listen on (default: localhost)</li>
+ *   <li><code>build.cache.server.port</code>: Port to listen on (default: 5071)</li>
+ *   <li><code>build.cache.server.dir</code>: Storage directory (default: &lt;target&gt;/is-build-tools/cache-server)</li>
+ * </ul>
+ */
+public class CacheServerAction extends AbstractAction {
+	private final ILog log;
+	private final IPropertyFactory propertyFactory;
+
+	public @Inject CacheServerAction(IComponentFactory pComponentFactory) {
+		super(pComponentFactory);
+		log = getLogger();
+		propertyFactory = pComponentFactory.requireInstance(IPropertyFactory.class);
+	}
+
+	protected String getProperty(String pKey, String pDefault) {
+		final String value = propertyFactory.getPropertyValue(pKey);
+		if (value == null  ||  value.trim().length() == 0) {
+			return pDefault;
+		}
+		return value.trim();
+	}
+
+	@Override
+	public void run() throws Exception {
+		log.entering("run");
+		final String host = getProperty("build.cache.server.host", "localhost");
+		final String portStr = getProperty("build.cache.server.port", "5071");
+		final int port;
+		try {
+			port = Integer.parseInt(portStr);
+		} catch (NumberFormatException e) {
+			throw new IllegalStateException("Invalid value for property build.cache.server.port: " + portStr);
+		}
+		final String dirStr = getProperty("build.cache.server.dir", null);
+		final Path dir = dirStr == null ? getTargetDir().resolve("is-build-tools/cache-server") : Paths.get(dirStr);
+		final CacheServer server = new CacheServer(log, dir);
+		server.start(host, port);
+		try {
+			Thread.currentThread().join();
+		} finally {
+			server.stop();
+			log.exiting("run");
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package com.github.jochenw.isbuildtools.actions;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import com.github.jochenw.afw.core.inject.IComponentFactory;
+import com.github.jochenw.afw.core.log.ILog;
+import com.github.jochenw.afw.core.props.IPropertyFactory;
+import com.github.jochenw.isbuildtools.cli.Main;
+import com.github.jochenw.isbuildtools.util.AtomicFiles;
+
+
+/** An action, which creates an application class-data-sharing (AppCDS) archive by running
+ * a representative build (a {@link SimpleBuildAction simpleBuild} of the project directory
+ * into a temporary target directory) in a child JVM. The launcher scripts are using the
+ * archive automatically, if it is present.
+ *
+ * The archive is written to the file given by the property <code>cds.archive.file</code>.
+ * By default, <code>is-build-tools.jsa</code> next to the jar file is used. Requires Java 13,
+ * or later, because of <code>-XX:ArchiveClassesAtExit</code>. The archive is only valid for
+ * the same JVM, and the same class path.
+ */
+public class CdsTrainingAction extends AbstractAction {
+	public static final String ARCHIVE_FILE_NAME = "is-build-tools.jsa";
+
+	private final ILog log;
+	private final IPropertyFactory propertyFactory;
+
+	public @Inject CdsTrainingAction(IComponentFactory pComponentFactory) {
+		super(pComponentFactory);
+		log = getLogger();
+		propertyFactory = pComponentFactory.requireInstance(IPropertyFactory.class);
+	}
+
+	protected int getJavaVersion() {
+		final String version = System.getProperty("java.specification.version");
+		if (version.startsWith("1.")) {
+			return Integer.parseInt(version.substring(2));
+		}
+		return Integer.parseInt(version);
+	}
+
+	protected Path getArchiveFile() {
+		final String fileStr = propertyFactory.getPropertyValue("cds.archive.file");
+		if (fileStr != null  &&  fileStr.trim().length() > 0) {
+			return Paths.get(fileStr.trim());
+		}
+		final CodeSource codeSource = Main.class.getProtectionDomain().getCodeSource();
+		if (codeSource != null) {
+			try {
+				final Path location = Paths.get(codeSource.getLocation().toURI());
+				if (Files.isRegularFile(location)  &&  location.getParent() != null) {
+					return location.getParent().resolve(ARCHIVE_FILE_NAME);
+				}
+			} catch (URISyntaxException e) {
+				// Ignore this, and use the default.
+			}
+		}
+		return getTargetDir().resolve("is-build-tools").resolve(ARCHIVE_FILE_NAME);
+	}
+
+	@Override
+	public void run() throws Exception {
+		log.entering("run");
+		final int javaVersion = getJavaVersion();
+		if (javaVersion < 13) {
+			throw new IllegalStateException("Creating an AppCDS archive requires Java 13, or later, got Java " + javaVersion);
+		}
+		final Path archiveFile = getArchiveFile().toAbsolutePath();
+		final Path tempArchiveFile = AtomicFiles.getTempFile(archiveFile);
+		final Path trainingDir = Files.createTempDirectory("is-build-tools-cds");
+		try {
+			final Path dir = archiveFile.getParent();
+			if (dir != null) {
+				Files.createDirectories(dir);
+			}
+			final List<String> cmd = new ArrayList<>();
+			cmd.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+			cmd.add("-XX:ArchiveClassesAtExit=" + tempArchiveFile);
+			cmd.add("-cp");
+			cmd.add(System.getProperty("java.class.path"));
+			cmd.add(Main.class.getName());
+			cmd.add("-wmHomeDir");
+			cmd.add(getWmHomeDir().toAbsolutePath().toString());
+			cmd.add("-projectDir");
+			cmd.add(getProjectDir().toAbsolutePath().toString());
+			addTrainingOptions(cmd);
+			cmd.add("-targetDir");
+			cmd.add(trainingDir.toString());
+			cmd.add("-action");
+			cmd.add(Main.ActionId.simpleBuild.name());
+			cmd.add("-logLevel");
+			cmd.add("WARN");
+			log.info("run", "Running training build: " + String.join(" ", cmd));
+			final Process process = new ProcessBuilder(cmd).inheritIO().start();
+			final int status = process.waitFor();
+			if (status != 0) {
+				throw new IllegalStateException("Training build failed with status=" + status);
+			}
+			if (!Files.isRegularFile(tempArchiveFile)) {
+				throw new IllegalStateException("Training build didn't create the AppCDS archive " + tempArchiveFile);
+			}
+			AtomicFiles.publish(tempArchiveFile, archiveFile);
+			log.info("run", "Created AppCDS archive " + archiveFile + " (" + Files.size(archiveFile) + " bytes)");
+		} finally {
+			AtomicFiles.deleteQuietly(tempArchiveFile);
+			deleteDirectory(trainingDir);
+		}
+		log.exiting("run");
+	}
+
+	/** Adds the options of the current invocation, which affect the build (the property
+	 * file, and the additional project directories), so that the training build is the
+	 * same as the builds, which are being sped up.
+	 */
+	protected void addTrainingOptions(List<String> pCmd) {
+		final String propertyFile = propertyFactory.getPropertyValue(Main.PROPERTY_FILE_PROPERTY);
+		if (propertyFile != null  &&  propertyFile.length() > 0) {
+			pCmd.add("-propertyFile");
+			pCmd.add(Paths.get(propertyFile).toAbsolutePath().toString());
+		}
+		final List<Path> projectDirs = getProjectDirs();
+		if (projectDirs.size() > 1) {
+			final List<String> additionalDirs = new ArrayList<>();
+			for (Path dir : projectDirs.subList(1, projectDirs.size())) {
+				additionalDirs.add(dir.toAbsolutePath().toString());
+			}
+			pCmd.add("-projectDirs");
+			pCmd.add(String.join(File.pathSeparator, additionalDirs));
+		}
+	}
+
+	protected void deleteDirectory(Path pDir) throws IOException {
+		if (!Files.isDirectory(pDir)) {
+			return;
+		}
+		Files.walkFileTree(pDir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path pFile, BasicFileAttributes pAttrs) throws IOException {
+				Files.delete(pFile);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path pDir, IOException pExc) throws IOException {
+				Files.delete(pDir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
@@ -0,0 +1,128 @@
+package com.github.jochenw.isbuildtools.actions;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+import com.github.jochenw.afw.core.log.ILog;
+
+
+/** Adjusts the number of threads of a {@link BuildPipeline} stage at runtime (AIMD):
+ * The stages throughput, and the average task latency are measured over a sampling
+ * window. If items are waiting in the stages queue, and the throughput hasn't dropped,
+ * then the limit is increased by one. If the throughput drops, while the latency goes
+ * up, then the stage is overloaded, and the limit is decreased by a quarter. If the free
+ * heap is below the configured minimum, then the limit is halved.
+ *
+ * CPU bound stages are capped by the number of processors, and grow only, while
+ * processors are idle (that is, while the CPU bound stages of the pipeline have
+ * fewer busy threads than processors). I/O bound stages are capped by four times
+ * the number of processors.
+ */
+class ConcurrencyController {
+	/** Relative change in throughput, or latency, that is treated as noise.
+	 */
+	private static final double TOLERANCE = 0.2;
+
+	private final ILog log;
+	private final String name;
+	private final ThreadPoolExecutor executor;
+	private final boolean cpuBound;
+	private final IntSupplier busyCpuThreads;
+	private final int maxLimit;
+	private final long windowNanos, minFreeHeap;
+	private final int initialLimit;
+	private int limit, lowestLimit, highestLimit;
+	private long windowStart;
+	private int completions;
+	private long latencySum;
+	private double lastThroughput = -1, lastLatency = -1;
+
+	ConcurrencyController(ILog pLog, String pName, ThreadPoolExecutor pExecutor, boolean pCpuBound,
+			              IntSupplier pBusyCpuThreads, int pMaxLimit, long pWindowMillis, long pMinFreeHeap) {
+		log = pLog;
+		name = pName;
+		executor = pExecutor;
+		cpuBound = pCpuBound;
+		busyCpuThreads = pBusyCpuThreads;
+		maxLimit = Math.max(1, pMaxLimit);
+		windowNanos = TimeUnit.MILLISECONDS.toNanos(pWindowMillis);
+		minFreeHeap = pMinFreeHeap;
+		initialLimit = Math.min(maxLimit, executor.getMaximumPoolSize());
+		limit = lowestLimit = highestLimit = initialLimit;
+		setPoolSize(limit);
+		windowStart = System.nanoTime();
+	}
+
+	int getLimit() { return limit; }
+
+	/** Called by a worker thread, after it has processed an item.
+	 * @param pLatencyNanos The time, that the task has taken.
+	 */
+	synchronized void completed(long pLatencyNanos) {
+		++completions;
+		latencySum += pLatencyNanos;
+		final long now = System.nanoTime();
+		final long elapsed = now - windowStart;
+		if (elapsed < windowNanos) {
+			return;
+		}
+		final double throughput = completions * 1000000000.0 / elapsed;
+		final double latency = latencySum / (double) completions;
+		final int newLimit = getNewLimit(throughput, latency);
+		lastThroughput = throughput;
+		lastLatency = latency;
+		windowStart = now;
+		completions = 0;
+		latencySum = 0;
+		if (newLimit != limit) {
+			log.debug("completed", "Stage " + name + ": Changing the number of threads from " + limit + " to " + newLimit
+					  + String.format(" (%.1f items/s, %.0f ms per item)", Double.valueOf(throughput),
+							          Double.valueOf(latency / 1000000.0)));
+			limit = newLimit;
+			lowestLimit = Math.min(lowestLimit, limit);
+			highestLimit = Math.max(highestLimit, limit);
+			setPoolSize(limit);
+		}
+	}
+
+	protected int getNewLimit(double pThroughput, double pLatency) {
+		final Runtime rt = Runtime.getRuntime();
+		final long freeHeap = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+		if (freeHeap < minFreeHeap) {
+			return Math.max(1, limit / 2);
+		}
+		if (lastThroughput > 0
+				&&  pThroughput < lastThroughput * (1 - TOLERANCE)
+				&&  pLatency > lastLatency * (1 + TOLERANCE)) {
+			return Math.max(1, limit * 3 / 4);
+		}
+		if (limit < maxLimit
+				&&  !executor.getQueue().isEmpty()
+				&&  (lastThroughput < 0  ||  pThroughput >= lastThroughput * (1 - TOLERANCE))
+				&&  (!cpuBound  ||  busyCpuThreads.getAsInt() < Runtime.getRuntime().availableProcessors())) {
+			return limit + 1;
+		}
+		return limit;
+	}
+
+	protected void setPoolSize(int pSize) {
+		// The core pool size must never exceed the maximum pool size, so the order matters.
+		if (pSize > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(pSize);
+			executor.setCorePoolSize(pSize);
+		} else {
+			executor.setCorePoolSize(pSize);
+			executor.setMaximumPoolSize(pSize);
+		}
+	}
+
+	/** Logs the range of limits, that have been used.
+	 */
+	synchronized void logSummary() {
+		if (lowestLimit != initialLimit  ||  highestLimit != initialLimit) {
+			log.info("run", "Stage " + name + ": Used " + lowestLimit + " to " + highestLimit + " threads (initially "
+					 + initialLimit + ", finally " + limit + ", maximum " + maxLimit + ")");
+		}
+	}
+}
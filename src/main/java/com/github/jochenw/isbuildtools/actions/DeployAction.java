@@ -0,0 +1,156 @@
+package com.github.jochenw.isbuildtools.actions;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import javax.inject.Inject;
+
+import com.github.jochenw.afw.core.inject.IComponentFactory;
+import com.github.jochenw.afw.core.log.ILog;
+import com.github.jochenw.afw.core.props.IPropertyFactory;
+import com.github.jochenw.isbuildtools.compile.PackageFileIndex;
+import com.github.jochenw.isbuildtools.util.AtomicFiles;
+import com.github.jochenw.isbuildtools.util.Digests;
+
+
+/** An action, which copies the package archives from <code>target/is-build-tools/dist</code>
+ * into the <code>replicate/inbound</code> directory of a local Integration Server. Only
+ * archives, which have changed since the previous deployment, are copied. The target
+ * directory is given by the property <code>deploy.inbound.dir</code>. By default,
+ * <code>&lt;WM_HOME&gt;/IntegrationServer/instances/default/replicate/inbound</code>
+ * is used, if it exists, or <code>&lt;WM_HOME&gt;/IntegrationServer/replicate/inbound</code>.
+ */
+public class DeployAction extends AbstractAction {
+	private static final String TARGET_DIR_KEY = "deploy.inbound.dir";
+
+	private final ILog log;
+	private final IPropertyFactory propertyFactory;
+
+	public @Inject DeployAction(IComponentFactory pComponentFactory) {
+		super(pComponentFactory);
+		log = getLogger();
+		propertyFactory = pComponentFactory.requireInstance(IPropertyFactory.class);
+	}
+
+	protected Path getDistDir() {
+		return getTargetDir().resolve("is-build-tools/dist");
+	}
+
+	protected Path getDeploymentRecordFile() {
+		return getTargetDir().resolve("is-build-tools/deploy-record.properties");
+	}
+
+	protected Path getInboundDir() {
+		final String dirStr = propertyFactory.getPropertyValue(TARGET_DIR_KEY);
+		if (dirStr != null  &&  dirStr.trim().length() > 0) {
+			return Paths.get(dirStr.trim());
+		}
+		final Path instanceDir = getWmHomeDir().resolve("IntegrationServer/instances/default/replicate/inbound");
+		if (Files.isDirectory(instanceDir)) {
+			return instanceDir;
+		}
+		return getWmHomeDir().resolve("IntegrationServer/replicate/inbound");
+	}
+
+	@Override
+	public void run() throws Exception {
+		log.entering("run");
+		final Path distDir = getDistDir();
+		final Path inboundDir = getInboundDir().toAbsolutePath();
+		if (!Files.isDirectory(distDir)) {
+			throw new IllegalStateException("Distribution directory not found: " + distDir);
+		}
+		Files.createDirectories(inboundDir);
+		final Path recordFile = getDeploymentRecordFile();
+		final Properties record = readRecord(recordFile);
+		if (!inboundDir.toString().equals(record.getProperty(TARGET_DIR_KEY))) {
+			// Different target, the previous record doesn't apply.
+			record.clear();
+			record.setProperty(TARGET_DIR_KEY, inboundDir.toString());
+		}
+		final List<Path> archives = new ArrayList<>();
+		try (DirectoryStream<Path> ds = Files.newDirectoryStream(distDir, "*.zip")) {
+			for (Path p : ds) {
+				if (Files.isRegularFile(p)) {
+					archives.add(p);
+				}
+			}
+		}
+		int deployed = 0;
+		try {
+			for (Path archive : archives) {
+				final String archiveName = archive.getFileName().toString();
+				final String digest = getDigest(archive);
+				final Path targetFile = inboundDir.resolve(archiveName);
+				if (digest.equals(record.getProperty(archiveName))  &&  Files.isRegularFile(targetFile)) {
+					log.debug("run", "Unchanged, skipping: " + archiveName);
+					continue;
+				}
+				log.info("run", "Deploying " + archiveName + " to " + inboundDir);
+				AtomicFiles.copy(archive, targetFile);
+				record.setProperty(archiveName, digest);
+				++deployed;
+			}
+		} finally {
+			writeRecord(recordFile, record);
+		}
+		log.info("run", "Deployed " + deployed + " of " + archives.size() + " package archives");
+		log.exiting("run");
+	}
+
+	/** Returns the archives SHA-256. The digest is taken from the <code>.sha256</code> sidecar
+	 * file, if that is up-to-date, otherwise it is computed.
+	 */
+	protected String getDigest(Path pArchive) throws IOException {
+		final Path sha256File = PackageFileIndex.getSha256File(pArchive);
+		if (Files.isRegularFile(sha256File)
+				&&  Files.getLastModifiedTime(sha256File).compareTo(Files.getLastModifiedTime(pArchive)) >= 0) {
+			try (BufferedReader br = Files.newBufferedReader(sha256File, StandardCharsets.UTF_8)) {
+				final String line = br.readLine();
+				if (line != null) {
+					final int offset = line.indexOf(' ');
+					if (offset > 0) {
+						return line.substring(0, offset);
+					}
+				}
+			}
+		}
+		return Digests.sha256(pArchive);
+	}
+
+	protected Properties readRecord(Path pFile) {
+		final Properties props = new Properties();
+		if (Files.isRegularFile(pFile)) {
+			try (InputStream in = Files.newInputStream(pFile)) {
+				props.load(in);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return props;
+	}
+
+	protected void writeRecord(Path pFile, Properties pRecord) {
+		final Path tempFile = AtomicFiles.getTempFile(pFile);
+		try {
+			try (OutputStream out = Files.newOutputStream(tempFile)) {
+				pRecord.store(out, "Deployed package archives, and their SHA-256 digests");
+			}
+			AtomicFiles.publish(tempFile, pFile);
+		} catch (IOException e) {
+			AtomicFiles.deleteQuietly(tempFile);
+			throw new UncheckedIOException(e);
+		}
+	}
+}
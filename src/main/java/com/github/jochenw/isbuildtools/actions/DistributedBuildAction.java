@@ -0,0 +1,300 @@
+package com.github.jochenw.isbuildtools.actions;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+
+import com.github.jochenw.afw.core.inject.IComponentFactory;
+import com.github.jochenw.afw.core.log.ILog;
+import com.github.jochenw.afw.core.props.IPropertyFactory;
+import com.github.jochenw.isbuildtools.cache.BuildCache;
+import com.github.jochenw.isbuildtools.compile.PackageFileCreator;
+import com.github.jochenw.isbuildtools.compile.PackageFileIndex;
+import com.github.jochenw.isbuildtools.dist.WorkerConnection;
+import com.github.jochenw.isbuildtools.util.AtomicFiles;
+import com.github.jochenw.isbuildtools.util.BuildTracer;
+import com.github.jochenw.isbuildtools.util.FileLocks;
+import com.github.jochenw.isbuildtools.util.Digests;
+
+
+/** The coordinator of a distributed build: Plans the package graph like the
+ * {@link SimpleBuildAction}, and ships every package to a {@link WorkerAction worker}.
+ * The worker receives the package directory, and a bundle (manifest, classes, and
+ * jar files) of every package, which is required for compiling. It returns the
+ * compiled classes, and the archive. If a worker is lost, its package is rescheduled
+ * to another worker.
+ *
+ * Properties:
+ * <ul>
+ *   <li><code>dist.workers</code>: Comma separated list of worker addresses (host:port), required</li>
+ *   <li><code>dist.worker.slots</code>: Number of concurrent jobs per worker (default: 1)</li>
+ *   <li><code>dist.timeout</code>: Socket timeout in milliseconds (default: 600000)</li>
+ *   <li><code>dist.maxAttempts</code>: Number of attempts per package (default: 3)</li>
+ * </ul>
+ */
+public class DistributedBuildAction extends SimpleBuildAction {
+	private static class Job {
+		private final Path packageDir;
+		private int attempts;
+		Job(Path pPackageDir) {
+			packageDir = pPackageDir;
+		}
+	}
+
+	private static class Bundle {
+		private final String hash;
+		private final Path file;
+		Bundle(String pHash, Path pFile) {
+			hash = pHash;
+			file = pFile;
+		}
+	}
+
+	private final ILog log;
+	private final IPropertyFactory propertyFactory;
+	private final PackageFileCreator packageFileCreator;
+	private final Map<String,Bundle> bundlesByName = new ConcurrentHashMap<>();
+	private final Map<String,Bundle> bundlesByHash = new ConcurrentHashMap<>();
+
+	public @Inject DistributedBuildAction(IComponentFactory pComponentFactory) {
+		super(pComponentFactory);
+		log = getLogger();
+		propertyFactory = pComponentFactory.requireInstance(IPropertyFactory.class);
+		packageFileCreator = pComponentFactory.requireInstance(PackageFileCreator.class);
+	}
+
+	protected int getIntProperty(String pKey, int pDefault) {
+		final String value = propertyFactory.getPropertyValue(pKey);
+		if (value == null  ||  value.trim().length() == 0) {
+			return pDefault;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalStateException("Invalid value for property " + pKey + ": " + value);
+		}
+	}
+
+	protected List<String> getWorkers() {
+		final String value = propertyFactory.getPropertyValue("dist.workers");
+		final List<String> workers = new ArrayList<>();
+		if (value != null) {
+			for (String s : value.split(",")) {
+				if (s.trim().length() > 0) {
+					workers.add(s.trim());
+				}
+			}
+		}
+		if (workers.isEmpty()) {
+			throw new IllegalStateException("The property dist.workers is required for a distributed build.");
+		}
+		return workers;
+	}
+
+	protected Path getWorkDir() {
+		return getTargetOutputDir().resolve("distributed");
+	}
+
+	@Override
+	public void run() throws Exception {
+		log.entering("run");
+		final List<String> workers = getWorkers();
+		final int slots = Math.max(1, getIntProperty("dist.worker.slots", 1));
+		final int timeout = getIntProperty("dist.timeout", 600000);
+		final int maxAttempts = Math.max(1, getIntProperty("dist.maxAttempts", 3));
+		final Path buildTimesFile = getBuildTimesFile();
+		final BuildTimes buildTimes = BuildTimes.read(buildTimesFile);
+		final List<Path> packageDirs = createPackageGraph(buildTimes);
+
+		final BlockingDeque<Job> queue = new LinkedBlockingDeque<>();
+		for (Path packageDir : packageDirs) {
+			queue.add(new Job(packageDir));
+		}
+		final AtomicInteger remaining = new AtomicInteger(packageDirs.size());
+		final Map<String,String> failures = new ConcurrentHashMap<>();
+		final List<Thread> threads = new ArrayList<>();
+		for (String worker : workers) {
+			for (int i = 0;  i < slots;  i++) {
+				final Thread t = new Thread(() -> runSlot(worker, timeout, maxAttempts, queue, remaining, failures, buildTimes),
+						                    "is-build-tools-dist-" + worker + "-" + i);
+				threads.add(t);
+				t.start();
+			}
+		}
+		try {
+			for (Thread t : threads) {
+				t.join();
+			}
+		} finally {
+			getTracer().write(getTraceFile());
+		}
+		if (remaining.get() > 0) {
+			throw new IllegalStateException("All workers have been lost, " + remaining.get() + " package(s) have not been built.");
+		}
+		if (!failures.isEmpty()) {
+			final StringBuilder sb = new StringBuilder("Distributed build failed for " + failures.size() + " package(s):");
+			for (Map.Entry<String,String> en : new TreeMap<>(failures).entrySet()) {
+				sb.append(System.lineSeparator()).append("  ").append(en.getKey()).append(": ").append(en.getValue());
+			}
+			throw new IllegalStateException(sb.toString());
+		}
+		// Only successful builds are recorded, so that partial times don't distort the averages.
+		buildTimes.write(buildTimesFile);
+		log.exiting("run");
+	}
+
+	/** Runs the jobs for one connection to a worker, until all jobs are done, or the worker is lost.
+	 */
+	protected void runSlot(String pWorker, int pTimeout, int pMaxAttempts, BlockingDeque<Job> pQueue,
+			               AtomicInteger pRemaining, Map<String,String> pFailures, BuildTimes pBuildTimes) {
+		WorkerConnection conn = null;
+		try {
+			while (pRemaining.get() > 0) {
+				final Job job;
+				try {
+					job = pQueue.poll(200, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				if (job == null) {
+					continue;
+				}
+				if (conn == null) {
+					conn = new WorkerConnection(pWorker, pTimeout);
+					try {
+						conn.connect();
+						log.info("runSlot", "Connected to worker " + conn.getWorkerId() + " at " + pWorker);
+					} catch (IOException e) {
+						log.warn("runSlot", "Unable to connect to worker " + pWorker + ", giving up on it: " + e);
+						pQueue.addFirst(job);
+						return;
+					}
+				}
+				final String packageName = getPackageName(job.packageDir);
+				final long start = System.currentTimeMillis();
+				final BuildTracer.Span span = getTracer().span("worker", packageName + " on " + pWorker, packageName);
+				try {
+					final FileLocks.Lock lock = lockPackage(job.packageDir);
+					try {
+						String error = build(conn, job.packageDir);
+						if (error == null) {
+							try {
+								createPatch(job.packageDir);
+							} catch (RuntimeException e) {
+								error = "Unable to create the patch archive: " + e.getMessage();
+							}
+						}
+						pBuildTimes.add(packageName, System.currentTimeMillis()-start);
+						if (error != null) {
+							pFailures.put(packageName, error);
+						}
+						pRemaining.decrementAndGet();
+					} finally {
+						lock.close();
+					}
+				} catch (IOException e) {
+					log.warn("runSlot", "Lost worker " + pWorker + " while building package " + packageName + ": " + e);
+					conn.close();
+					conn = null;
+					if (++job.attempts >= pMaxAttempts) {
+						pFailures.put(packageName, "Giving up after " + job.attempts + " attempts, last error: " + e);
+						pRemaining.decrementAndGet();
+					} else {
+						log.info("runSlot", "Rescheduling package " + packageName);
+						pQueue.addFirst(job);
+					}
+					return;
+				} catch (RuntimeException e) {
+					log.error("runSlot", e);
+					pFailures.put(packageName, String.valueOf(e.getMessage()));
+					pRemaining.decrementAndGet();
+				} finally {
+					span.close();
+				}
+			}
+		} finally {
+			if (conn != null) {
+				conn.close();
+			}
+		}
+	}
+
+	/** Builds a single package on the given worker.
+	 * @return Null, if the build succeeded, otherwise an error message.
+	 * @throws IOException The worker has been lost.
+	 */
+	protected String build(WorkerConnection pConnection, Path pPackageDir) throws IOException {
+		final String packageName = getPackageName(pPackageDir);
+		final String archiveName = packageFileCreator.getArchiveName(packageName);
+		final Path jobDir = getWorkDir().resolve("jobs").resolve(packageName);
+		final Path sourceZip = jobDir.resolve("source.zip");
+		BuildCache.zipDirectory(pPackageDir, sourceZip, (s) -> !s.startsWith("code/classes/"));
+		final Map<String,String> bundles = new HashMap<>();
+		final Set<String> packages = new LinkedHashSet<>();
+		collectDependencies(getPackageGraph().getNode(packageName), packages);
+		for (String name : packages) {
+			bundles.put(name, getBundle(name).hash);
+		}
+		final Path classesZip = jobDir.resolve("classes.zip");
+		final Path distDir = getTargetOutputDir().resolve("dist");
+		final Path archiveFile = distDir.resolve(archiveName);
+		final Path tempArchiveFile = jobDir.resolve(archiveName);
+		final Path tempSha256File = PackageFileIndex.getSha256File(tempArchiveFile);
+		final Path tempEntriesFile = PackageFileIndex.getEntriesFile(tempArchiveFile);
+		log.info("build", "Building package " + packageName + " on worker " + pConnection.getWorkerId());
+		final WorkerConnection.Result result = pConnection.build(packageName, archiveName, sourceZip, bundles,
+				(h) -> { final Bundle b = bundlesByHash.get(h); return b == null ? null : b.file; },
+				classesZip, tempArchiveFile, tempSha256File, tempEntriesFile);
+		if (!result.isOk()) {
+			log.error("build", "Package " + packageName + " failed on worker " + pConnection.getWorkerId() + ": " + result.getMessage());
+			return result.getMessage();
+		}
+		if (getPackageFileVerifier().isVerifying()) {
+			// The archive has been transferred over the network, so it is verified against its index.
+			final List<String> mismatches = getPackageFileVerifier().verify(tempArchiveFile, null);
+			if (!mismatches.isEmpty()) {
+				return "Archive verification failed: " + String.join(", ", mismatches);
+			}
+		}
+		BuildCache.unzip(classesZip, getPackageBuildDir(pPackageDir).resolve("code/classes"));
+		AtomicFiles.copy(tempArchiveFile, archiveFile);
+		if (result.isWithChecksums()) {
+			AtomicFiles.copy(tempSha256File, PackageFileIndex.getSha256File(archiveFile));
+			AtomicFiles.copy(tempEntriesFile, PackageFileIndex.getEntriesFile(archiveFile));
+		}
+		getBuildUtils().deleteDirectory(jobDir);
+		log.info("build", "Built package " + packageName + " on worker " + pConnection.getWorkerId());
+		return null;
+	}
+
+	/** Returns the bundle of the given package, creating it, if necessary. The hash covers
+	 * the package name, and the bundle contents.
+	 */
+	protected Bundle getBundle(String pPackageName) {
+		return bundlesByName.computeIfAbsent(pPackageName, (n) -> {
+			final Path packageDir = getPackageGraph().getNode(n).getDir();
+			final Path bundleFile = getWorkDir().resolve("bundles").resolve(n + ".zip");
+			BuildCache.zipDirectory(packageDir, bundleFile, (s) -> s.equals("manifest.v3")
+					||  s.startsWith("code/classes/")  ||  (s.startsWith("code/jars/")  &&  s.endsWith(".jar")));
+			final String hash = BuildCache.hash(Arrays.asList(n, Digests.sha256(bundleFile)));
+			final Bundle bundle = new Bundle(hash, bundleFile);
+			bundlesByHash.put(hash, bundle);
+			return bundle;
+		});
+	}
+}
@@ -0,0 +1,325 @@
+package com.github.jochenw.isbuildtools.actions;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import com.github.jochenw.isbuildtools.compile.ManifestParser;
+
+
+/** The graph of package dependencies, as declared by the <code>requires</code> section
+ * of the packages manifest files. The graph is built once per build. Cycles, and missing
+ * packages, are detected up front. Every package is assigned a dependency level (0 for
+ * packages without dependencies), and a weighted critical path is computed from the
+ * packages historical build times.
+ */
+public class PackageGraph {
+	public static class Node {
+		private final String name;
+		private final Path dir;
+		private final boolean building;
+		private final List<String> requiredPackages = new ArrayList<>();
+		private final List<Node> dependencies = new ArrayList<>();
+		private int level = -1;
+		private long weight, criticalPathWeight;
+		private Node criticalPathSuccessor;
+
+		Node(String pName, Path pDir, boolean pBuilding) {
+			name = pName;
+			dir = pDir;
+			building = pBuilding;
+		}
+		public String getName() { return name; }
+		public Path getDir() { return dir; }
+		/** Returns, whether the package is part of the build, as opposed to a package,
+		 * which is only required by another package.
+		 */
+		public boolean isBuilding() { return building; }
+		public List<String> getRequiredPackages() { return Collections.unmodifiableList(requiredPackages); }
+		public List<Node> getDependencies() { return Collections.unmodifiableList(dependencies); }
+		public int getLevel() { return level; }
+		/** Returns the (historical, or estimated) build time of this package in milliseconds.
+		 */
+		public long getWeight() { return weight; }
+		/** Returns the sum of the weights along the heaviest dependency chain, which starts with this package.
+		 */
+		public long getCriticalPathWeight() { return criticalPathWeight; }
+	}
+
+	public static final long DEFAULT_WEIGHT = 1000;
+
+	private final Map<String,Node> nodes = new LinkedHashMap<>();
+	private final Map<String,Set<String>> missingPackages = new TreeMap<>();
+	private final List<List<String>> cycles = new ArrayList<>();
+
+	/** Creates the graph.
+	 * @param pPackageNames The names of the packages, which are being built.
+	 * @param pPackageLocator Maps package names to package directories. Returns null for unknown packages.
+	 * @param pBuildTimes The historical build times, or null.
+	 */
+	public static PackageGraph of(Collection<String> pPackageNames, Function<String,Path> pPackageLocator, BuildTimes pBuildTimes) {
+		final PackageGraph graph = new PackageGraph();
+		final Deque<Node> queue = new ArrayDeque<>();
+		for (String packageName : pPackageNames) {
+			final Node node = new Node(packageName, pPackageLocator.apply(packageName), true);
+			graph.nodes.put(packageName, node);
+			queue.add(node);
+		}
+		while (!queue.isEmpty()) {
+			final Node node = queue.removeFirst();
+			if (node.getDir() != null) {
+				final Path manifestFile = node.getDir().resolve("manifest.v3");
+				if (Files.isRegularFile(manifestFile)) {
+					ManifestParser.parse(manifestFile, new ManifestParser.Listener() {
+						@Override
+						public void requires(String pPackageName, String pVersion) {
+							node.requiredPackages.add(pPackageName);
+						}
+					});
+				}
+			}
+			for (String requiredPackage : node.requiredPackages) {
+				Node dependency = graph.nodes.get(requiredPackage);
+				if (dependency == null  &&  !graph.missingPackages.containsKey(requiredPackage)) {
+					final Path dir = pPackageLocator.apply(requiredPackage);
+					if (dir == null  ||  !Files.isDirectory(dir)) {
+						graph.missingPackages.put(requiredPackage, new LinkedHashSet<>());
+					} else {
+						dependency = new Node(requiredPackage, dir, false);
+						graph.nodes.put(requiredPackage, dependency);
+						queue.add(dependency);
+					}
+				}
+				if (dependency == null) {
+					graph.missingPackages.get(requiredPackage).add(node.getName());
+				} else {
+					node.dependencies.add(dependency);
+				}
+			}
+		}
+		graph.findCycles();
+		graph.computeLevels();
+		graph.computeCriticalPath(pBuildTimes);
+		return graph;
+	}
+
+	public Node getNode(String pPackageName) {
+		return nodes.get(pPackageName);
+	}
+
+	public Collection<Node> getNodes() {
+		return Collections.unmodifiableCollection(nodes.values());
+	}
+
+	/** Returns the missing packages, mapped to the packages, which require them.
+	 */
+	public Map<String,Set<String>> getMissingPackages() {
+		return Collections.unmodifiableMap(missingPackages);
+	}
+
+	public List<List<String>> getCycles() {
+		return Collections.unmodifiableList(cycles);
+	}
+
+	/** Returns the packages, which are being built, grouped by dependency level.
+	 * The packages on one level only depend on packages on lower levels.
+	 */
+	public List<List<String>> getLevels() {
+		final List<List<String>> levels = new ArrayList<>();
+		for (Node node : nodes.values()) {
+			if (node.isBuilding()) {
+				while (levels.size() <= node.getLevel()) {
+					levels.add(new ArrayList<>());
+				}
+				levels.get(node.getLevel()).add(node.getName());
+			}
+		}
+		return levels;
+	}
+
+	/** Returns the packages on the heaviest dependency chain, starting with the package,
+	 * which must be built last.
+	 */
+	public List<Node> getCriticalPath() {
+		Node start = null;
+		for (Node node : nodes.values()) {
+			if (start == null  ||  node.getCriticalPathWeight() > start.getCriticalPathWeight()) {
+				start = node;
+			}
+		}
+		final List<Node> path = new ArrayList<>();
+		for (Node node = start;  node != null;  node = node.criticalPathSuccessor) {
+			path.add(node);
+		}
+		return path;
+	}
+
+	/** Returns the given packages in scheduling order: Lower levels first, and, within a
+	 * level, packages with a heavier critical path first.
+	 */
+	public <T> List<T> sort(Collection<T> pItems, Function<T,String> pNameMapper) {
+		final List<T> list = new ArrayList<>(pItems);
+		final Comparator<T> comparator = Comparator.comparingInt((T t) -> {
+			final Node node = nodes.get(pNameMapper.apply(t));
+			return node == null ? 0 : node.getLevel();
+		}).thenComparing(Comparator.comparingLong((T t) -> {
+			final Node node = nodes.get(pNameMapper.apply(t));
+			return node == null ? 0 : node.getCriticalPathWeight();
+		}).reversed());
+		list.sort(comparator);
+		return list;
+	}
+
+	public List<String> getReport() {
+		final List<String> lines = new ArrayList<>();
+		final List<List<String>> levels = getLevels();
+		lines.add("Package graph: " + nodes.size() + " packages, " + levels.size() + " dependency levels, "
+				  + cycles.size() + " cycles, " + missingPackages.size() + " missing packages");
+		for (int i = 0;  i < levels.size();  i++) {
+			lines.add("  Level " + i + ": " + String.join(", ", levels.get(i)));
+		}
+		for (List<String> cycle : cycles) {
+			lines.add("  Cycle: " + String.join(" -> ", cycle) + " -> " + cycle.get(0));
+		}
+		for (Map.Entry<String,Set<String>> en : missingPackages.entrySet()) {
+			lines.add("  Missing package: " + en.getKey() + ", required by " + String.join(", ", en.getValue()));
+		}
+		final List<Node> criticalPath = getCriticalPath();
+		if (!criticalPath.isEmpty()) {
+			final StringBuilder sb = new StringBuilder("  Critical path (" + criticalPath.get(0).getCriticalPathWeight() + " ms): ");
+			for (int i = 0;  i < criticalPath.size();  i++) {
+				final Node node = criticalPath.get(i);
+				if (i > 0) {
+					sb.append(" <- ");
+				}
+				sb.append(node.getName()).append(" (").append(node.getWeight()).append(" ms)");
+			}
+			lines.add(sb.toString());
+		}
+		return lines;
+	}
+
+	// Tarjan's algorithm for strongly connected components.
+	private void findCycles() {
+		final Map<Node,Integer> index = new HashMap<>();
+		final Map<Node,Integer> lowLink = new HashMap<>();
+		final Deque<Node> stack = new ArrayDeque<>();
+		final Set<Node> onStack = new LinkedHashSet<>();
+		for (Node node : nodes.values()) {
+			if (!index.containsKey(node)) {
+				findCycles(node, index, lowLink, stack, onStack);
+			}
+		}
+	}
+
+	private void findCycles(Node pNode, Map<Node,Integer> pIndex, Map<Node,Integer> pLowLink,
+			                Deque<Node> pStack, Set<Node> pOnStack) {
+		final Integer idx = Integer.valueOf(pIndex.size());
+		pIndex.put(pNode, idx);
+		pLowLink.put(pNode, idx);
+		pStack.push(pNode);
+		pOnStack.add(pNode);
+		boolean selfLoop = false;
+		for (Node dependency : pNode.dependencies) {
+			if (dependency == pNode) {
+				selfLoop = true;
+			} else if (!pIndex.containsKey(dependency)) {
+				findCycles(dependency, pIndex, pLowLink, pStack, pOnStack);
+				pLowLink.put(pNode, Math.min(pLowLink.get(pNode), pLowLink.get(dependency)));
+			} else if (pOnStack.contains(dependency)) {
+				pLowLink.put(pNode, Math.min(pLowLink.get(pNode), pIndex.get(dependency)));
+			}
+		}
+		if (pLowLink.get(pNode).equals(pIndex.get(pNode))) {
+			final List<String> component = new ArrayList<>();
+			Node n;
+			do {
+				n = pStack.pop();
+				pOnStack.remove(n);
+				component.add(n.getName());
+			} while (n != pNode);
+			if (component.size() > 1  ||  selfLoop) {
+				Collections.reverse(component);
+				cycles.add(component);
+			}
+		}
+	}
+
+	private void computeLevels() {
+		final Set<Node> visiting = new LinkedHashSet<>();
+		for (Node node : nodes.values()) {
+			computeLevel(node, visiting);
+		}
+	}
+
+	private int computeLevel(Node pNode, Set<Node> pVisiting) {
+		if (pNode.level >= 0) {
+			return pNode.level;
+		}
+		if (!pVisiting.add(pNode)) {
+			return -1; // A cycle, which has already been reported. Ignore this edge.
+		}
+		int level = 0;
+		for (Node dependency : pNode.dependencies) {
+			final int dependencyLevel = computeLevel(dependency, pVisiting);
+			if (dependencyLevel >= 0  &&  dependency.isBuilding()) {
+				level = Math.max(level, dependencyLevel+1);
+			}
+		}
+		pVisiting.remove(pNode);
+		pNode.level = level;
+		return level;
+	}
+
+	private void computeCriticalPath(BuildTimes pBuildTimes) {
+		long defaultWeight = DEFAULT_WEIGHT;
+		if (pBuildTimes != null  &&  !pBuildTimes.getTimes().isEmpty()) {
+			long sum = 0;
+			for (Long time : pBuildTimes.getTimes().values()) {
+				sum += time.longValue();
+			}
+			defaultWeight = sum / pBuildTimes.getTimes().size();
+		}
+		for (Node node : nodes.values()) {
+			if (node.isBuilding()) {
+				final Long time = pBuildTimes == null ? null : pBuildTimes.getTime(node.getName());
+				node.weight = time == null ? defaultWeight : time.longValue();
+			}
+		}
+		final Set<Node> done = new LinkedHashSet<>();
+		final Set<Node> visiting = new LinkedHashSet<>();
+		for (Node node : nodes.values()) {
+			computeCriticalPath(node, done, visiting);
+		}
+	}
+
+	private void computeCriticalPath(Node pNode, Set<Node> pDone, Set<Node> pVisiting) {
+		if (pDone.contains(pNode)  ||  !pVisiting.add(pNode)) {
+			return;
+		}
+		long max = 0;
+		for (Node dependency : pNode.dependencies) {
+			computeCriticalPath(dependency, pDone, pVisiting);
+			if (pDone.contains(dependency)  &&  dependency.criticalPathWeight > max) {
+				max = dependency.criticalPathWeight;
+				pNode.criticalPathSuccessor = dependency;
+			}
+		}
+		pNode.criticalPathWeight = pNode.weight + max;
+		pVisiting.remove(pNode);
+		pDone.add(pNode);
+	}
+}
@@ -0,0 +1,112 @@
+package com.github.jochenw.isbuildtools.actions;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.jochenw.afw.core.log.ILog;
+
+
+/** Resolves package names to package directories. The index is built once from the
+ * packages, which have been found in the project directories (including those, which
+ * aren't being built). Packages, which aren't found there, are looked up in the
+ * package roots (for example, <code>&lt;WM_HOME&gt;/IntegrationServer/packages</code>,
+ * or a shared package repository). The package roots are indexed on the first lookup,
+ * which isn't satisfied by the project directories. If a package is present in
+ * several roots, then the first root wins.
+ */
+public class PackageRegistry {
+	private final ILog log;
+	private final Map<String,Path> projectPackages;
+	private final List<Path> projectDirs;
+	private final List<Path> roots;
+	private volatile Map<String,Path> rootPackages;
+
+	public PackageRegistry(ILog pLog, Map<String,Path> pProjectPackages, List<Path> pProjectDirs, List<Path> pRoots) {
+		log = pLog;
+		projectPackages = new HashMap<>(pProjectPackages);
+		projectDirs = pProjectDirs;
+		roots = pRoots;
+	}
+
+	public List<Path> getRoots() {
+		return Collections.unmodifiableList(roots);
+	}
+
+	/** Returns the directory of the given package, or null, if the package is unknown.
+	 */
+	public Path get(String pPackageName) {
+		final Path dir = projectPackages.get(pPackageName);
+		if (dir != null) {
+			return dir;
+		}
+		return getRootPackages().get(pPackageName);
+	}
+
+	/** Returns the directory of the given package.
+	 * @throws IllegalStateException The package is unknown.
+	 */
+	public Path require(String pPackageName) {
+		final Path dir = get(pPackageName);
+		if (dir == null) {
+			throw new IllegalStateException("Package " + pPackageName + " not found. " + getSearchPath());
+		}
+		return dir;
+	}
+
+	/** Returns a description of the directories, which are searched for packages.
+	 */
+	public String getSearchPath() {
+		final StringBuilder sb = new StringBuilder("Searched the project directories ");
+		sb.append(projectDirs);
+		if (roots.isEmpty()) {
+			sb.append(", and no package roots (see project.packages.roots).");
+		} else {
+			sb.append(", and the package roots ").append(roots).append('.');
+		}
+		return sb.toString();
+	}
+
+	protected Map<String,Path> getRootPackages() {
+		Map<String,Path> map = rootPackages;
+		if (map == null) {
+			synchronized (this) {
+				map = rootPackages;
+				if (map == null) {
+					map = index(roots);
+					rootPackages = map;
+				}
+			}
+		}
+		return map;
+	}
+
+	protected Map<String,Path> index(List<Path> pRoots) {
+		final Map<String,Path> map = new HashMap<>();
+		for (Path root : pRoots) {
+			int count = 0;
+			try (DirectoryStream<Path> ds = Files.newDirectoryStream(root)) {
+				for (Path dir : ds) {
+					if (Files.isRegularFile(dir.resolve("manifest.v3"))) {
+						final String name = dir.getFileName().toString();
+						if (map.putIfAbsent(name, dir) == null) {
+							++count;
+						} else {
+							log.debug("index", "Ignoring package " + dir + ", which is shadowed by " + map.get(name));
+						}
+					}
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			log.debug("index", "Indexed " + count + " packages in package root " + root);
+		}
+		return map;
+	}
+}
@@ -0,0 +1,89 @@
+package com.github.jochenw.isbuildtools.actions;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import com.github.jochenw.afw.core.inject.IComponentFactory;
+import com.github.jochenw.afw.core.log.ILog;
+import com.github.jochenw.afw.core.props.IPropertyFactory;
+import com.github.jochenw.isbuildtools.compile.ManifestParser;
+import com.github.jochenw.isbuildtools.compile.ServiceIndex;
+import com.github.jochenw.isbuildtools.compile.ServiceIndexer;
+
+
+/** An action, which updates the service index (<code>target/is-build-tools/service-index.bin</code>),
+ * and checks the service invocations between the packages. Problems are logged as warnings,
+ * unless the property <code>serviceIndex.failOnProblems</code> is true. Invocations of services,
+ * which are provided by the server, are ignored by the prefixes in the property
+ * <code>serviceIndex.ignoredPrefixes</code> (comma separated, default: "pub.,wm.,com.wm.").
+ */
+public class ServiceIndexAction extends AbstractAction {
+	private final ILog log;
+	private final ServiceIndexer serviceIndexer;
+	private final IPropertyFactory propertyFactory;
+
+	public @Inject ServiceIndexAction(IComponentFactory pComponentFactory) {
+		super(pComponentFactory);
+		log = getLogger();
+		serviceIndexer = pComponentFactory.requireInstance(ServiceIndexer.class);
+		propertyFactory = pComponentFactory.requireInstance(IPropertyFactory.class);
+	}
+
+	protected Path getIndexFile() {
+		return getTargetDir().resolve("is-build-tools/service-index.bin");
+	}
+
+	@Override
+	public void run() throws Exception {
+		log.entering("run");
+		final List<Path> packageDirs = findPackageDirectories(null, null);
+		final Map<String,Path> packagePathsByName = new LinkedHashMap<>();
+		final Map<String,List<String>> requiredPackages = new LinkedHashMap<>();
+		for (Path packageDir : packageDirs) {
+			final String packageName = packageDir.getFileName().toString();
+			packagePathsByName.put(packageName, packageDir);
+			final List<String> required = new ArrayList<>();
+			final Path manifestFile = packageDir.resolve("manifest.v3");
+			if (Files.isRegularFile(manifestFile)) {
+				ManifestParser.parse(manifestFile, new ManifestParser.Listener() {
+					@Override
+					public void requires(String pPackageName, String pVersion) {
+						required.add(pPackageName);
+					}
+				});
+			}
+			requiredPackages.put(packageName, required);
+		}
+		final Path indexFile = getIndexFile();
+		final ServiceIndex previousIndex = ServiceIndex.read(indexFile);
+		final ServiceIndex index = serviceIndexer.update(previousIndex, packagePathsByName);
+		index.write(indexFile);
+		final String ignoredPrefixesStr = propertyFactory.getPropertyValue("serviceIndex.ignoredPrefixes");
+		final List<String> ignoredPrefixes;
+		if (ignoredPrefixesStr == null) {
+			ignoredPrefixes = Arrays.asList("pub.", "wm.", "com.wm.");
+		} else {
+			ignoredPrefixes = new ArrayList<>();
+			for (String s : ignoredPrefixesStr.split(",")) {
+				if (s.trim().length() > 0) {
+					ignoredPrefixes.add(s.trim());
+				}
+			}
+		}
+		final List<String> problems = serviceIndexer.checkReferences(index, requiredPackages, ignoredPrefixes);
+		for (String problem : problems) {
+			log.warn("run", problem);
+		}
+		if (!problems.isEmpty()  &&  Boolean.parseBoolean(propertyFactory.getPropertyValue("serviceIndex.failOnProblems"))) {
+			throw new IllegalStateException("Service index check found " + problems.size() + " problem(s)");
+		}
+		log.exiting("run");
+	}
+}
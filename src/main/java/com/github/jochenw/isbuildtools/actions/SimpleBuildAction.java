@@ -2,27 +2,55 @@ package com.github.jochenw.isbuildtools.actions;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
 import javax.inject.Inject;
 
 import com.github.jochenw.afw.core.inject.IComponentFactory;
 import com.github.jochenw.afw.core.log.ILog;
+import com.github.jochenw.afw.core.props.IPropertyFactory;
 import com.github.jochenw.afw.core.util.Exceptions;
+import com.github.jochenw.isbuildtools.cache.BuildCache;
+import com.github.jochenw.isbuildtools.compile.JarScanner;
 import com.github.jochenw.isbuildtools.compile.MarkdownConverter;
 import com.github.jochenw.isbuildtools.compile.PackageCompiler;
 import com.github.jochenw.isbuildtools.compile.PackageFileCreator;
+import com.github.jochenw.isbuildtools.compile.PackageFileIndex;
+import com.github.jochenw.isbuildtools.compile.PackageFileVerifier;
 import com.github.jochenw.isbuildtools.compile.PackageCompiler.CompilerStatusException;
+import com.github.jochenw.isbuildtools.util.BuildTracer;
+import com.github.jochenw.isbuildtools.util.FileLocks;
+import com.github.jochenw.isbuildtools.util.IoExecutor;
+import com.github.jochenw.isbuildtools.util.PathFilter;
 
 
 public class SimpleBuildAction extends AbstractAction {
+	/** The files of a required package, which affect the compiler.
+	 */
+	protected static final PathFilter COMPILER_INPUTS = new PathFilter(Arrays.asList("code/classes/", "code/jars/", "manifest.v3"),
+			                                                           Collections.emptyList());
+
 	private final ILog log;
 	private final PackageCompiler packageCompiler;
 	private final MarkdownConverter markdownConverter;
 	private final PackageFileCreator packageFileCreator;
+	private final PackageFileVerifier packageFileVerifier;
+	private final IPropertyFactory propertyFactory;
+	private final BuildCache buildCache;
+	private final IoExecutor ioExecutor;
+	private final JarScanner jarScanner;
+	private final BuildTracer tracer;
+	private PackageGraph packageGraph;
+	private PackageRegistry packageRegistry;
 
 	public @Inject SimpleBuildAction(IComponentFactory pComponentFactory) {
 		super(pComponentFactory);
@@ -30,56 +58,307 @@ public class SimpleBuildAction extends AbstractAction {
 		packageCompiler = pComponentFactory.requireInstance(PackageCompiler.class);
 		markdownConverter = pComponentFactory.requireInstance(MarkdownConverter.class);
 		packageFileCreator = pComponentFactory.requireInstance(PackageFileCreator.class);
+		packageFileVerifier = pComponentFactory.requireInstance(PackageFileVerifier.class);
+		propertyFactory = pComponentFactory.requireInstance(IPropertyFactory.class);
+		buildCache = pComponentFactory.requireInstance(BuildCache.class);
+		ioExecutor = pComponentFactory.requireInstance(IoExecutor.class);
+		jarScanner = pComponentFactory.requireInstance(JarScanner.class);
+		tracer = pComponentFactory.requireInstance(BuildTracer.class);
 	}
 
 	@Override
 	public void run() throws Exception {
 		log.entering("run");
-		final Map<String,Path> packagePathsByName = new HashMap<>();
-		final List<String> packageDirs = findPackageDirectories(null, (n,p) -> packagePathsByName.put(n, p));
-		
-		log.debugf("run", "List of package directories: %s",
-				  packageDirs);
-		for (String packageDirStr : packageDirs) {
-			log.debugf("run", "Building package %s", packageDirStr);
-			build(packageDirStr, (n) -> {
-				if (packagePathsByName.containsKey(n)) {
-					return packagePathsByName.get(n);
-				} else {
-					for (String pStr : packageDirs) {
-						final Path p = Paths.get(pStr);
-						if (p.getFileName().toString().equals(n)) {
-							return p;
-						}
-					}
+		final Function<String,Path> packageLocator = (n) -> getPackageRegistry().require(n);
+		final Function<Path,String> nameMapper = this::getPackageName;
+		final Path buildTimesFile = getBuildTimesFile();
+		final BuildTimes buildTimes = BuildTimes.read(buildTimesFile);
+		final List<Path> packageDirs = createPackageGraph(buildTimes);
+		final Map<String,String> cacheKeys = buildCache.isEnabled() ? getCacheKeys() : Collections.emptyMap();
+		final Set<Path> cacheHits = ConcurrentHashMap.newKeySet();
+		// Copying is disk bound, compiling is CPU bound, so the stages can overlap across packages.
+		final BuildPipeline<Path> pipeline = new BuildPipeline<Path>(log, propertyFactory, "build.pipeline").setTracer(tracer)
+				.setItemLocker((p) -> lockPackage(p));
+		if (!cacheKeys.isEmpty()) {
+			pipeline.stage("cache", BuildPipeline.Kind.IO, 2, (s) -> {
+				if (restoreFromCache(s, cacheKeys.get(getPackageName(s)))) {
+					cacheHits.add(s);
 				}
-				return null;
 			});
 		}
+		pipeline.stage("copy", BuildPipeline.Kind.IO, 2, unlessCached(cacheHits, buildTimes.measure(nameMapper, (s) -> copy(s))))
+				.stage("compile", BuildPipeline.Kind.CPU, Runtime.getRuntime().availableProcessors(), unlessCached(cacheHits, buildTimes.measure(nameMapper, (s) -> compile(s, packageLocator))))
+				.stage("markdown", BuildPipeline.Kind.IO, 1, unlessCached(cacheHits, buildTimes.measure(nameMapper, (s) -> convertMarkdown(s))))
+				.stage("archive", BuildPipeline.Kind.CPU, 2, unlessCached(cacheHits, buildTimes.measure(nameMapper, (s) -> {
+					createArchive(s);
+					if (!cacheKeys.isEmpty()) {
+						storeInCache(s, cacheKeys.get(getPackageName(s)));
+					}
+				})));
+		if (propertyFactory.getPropertyValue("project.archive.baseline") != null) {
+			// Not skipped for cache hits, because the patch depends on the baseline.
+			pipeline.stage("patch", BuildPipeline.Kind.CPU, 2, (s) -> createPatch(s));
+		}
+		try {
+			pipeline.run(packageDirs, nameMapper);
+			// Only successful builds are recorded, so that partial times don't distort the averages.
+			buildTimes.write(buildTimesFile);
+		} finally {
+			tracer.write(getTraceFile());
+		}
 		log.exiting("run");
 	}
 
-	protected void build(String pPackageDirStr, Function<String,Path> pPackageLocator) {
-		final Path packageDir = getProjectDir().resolve(pPackageDirStr);
-		log.entering("build", packageDir);
+	protected Path getBuildTimesFile() {
+		return getTargetOutputDir().resolve("build-times.properties");
+	}
+
+	protected Path getTraceFile() {
+		return getTargetOutputDir().resolve("build-trace.json");
+	}
+
+	protected BuildTracer getTracer() {
+		return tracer;
+	}
+
+	protected PackageFileVerifier getPackageFileVerifier() {
+		return packageFileVerifier;
+	}
+
+	/** Finds the package directories, registers them in the
+	 * {@link #getPackageRegistry() package registry}, and creates, and reports the
+	 * {@link #getPackageGraph() package graph}.
+	 * @return The package directories, which are being built, in build order.
+	 */
+	protected List<Path> createPackageGraph(BuildTimes pBuildTimes) {
+		// One registry of package names across all project directories, so that
+		// requires lookups can cross repository boundaries.
+		final Map<String,Path> packagePathsByName = new HashMap<>();
+		final List<Path> packageDirs = findPackageDirectories(null, (n,p) -> packagePathsByName.put(n, p));
+		log.debugf("createPackageGraph", "List of package directories: %s",
+				  packageDirs);
+		final List<String> packageNames = new ArrayList<>();
+		for (Path packageDir : packageDirs) {
+			packagePathsByName.put(getPackageName(packageDir), packageDir);
+			packageNames.add(getPackageName(packageDir));
+		}
+		packageRegistry = createPackageRegistry(packagePathsByName);
+		packageGraph = PackageGraph.of(packageNames, packageRegistry::get, pBuildTimes);
+		final boolean graphHasProblems = !packageGraph.getCycles().isEmpty()  ||  !packageGraph.getMissingPackages().isEmpty();
+		for (String line : packageGraph.getReport()) {
+			if (graphHasProblems) {
+				log.warn("createPackageGraph", line);
+			} else {
+				log.info("createPackageGraph", line);
+			}
+		}
+		if (!packageGraph.getMissingPackages().isEmpty()) {
+			throw new IllegalStateException("Unable to resolve the required package(s) "
+		                                    + String.join(", ", packageGraph.getMissingPackages().keySet())
+		                                    + ". " + packageRegistry.getSearchPath());
+		}
+		if (!packageGraph.getCycles().isEmpty()) {
+			final List<String> cycles = new ArrayList<>();
+			for (List<String> cycle : packageGraph.getCycles()) {
+				cycles.add(String.join(" -> ", cycle) + " -> " + cycle.get(0));
+			}
+			throw new IllegalStateException("Cyclic package dependencies: " + String.join("; ", cycles));
+		}
+		return packageGraph.sort(packageDirs, this::getPackageName);
+	}
+
+	protected BuildPipeline.Task<Path> unlessCached(Set<Path> pCacheHits, BuildPipeline.Task<Path> pTask) {
+		return (p) -> {
+			if (!pCacheHits.contains(p)) {
+				pTask.run(p);
+			}
+		};
+	}
+
+	/** Returns the build cache keys of all packages in the {@link #getPackageGraph() package graph}.
+	 * A packages key covers its own files, the files of all packages, which it requires
+	 * (directly, or indirectly), the server class path, the Java version, and the relevant
+	 * properties. Of the required packages, which aren't built (for example, WmRoot), only
+	 * the files, which affect the compiler, are covered ({@link #COMPILER_INPUTS}).
+	 */
+	protected Map<String,String> getCacheKeys() {
+		final Map<String,String> contentHashes = new ConcurrentHashMap<>();
+		final List<Runnable> tasks = new ArrayList<>();
+		for (PackageGraph.Node node : packageGraph.getNodes()) {
+			if (node.getDir() != null) {
+				final PathFilter filter = node.isBuilding() ? PathFilter.ALL : COMPILER_INPUTS;
+				tasks.add(() -> contentHashes.put(node.getName(), BuildCache.hashDirectory(node.getDir(), filter)));
+			}
+		}
+		final List<Path> serverClassPath = packageCompiler.getServerClassPathElements(getWmHomeDir());
+		final Map<Path,String> serverHashes = new ConcurrentHashMap<>();
+		for (Path p : serverClassPath) {
+			tasks.add(() -> serverHashes.put(p, jarScanner.getContentHash(p)));
+		}
+		ioExecutor.runAll(tasks);
+		final List<String> common = new ArrayList<>();
+		common.add("is-build-tools-cache-2");
+		common.add(System.getProperty("java.specification.version"));
+		for (String property : new String[] {"project.version", "project.archive.name", "project.archive.checksums",
+				                                "project.archive.includes", "project.archive.excludes",
+				                                "build.copy.includes", "build.copy.excludes"}) {
+			common.add(property + "=" + propertyFactory.getPropertyValue(property));
+		}
+		common.add("xlint=" + packageCompiler.isUsingXlintDeprecation() + ", failOnWarnings=" + packageCompiler.isFailingOnWarnings());
+		for (Path p : serverClassPath) {
+			common.add(p.getFileName() + ":" + serverHashes.get(p));
+		}
+		final Map<String,String> keys = new HashMap<>();
+		for (PackageGraph.Node node : packageGraph.getNodes()) {
+			if (node.isBuilding()) {
+				final Set<String> packages = new LinkedHashSet<>();
+				collectDependencies(node, packages);
+				final List<String> values = new ArrayList<>(common);
+				for (String name : packages) {
+					values.add(name + "=" + contentHashes.get(name));
+				}
+				keys.put(node.getName(), BuildCache.hash(values));
+			}
+		}
+		return keys;
+	}
+
+	protected void collectDependencies(PackageGraph.Node pNode, Set<String> pPackages) {
+		if (pPackages.add(pNode.getName())) {
+			for (PackageGraph.Node dependency : pNode.getDependencies()) {
+				collectDependencies(dependency, pPackages);
+			}
+		}
+	}
+
+	protected Path getCacheBundleFile(Path pPackageDir) {
+		return getTargetOutputDir().resolve("cache").resolve(getPackageName(pPackageDir) + "-classes.zip");
+	}
+
+	/** Locks the given package, so that concurrent builds, which share the target directory,
+	 * don't write the packages build directory, and archive at the same time.
+	 */
+	protected FileLocks.Lock lockPackage(Path pPackageDir) {
+		return FileLocks.lock(getTargetOutputDir().resolve("locks").resolve(getPackageName(pPackageDir) + ".lock"), log);
+	}
+
+	protected boolean restoreFromCache(Path pPackageDir, String pKey) {
+		final FileLocks.Lock lock = buildCache.lock(pKey);
+		try {
+			return restoreFromCacheLocked(pPackageDir, pKey);
+		} finally {
+			lock.close();
+		}
+	}
+
+	private boolean restoreFromCacheLocked(Path pPackageDir, String pKey) {
+		final String packageName = getPackageName(pPackageDir);
+		final Path archiveFile = getArchiveFile(pPackageDir);
+		final Path bundleFile = getCacheBundleFile(pPackageDir);
+		if (!buildCache.fetch(pKey, "archive.zip", archiveFile)
+			||  !buildCache.fetch(pKey, "classes.zip", bundleFile)) {
+			return false;
+		}
+		if (packageFileCreator.isCreatingChecksums()) {
+			if (!buildCache.fetch(pKey, "archive.sha256", PackageFileIndex.getSha256File(archiveFile))
+				||  !buildCache.fetch(pKey, "archive.entries.json", PackageFileIndex.getEntriesFile(archiveFile))) {
+				return false;
+			}
+		}
+		BuildCache.unzip(bundleFile, getPackageBuildDir(pPackageDir).resolve("code/classes"));
+		log.info("restoreFromCache", "Package " + packageName + " restored from the build cache, key " + pKey);
+		return true;
+	}
+
+	protected void storeInCache(Path pPackageDir, String pKey) {
+		final FileLocks.Lock lock = buildCache.lock(pKey);
+		try {
+			storeInCacheLocked(pPackageDir, pKey);
+		} finally {
+			lock.close();
+		}
+	}
+
+	private void storeInCacheLocked(Path pPackageDir, String pKey) {
+		final Path archiveFile = getArchiveFile(pPackageDir);
+		final Path bundleFile = getCacheBundleFile(pPackageDir);
+		BuildCache.zipDirectory(getPackageBuildDir(pPackageDir).resolve("code/classes"), bundleFile);
+		if (packageFileCreator.isCreatingChecksums()) {
+			buildCache.store(pKey, "archive.sha256", PackageFileIndex.getSha256File(archiveFile));
+			buildCache.store(pKey, "archive.entries.json", PackageFileIndex.getEntriesFile(archiveFile));
+		}
+		buildCache.store(pKey, "classes.zip", bundleFile);
+		// The archive goes last, because its presence is checked first.
+		buildCache.store(pKey, "archive.zip", archiveFile);
+	}
+
+	/** Returns the package registry of the current build, or null, if the build hasn't started yet.
+	 */
+	public PackageRegistry getPackageRegistry() {
+		return packageRegistry;
+	}
+
+	/** Returns the package graph of the current build, or null, if the build hasn't started yet.
+	 */
+	public PackageGraph getPackageGraph() {
+		return packageGraph;
+	}
+
+	protected String getPackageName(Path pPackageDir) {
+		return pPackageDir.getFileName().toString();
+	}
+
+	protected Path getTargetOutputDir() {
+		return getTargetDir().resolve("is-build-tools");
+	}
+
+	protected Path getPackageBuildDir(Path pPackageDir) {
+		return getTargetOutputDir().resolve("packages").resolve(getPackageName(pPackageDir));
+	}
+
+	protected void copy(Path pPackageDir) {
 		// Copy the source directory to the target directory.
-		final String packageName = packageDir.getFileName().toString();
-		final Path targetOutputDir = getTargetDir().resolve("is-build-tools");
-		final Path targetPackagesDir = targetOutputDir.resolve("packages");
-		final Path packageBuildDir = targetPackagesDir.resolve(packageName);
-		getBuildUtils().copyDirectory(packageDir, packageBuildDir, "code/classes");
+		log.debugf("copy", "Building package %s", pPackageDir);
+		getBuildUtils().copyDirectory(pPackageDir, getPackageBuildDir(pPackageDir), getBuildUtils().getPackageCopyFilter());
+	}
+
+	protected void compile(Path pPackageDir, Function<String,Path> pPackageLocator) {
 		// Compile the Java sources into the classes directory.
+		final Path packageBuildDir = getPackageBuildDir(pPackageDir);
+		final String packageName = getPackageName(pPackageDir);
 		try {
-			packageCompiler.compile(getWmHomeDir(), Paths.get(".").toAbsolutePath(), packageBuildDir, pPackageLocator);
+			final Path diagnosticsFile = getTargetOutputDir().resolve("diagnostics").resolve(packageName + ".json");
+			packageCompiler.compile(getWmHomeDir(), Paths.get(".").toAbsolutePath(), packageBuildDir, pPackageLocator, diagnosticsFile);
 		} catch (CompilerStatusException e) {
 			log.error("build", e);
 			throw Exceptions.show(e);
 		}
+	}
+
+	protected void convertMarkdown(Path pPackageDir) {
 		// Convert Markdown files to HTML
-		markdownConverter.convertToHTML(packageBuildDir);
+		markdownConverter.convertToHTML(getPackageBuildDir(pPackageDir));
+	}
+
+	protected void createArchive(Path pPackageDir) {
 		// Build the Zip file
-		final Path targetDistDir = targetOutputDir.resolve("dist");
-		packageFileCreator.createArchive(packageBuildDir, targetDistDir);
-		log.exiting("build");
+		final Path targetDistDir = getTargetOutputDir().resolve("dist");
+		packageFileCreator.createArchive(getPackageBuildDir(pPackageDir), targetDistDir);
+		if (packageFileVerifier.isVerifying()) {
+			packageFileVerifier.check(getArchiveFile(pPackageDir), getPackageBuildDir(pPackageDir));
+		}
+	}
+
+	/** Creates a patch archive against the packages baseline archive, if there is one.
+	 */
+	protected void createPatch(Path pPackageDir) {
+		final Path baselineFile = packageFileCreator.getBaselineArchive(getPackageName(pPackageDir));
+		if (baselineFile != null) {
+			packageFileCreator.createPatch(getArchiveFile(pPackageDir), baselineFile);
+		}
+	}
+
+	protected Path getArchiveFile(Path pPackageDir) {
+		return getTargetOutputDir().resolve("dist").resolve(packageFileCreator.getArchiveName(getPackageName(pPackageDir)));
 	}
 }
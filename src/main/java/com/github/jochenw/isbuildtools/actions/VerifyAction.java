@@ -0,0 +1,52 @@
+package com.github.jochenw.isbuildtools.actions;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import com.github.jochenw.afw.core.inject.IComponentFactory;
+import com.github.jochenw.afw.core.log.ILog;
+import com.github.jochenw.isbuildtools.compile.PackageFileVerifier;
+import com.github.jochenw.isbuildtools.util.FileLocks;
+
+
+/** An action, which verifies the archives of a previous {@link SimpleBuildAction simpleBuild}
+ * (for example, before deployment) by using the {@link PackageFileVerifier}. Fails, if an
+ * archive is missing, or doesn't match its index, or its staged package directory.
+ */
+public class VerifyAction extends SimpleBuildAction {
+	private final ILog log;
+
+	public @Inject VerifyAction(IComponentFactory pComponentFactory) {
+		super(pComponentFactory);
+		log = getLogger();
+	}
+
+	@Override
+	public void run() throws Exception {
+		log.entering("run");
+		final List<Path> packageDirs = findPackageDirectories(null, null);
+		int failures = 0;
+		for (Path packageDir : packageDirs) {
+			final Path archiveFile = getArchiveFile(packageDir);
+			final FileLocks.Lock lock = lockPackage(packageDir);
+			try {
+				if (!Files.isRegularFile(archiveFile)) {
+					log.error("run", "Archive not found: " + archiveFile);
+					++failures;
+				} else if (!getPackageFileVerifier().verify(archiveFile, getPackageBuildDir(packageDir)).isEmpty()) {
+					++failures;
+				}
+			} finally {
+				lock.close();
+			}
+		}
+		if (failures > 0) {
+			throw new IllegalStateException("Verification failed for " + failures + " of " + packageDirs.size() + " archive(s)");
+		}
+		log.info("run", "Verified " + packageDirs.size() + " archive(s)");
+		log.exiting("run");
+	}
+}
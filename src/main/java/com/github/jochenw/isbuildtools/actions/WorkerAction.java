@@ -0,0 +1,64 @@
+package com.github.jochenw.isbuildtools.actions;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import javax.inject.Inject;
+
+import com.github.jochenw.afw.core.inject.IComponentFactory;
+import com.github.jochenw.afw.core.log.ILog;
+import com.github.jochenw.afw.core.props.IPropertyFactory;
+import com.github.jochenw.isbuildtools.dist.WorkerServer;
+
+
+/** An action, which runs a {@link WorkerServer worker} for distributed builds until the
+ * JVM is terminated. See {@link DistributedBuildAction} for the coordinator.
+ *
+ * Properties:
+ * <ul>
+ *   <li><code>dist.worker.host</code>: Address to listen on (default: localhost)</li>
+ *   <li><code>dist.worker.port</code>: Port to listen on (default: 5072)</li>
+ *   <li><code>dist.worker.dir</code>: Work directory (default: &lt;target&gt;/is-build-tools/worker)</li>
+ * </ul>
+ */
+public class WorkerAction extends AbstractAction {
+	private final ILog log;
+	private final IPropertyFactory propertyFactory;
+
+	public @Inject WorkerAction(IComponentFactory pComponentFactory) {
+		super(pComponentFactory);
+		log = getLogger();
+		propertyFactory = pComponentFactory.requireInstance(IPropertyFactory.class);
+	}
+
+	protected String getProperty(String pKey, String pDefault) {
+		final String value = propertyFactory.getPropertyValue(pKey);
+		if (value == null  ||  value.trim().length() == 0) {
+			return pDefault;
+		}
+		return value.trim();
+	}
+
+	@Override
+	public void run() throws Exception {
+		log.entering("run");
+		final String host = getProperty("dist.worker.host", "localhost");
+		final String portStr = getProperty("dist.worker.port", "5072");
+		final int port;
+		try {
+			port = Integer.parseInt(portStr);
+		} catch (NumberFormatException e) {
+			throw new IllegalStateException("Invalid value for property dist.worker.port: " + portStr);
+		}
+		final String dirStr = getProperty("dist.worker.dir", null);
+		final Path dir = dirStr == null ? getTargetDir().resolve("is-build-tools/worker") : Paths.get(dirStr);
+		final WorkerServer server = new WorkerServer(getComponentFactory(), log, getWmHomeDir(), dir);
+		server.start(host, port);
+		try {
+			Thread.currentThread().join();
+		} finally {
+			server.stop();
+			log.exiting("run");
+		}
+	}
+}
@@ -0,0 +1,300 @@
+package com.github.jochenw.isbuildtools.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import javax.inject.Inject;
+
+import com.github.jochenw.afw.core.inject.IComponentFactory;
+import com.github.jochenw.afw.core.log.ILog;
+import com.github.jochenw.afw.core.log.ILogFactory;
+import com.github.jochenw.afw.core.props.IPropertyFactory;
+import com.github.jochenw.isbuildtools.util.AtomicFiles;
+import com.github.jochenw.isbuildtools.util.FileLocks;
+import com.github.jochenw.isbuildtools.util.Digests;
+import com.github.jochenw.isbuildtools.util.PathFilter;
+
+
+/** Content addressed cache for build outputs (compiled class bundles, and package
+ * archives), keyed by a hash of the package inputs. Entries are looked up in the
+ * local cache directory first, then in the remote cache. Remote errors are never
+ * fatal: They are logged, the remote cache is disabled for the rest of the run,
+ * and the package is built locally.
+ *
+ * Properties:
+ * <ul>
+ *   <li><code>build.cache.dir</code>: Local cache directory (default: none)</li>
+ *   <li><code>build.cache.remote.url</code>: Base URL of the remote cache (default: none)</li>
+ *   <li><code>build.cache.remote.timeout</code>: Connect, and read timeout in milliseconds (default: 10000)</li>
+ *   <li><code>build.cache.remote.push</code>: Whether locally built entries are uploaded (default: true)</li>
+ * </ul>
+ */
+public class BuildCache {
+	private final ILog log;
+	private final Path localDir;
+	private final RemoteBuildCache remote;
+	private final boolean pushing;
+	private volatile boolean remoteFailed;
+
+	public @Inject BuildCache(IComponentFactory pComponentFactory) {
+		log = pComponentFactory.requireInstance(ILogFactory.class).getLog(BuildCache.class);
+		final IPropertyFactory propertyFactory = pComponentFactory.requireInstance(IPropertyFactory.class);
+		final String localDirStr = propertyFactory.getPropertyValue("build.cache.dir");
+		localDir = isEmpty(localDirStr) ? null : Paths.get(localDirStr.trim());
+		final String remoteUrl = propertyFactory.getPropertyValue("build.cache.remote.url");
+		if (isEmpty(remoteUrl)) {
+			remote = null;
+		} else {
+			final String timeoutStr = propertyFactory.getPropertyValue("build.cache.remote.timeout");
+			final int timeout;
+			try {
+				timeout = isEmpty(timeoutStr) ? 10000 : Integer.parseInt(timeoutStr.trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalStateException("Invalid value for property build.cache.remote.timeout: " + timeoutStr);
+			}
+			remote = new RemoteBuildCache(remoteUrl.trim(), timeout);
+		}
+		final String pushStr = propertyFactory.getPropertyValue("build.cache.remote.push");
+		pushing = isEmpty(pushStr)  ||  Boolean.parseBoolean(pushStr.trim());
+	}
+
+	private static boolean isEmpty(String pValue) {
+		return pValue == null  ||  pValue.trim().length() == 0;
+	}
+
+	public boolean isEnabled() {
+		return localDir != null  ||  remote != null;
+	}
+
+	protected Path getLocalFile(String pKey, String pName) {
+		return localDir.resolve(pKey.substring(0, 2)).resolve(pKey).resolve(pName);
+	}
+
+	/** Locks the given key in the local cache, so that concurrent builds, which share
+	 * the cache directory, don't see a partially stored entry set.
+	 * @return The lock, or null, if there is no local cache.
+	 */
+	public FileLocks.Lock lock(String pKey) {
+		if (localDir == null) {
+			return null;
+		}
+		return FileLocks.lock(localDir.resolve(pKey.substring(0, 2)).resolve(pKey + ".lock"), log);
+	}
+
+	/** Copies the given entry into the given target file.
+	 * @return True, if the entry was found, otherwise false.
+	 */
+	public boolean fetch(String pKey, String pName, Path pTargetFile) {
+		try {
+			final Path dir = pTargetFile.getParent();
+			if (dir != null) {
+				Files.createDirectories(dir);
+			}
+			if (localDir != null) {
+				final Path localFile = getLocalFile(pKey, pName);
+				if (Files.isRegularFile(localFile)) {
+					log.debug("fetch", "Local cache hit: " + pKey + "/" + pName);
+					AtomicFiles.copy(localFile, pTargetFile);
+					return true;
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		if (remote == null  ||  remoteFailed) {
+			return false;
+		}
+		final Path tempFile = AtomicFiles.getTempFile(pTargetFile);
+		try {
+			if (!remote.get(pKey, pName, tempFile)) {
+				return false;
+			}
+			log.debug("fetch", "Remote cache hit: " + pKey + "/" + pName);
+			if (localDir != null) {
+				AtomicFiles.copy(tempFile, getLocalFile(pKey, pName));
+			}
+			AtomicFiles.publish(tempFile, pTargetFile);
+			return true;
+		} catch (IOException e) {
+			disableRemote(e);
+			return false;
+		} finally {
+			AtomicFiles.deleteQuietly(tempFile);
+		}
+	}
+
+	/** Stores the given file as the given entry, locally, and remotely.
+	 */
+	public void store(String pKey, String pName, Path pFile) {
+		if (localDir != null) {
+			AtomicFiles.copy(pFile, getLocalFile(pKey, pName));
+		}
+		if (remote != null  &&  pushing  &&  !remoteFailed) {
+			try {
+				remote.put(pKey, pName, pFile);
+				log.debug("store", "Uploaded " + pKey + "/" + pName);
+			} catch (IOException e) {
+				disableRemote(e);
+			}
+		}
+	}
+
+	protected void disableRemote(IOException pError) {
+		if (!remoteFailed) {
+			remoteFailed = true;
+			log.warn("disableRemote", "Remote build cache " + remote.getBaseUrl() + " failed, continuing without it: " + pError);
+		}
+	}
+
+	/** Returns a hash over the relative paths, and contents of all files in the given
+	 * directory.
+	 */
+	public static String hashDirectory(Path pDir) {
+		return hashDirectory(pDir, PathFilter.ALL);
+	}
+
+	/** Returns a hash over the relative paths, and contents of those files in the given
+	 * directory, which are included by the given filter. Excluded directories aren't
+	 * walked at all.
+	 */
+	public static String hashDirectory(Path pDir, PathFilter pFilter) {
+		final List<Path> files = new ArrayList<>();
+		final Deque<PathFilter.State> states = new ArrayDeque<>();
+		try {
+			Files.walkFileTree(pDir, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path pSubDir, BasicFileAttributes pAttrs) throws IOException {
+					final PathFilter.State state = states.isEmpty() ? pFilter.root() : states.peek().enter(pSubDir.getFileName().toString());
+					if (state.isPruned()) {
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+					states.push(state);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path pFile, BasicFileAttributes pAttrs) throws IOException {
+					if (states.peek().enter(pFile.getFileName().toString()).isIncluded()) {
+						files.add(pFile);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path pSubDir, IOException pExc) throws IOException {
+					states.pop();
+					return super.postVisitDirectory(pSubDir, pExc);
+				}
+			});
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		Collections.sort(files);
+		final MessageDigest md = Digests.newSha256();
+		for (Path file : files) {
+			md.update(pDir.relativize(file).toString().replace('\\', '/').getBytes(StandardCharsets.UTF_8));
+			md.update((byte) 0);
+			md.update(Digests.sha256(file).getBytes(StandardCharsets.US_ASCII));
+		}
+		return Digests.toHex(md.digest());
+	}
+
+	/** Returns a hash over the given strings.
+	 */
+	public static String hash(Iterable<String> pValues) {
+		final MessageDigest md = Digests.newSha256();
+		for (String value : pValues) {
+			md.update(value.getBytes(StandardCharsets.UTF_8));
+			md.update((byte) 0);
+		}
+		return Digests.toHex(md.digest());
+	}
+
+	/** Creates a zip file with the contents of the given directory.
+	 */
+	public static void zipDirectory(Path pDir, Path pZipFile) {
+		zipDirectory(pDir, pZipFile, null);
+	}
+
+	/** Creates a zip file with those files from the given directory, which are accepted
+	 * by the given filter. The filter is applied to the relative path, with '/' as
+	 * the separator. A null filter accepts all files.
+	 */
+	public static void zipDirectory(Path pDir, Path pZipFile, Predicate<String> pFilter) {
+		final Path zipDir = pZipFile.toAbsolutePath().getParent();
+		try {
+			Files.createDirectories(zipDir);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		final Path tempFile = AtomicFiles.getTempFile(pZipFile);
+		try (OutputStream os = Files.newOutputStream(tempFile);
+			 ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(os), StandardCharsets.UTF_8)) {
+			if (Files.isDirectory(pDir)) {
+				Files.walkFileTree(pDir, new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(Path pFile, BasicFileAttributes pAttrs) throws IOException {
+						final String name = pDir.relativize(pFile).toString().replace('\\', '/');
+						if (pFilter != null  &&  !pFilter.test(name)) {
+							return FileVisitResult.CONTINUE;
+						}
+						final ZipEntry ze = new ZipEntry(name);
+						ze.setLastModifiedTime(pAttrs.lastModifiedTime());
+						zos.putNextEntry(ze);
+						Files.copy(pFile, zos);
+						zos.closeEntry();
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			}
+		} catch (IOException e) {
+			AtomicFiles.deleteQuietly(tempFile);
+			throw new UncheckedIOException(e);
+		}
+		AtomicFiles.publish(tempFile, pZipFile);
+	}
+
+	/** Extracts the given zip file into the given directory.
+	 */
+	public static void unzip(Path pZipFile, Path pDir) {
+		final Path dir = pDir.toAbsolutePath().normalize();
+		try (InputStream is = Files.newInputStream(pZipFile);
+			 ZipInputStream zis = new ZipInputStream(is, StandardCharsets.UTF_8)) {
+			for (ZipEntry ze = zis.getNextEntry();  ze != null;  ze = zis.getNextEntry()) {
+				final Path file = dir.resolve(ze.getName()).normalize();
+				if (!file.startsWith(dir)) {
+					throw new IllegalStateException("Invalid zip entry in " + pZipFile + ": " + ze.getName());
+				}
+				if (ze.isDirectory()) {
+					Files.createDirectories(file);
+				} else {
+					Files.createDirectories(file.getParent());
+					Files.copy(zis, file, StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
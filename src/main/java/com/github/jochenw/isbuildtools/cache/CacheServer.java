@@ -0,0 +1,126 @@
+package com.github.jochenw.isbuildtools.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+import com.github.jochenw.afw.core.log.ILog;
+import com.github.jochenw.isbuildtools.util.AtomicFiles;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+
+/** A minimal, embedded build cache server, which stores entries in a directory.
+ * Supports GET, HEAD, and PUT on <code>/&lt;key&gt;/&lt;name&gt;</code>. Intended for
+ * testing, and for small teams. There is no authentication, and no eviction.
+ */
+public class CacheServer {
+	private static final Pattern KEY = Pattern.compile("[0-9a-f]{16,128}");
+	private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_\\-][A-Za-z0-9_.\\-]*");
+
+	private final ILog log;
+	private final Path dir;
+	private HttpServer server;
+	private ExecutorService executor;
+
+	public CacheServer(ILog pLog, Path pDir) {
+		log = pLog;
+		dir = pDir;
+	}
+
+	public synchronized void start(String pHost, int pPort) throws IOException {
+		if (server != null) {
+			throw new IllegalStateException("Server is already running.");
+		}
+		Files.createDirectories(dir);
+		server = HttpServer.create(new InetSocketAddress(pHost, pPort), 0);
+		executor = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
+		server.setExecutor(executor);
+		server.createContext("/", this::handle);
+		server.start();
+		log.info("start", "Build cache server listening on " + pHost + ":" + getPort() + ", directory " + dir);
+	}
+
+	public synchronized int getPort() {
+		if (server == null) {
+			throw new IllegalStateException("Server is not running.");
+		}
+		return server.getAddress().getPort();
+	}
+
+	public synchronized void stop() {
+		if (server != null) {
+			server.stop(0);
+			executor.shutdown();
+			server = null;
+			executor = null;
+		}
+	}
+
+	protected void handle(HttpExchange pExchange) throws IOException {
+		try {
+			final String[] segments = pExchange.getRequestURI().getPath().split("/");
+			if (segments.length != 3  ||  segments[0].length() != 0
+				||  !KEY.matcher(segments[1]).matches()  ||  !NAME.matcher(segments[2]).matches()) {
+				send(pExchange, 400);
+				return;
+			}
+			final Path file = dir.resolve(segments[1]).resolve(segments[2]);
+			final String method = pExchange.getRequestMethod();
+			if ("GET".equals(method)  ||  "HEAD".equals(method)) {
+				if (!Files.isRegularFile(file)) {
+					send(pExchange, 404);
+					return;
+				}
+				final boolean head = "HEAD".equals(method);
+				pExchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+				pExchange.sendResponseHeaders(200, head ? -1 : Files.size(file));
+				if (!head) {
+					try (OutputStream out = pExchange.getResponseBody()) {
+						Files.copy(file, out);
+					}
+				}
+				log.debug("handle", method + " " + segments[1] + "/" + segments[2]);
+			} else if ("PUT".equals(method)) {
+				Files.createDirectories(file.getParent());
+				final Path tempFile = AtomicFiles.getTempFile(file);
+				try (InputStream in = pExchange.getRequestBody()) {
+					Files.copy(in, tempFile, StandardCopyOption.REPLACE_EXISTING);
+					AtomicFiles.publish(tempFile, file);
+				} finally {
+					AtomicFiles.deleteQuietly(tempFile);
+				}
+				log.debug("handle", "PUT " + segments[1] + "/" + segments[2]);
+				send(pExchange, 201);
+			} else {
+				send(pExchange, 405);
+			}
+		} catch (IOException|RuntimeException e) {
+			log.error("handle", e);
+			if (pExchange.getResponseCode() == -1) {
+				send(pExchange, 500);
+			}
+		} finally {
+			pExchange.close();
+		}
+	}
+
+	protected void send(HttpExchange pExchange, int pStatus) throws IOException {
+		// Always send a body: After a response without one (length -1), the server closes
+		// the connection, which breaks the next request of a keep-alive client.
+		final byte[] body = (pStatus + "\n").getBytes(StandardCharsets.US_ASCII);
+		pExchange.getResponseHeaders().set("Content-Type", "text/plain");
+		pExchange.sendResponseHeaders(pStatus, body.length);
+		try (OutputStream out = pExchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package com.github.jochenw.isbuildtools.cache;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+
+/** Client for a remote build cache, which is accessed by plain HTTP GET, and PUT
+ * requests on the URL <code>&lt;baseUrl&gt;/&lt;key&gt;/&lt;name&gt;</code>.
+ * A {@link CacheServer} may be used as a reference implementation.
+ */
+public class RemoteBuildCache {
+	private final String baseUrl;
+	private final int timeoutMillis;
+
+	public RemoteBuildCache(String pBaseUrl, int pTimeoutMillis) {
+		baseUrl = pBaseUrl.endsWith("/") ? pBaseUrl.substring(0, pBaseUrl.length()-1) : pBaseUrl;
+		timeoutMillis = pTimeoutMillis;
+	}
+
+	public String getBaseUrl() { return baseUrl; }
+
+	protected HttpURLConnection open(String pKey, String pName, String pMethod) throws IOException {
+		final URL url = new URL(baseUrl + "/" + pKey + "/" + pName);
+		final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		conn.setRequestMethod(pMethod);
+		conn.setConnectTimeout(timeoutMillis);
+		conn.setReadTimeout(timeoutMillis);
+		conn.setUseCaches(false);
+		return conn;
+	}
+
+	/** Downloads the given entry into the given file.
+	 * @return True, if the entry was found, false, if the server responded with 404.
+	 * @throws IOException Any other response, or an I/O error.
+	 */
+	public boolean get(String pKey, String pName, Path pTargetFile) throws IOException {
+		final HttpURLConnection conn = open(pKey, pName, "GET");
+		try {
+			final int status = conn.getResponseCode();
+			if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+				return false;
+			}
+			if (status != HttpURLConnection.HTTP_OK) {
+				throw new IOException("GET " + conn.getURL() + " returned status " + status);
+			}
+			try (InputStream in = conn.getInputStream()) {
+				Files.copy(in, pTargetFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+			return true;
+		} catch (FileNotFoundException e) {
+			return false;
+		} finally {
+			conn.disconnect();
+		}
+	}
+
+	/** Uploads the given file as the given entry.
+	 */
+	public void put(String pKey, String pName, Path pFile) throws IOException {
+		try {
+			doPut(pKey, pName, pFile);
+		} catch (SocketException e) {
+			// A streamed PUT is not retried automatically, if the server has closed
+			// a pooled keep-alive connection. Retry once on a fresh connection.
+			doPut(pKey, pName, pFile);
+		}
+	}
+
+	protected void doPut(String pKey, String pName, Path pFile) throws IOException {
+		final HttpURLConnection conn = open(pKey, pName, "PUT");
+		try {
+			conn.setDoOutput(true);
+			conn.setFixedLengthStreamingMode(Files.size(pFile));
+			conn.setRequestProperty("Content-Type", "application/octet-stream");
+			try (OutputStream out = conn.getOutputStream()) {
+				Files.copy(pFile, out);
+			}
+			final int status = conn.getResponseCode();
+			if (status < 200  ||  status > 299) {
+				throw new IOException("PUT " + conn.getURL() + " returned status " + status);
+			}
+		} finally {
+			conn.disconnect();
+		}
+	}
+}
@@ -1,7 +1,12 @@
 package com.github.jochenw.isbuildtools.cli;
 
+import java.io.File;
 import java.io.PrintStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 import com.github.jochenw.afw.core.cli.Cli;
@@ -15,14 +20,20 @@ import com.github.jochenw.afw.core.props.IPropertyFactory;
 import com.github.jochenw.afw.core.util.Streams;
 import com.github.jochenw.afw.core.util.Strings;
 import com.github.jochenw.isbuildtools.actions.Action;
+import com.github.jochenw.isbuildtools.util.BuildEventLog;
 
 public class Main {
+	/** Name of the property, which contains the path of the property file, if any.
+	 */
+	public static final String PROPERTY_FILE_PROPERTY = "property.file";
+
 	public static enum ActionId {
-		simpleBuild, abeBuild,
+		simpleBuild, abeBuild, serviceIndex, deploy, cdsTraining, cacheServer, worker, distributedBuild, verify, applyPatch,
 	}
 	public static class Options {
 		private Path wmHomeDir;
 		private Path projectDir;
+		private final List<Path> additionalProjectDirs = new ArrayList<>();
 		private Path targetDir;
 		private ActionId action;
 		private Level logLevel;
@@ -35,6 +46,10 @@ public class Main {
 			Action.MODULE.configure(b);
 			b.bind(Path.class, "wm.home.dir").toInstance(pOptions.wmHomeDir);
 			b.bind(Path.class, "project.dir").toInstance(pOptions.projectDir);
+			final List<Path> projectDirs = new ArrayList<>();
+			projectDirs.add(pOptions.projectDir);
+			projectDirs.addAll(pOptions.additionalProjectDirs);
+			b.bind(Path[].class, "project.dirs").toInstance(projectDirs.toArray(new Path[projectDirs.size()]));
 			b.bind(Path.class, "build.dir").toInstance(pOptions.targetDir);
 		};
 	}
@@ -45,6 +60,7 @@ public class Main {
 			properties = new Properties();
 		} else {
 			properties = Streams.load(pOptions.propertyFile);
+			properties.put(PROPERTY_FILE_PROPERTY, pOptions.propertyFile.toString());
 		}
 		properties.put("wm.home.dir", pOptions.wmHomeDir);
 		properties.put("project.dir", pOptions.projectDir);
@@ -66,7 +82,11 @@ public class Main {
 
 	protected void run(Options pOptions) throws Exception {
 		final Action action = getAction(pOptions);
-		action.run();
+		try {
+			action.run();
+		} finally {
+			action.getComponentFactory().requireInstance(BuildEventLog.class).flush(5000);
+		}
 	}
 
 	public static void main(String[] pArgs) throws Exception {
@@ -76,6 +96,18 @@ public class Main {
 				     .handler((c,p) -> opts.wmHomeDir = p).end()
 				.pathOption("projectDir").dirRequired().required()
 				     .handler((c,p) -> opts.projectDir = p).end()
+				.stringOption("projectDirs")
+				     .handler((c,s) -> {
+				    	 for (String dir : s.split(File.pathSeparator)) {
+				    		 if (dir.length() > 0) {
+				    			 final Path p = Paths.get(dir);
+				    			 if (!Files.isDirectory(p)) {
+				    				 throw new IllegalArgumentException("Project directory not found: " + p);
+				    			 }
+				    			 opts.additionalProjectDirs.add(p);
+				    		 }
+				    	 }
+				     }).end()
 				.enumOption(ActionId.class, "action").required()
 				     .handler((c,a) -> opts.action = a).end()
 		        .pathOption("logFile").handler((c,p) -> opts.logFile = p).end()
@@ -99,6 +131,9 @@ public class Main {
 		        	ps.println("              " + Strings.join("|", ActionId.class));
 		        	ps.println();
 		        	ps.println("Other options are:");
+		        	ps.println("  -projectDirs <L> Sets a list of additional project directories,");
+		        	ps.println("                 separated by " + File.pathSeparator + ", which are built in the same run.");
+		        	ps.println("                 Package names must be unique across all project directories.");
 		        	ps.println("  -targetDir <D> Sets the path of the target directory. Defaults");
 		        	ps.println("                 to ${projectDir}/target.");
 		        	ps.println("  -logFile <F>   Sets the path of the log file.");
@@ -0,0 +1,134 @@
+package com.github.jochenw.isbuildtools.compile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+
+/** Converts a class file into a stub, which is sufficient for the compiler: The method
+ * bodies (the <code>Code</code> attributes) are removed, everything else (constant pool,
+ * fields, signatures, annotations, and inner class information) is copied unchanged.
+ * Like the classes in <code>ct.sym</code>, the result can be read by javac, but not
+ * loaded by a JVM.
+ */
+public class ClassStubber {
+	private static final int MAGIC = 0xCAFEBABE;
+
+	private ClassStubber() {}
+
+	/** Returns the stub of the given class file.
+	 * @throws IOException The class file is malformed.
+	 */
+	public static byte[] strip(byte[] pClassFile) throws IOException {
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(pClassFile));
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream(pClassFile.length);
+		final DataOutputStream out = new DataOutputStream(baos);
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Invalid class file magic");
+		}
+		out.writeInt(MAGIC);
+		copy(in, out, 4); // minor_version, major_version
+		final int constantPoolCount = in.readUnsignedShort();
+		out.writeShort(constantPoolCount);
+		final String[] utf8 = new String[constantPoolCount];
+		for (int i = 1;  i < constantPoolCount;  i++) {
+			final int tag = in.readUnsignedByte();
+			out.writeByte(tag);
+			switch (tag) {
+			case 1: // Utf8
+				final String s = in.readUTF();
+				out.writeUTF(s);
+				utf8[i] = s;
+				break;
+			case 7: // Class
+			case 8: // String
+			case 16: // MethodType
+			case 19: // Module
+			case 20: // Package
+				copy(in, out, 2);
+				break;
+			case 15: // MethodHandle
+				copy(in, out, 3);
+				break;
+			case 3: // Integer
+			case 4: // Float
+			case 9: // Fieldref
+			case 10: // Methodref
+			case 11: // InterfaceMethodref
+			case 12: // NameAndType
+			case 17: // Dynamic
+			case 18: // InvokeDynamic
+				copy(in, out, 4);
+				break;
+			case 5: // Long
+			case 6: // Double
+				copy(in, out, 8);
+				i++; // Takes two slots
+				break;
+			default:
+				throw new IOException("Invalid constant pool tag " + tag + " at index " + i);
+			}
+		}
+		copy(in, out, 6); // access_flags, this_class, super_class
+		final int interfacesCount = in.readUnsignedShort();
+		out.writeShort(interfacesCount);
+		copy(in, out, 2*interfacesCount);
+		final int fieldsCount = in.readUnsignedShort();
+		out.writeShort(fieldsCount);
+		for (int i = 0;  i < fieldsCount;  i++) {
+			copy(in, out, 6); // access_flags, name_index, descriptor_index
+			copyAttributes(in, out, utf8, null);
+		}
+		final int methodsCount = in.readUnsignedShort();
+		out.writeShort(methodsCount);
+		for (int i = 0;  i < methodsCount;  i++) {
+			copy(in, out, 6);
+			copyAttributes(in, out, utf8, "Code");
+		}
+		copyAttributes(in, out, utf8, null);
+		if (in.read() != -1) {
+			throw new IOException("Unexpected data after the end of the class file");
+		}
+		out.flush();
+		return baos.toByteArray();
+	}
+
+	private static void copyAttributes(DataInputStream pIn, DataOutputStream pOut, String[] pUtf8,
+			                           String pOmittedAttribute) throws IOException {
+		final int count = pIn.readUnsignedShort();
+		final int[] nameIndexes = new int[count];
+		final byte[][] values = new byte[count][];
+		int retained = 0;
+		for (int i = 0;  i < count;  i++) {
+			final int nameIndex = pIn.readUnsignedShort();
+			if (nameIndex <= 0  ||  nameIndex >= pUtf8.length  ||  pUtf8[nameIndex] == null) {
+				throw new IOException("Invalid attribute name index: " + nameIndex);
+			}
+			final int length = pIn.readInt();
+			if (length < 0) {
+				throw new IOException("Invalid attribute length: " + length);
+			}
+			final byte[] value = new byte[length];
+			pIn.readFully(value);
+			if (!pUtf8[nameIndex].equals(pOmittedAttribute)) {
+				nameIndexes[retained] = nameIndex;
+				values[retained] = value;
+				retained++;
+			}
+		}
+		pOut.writeShort(retained);
+		for (int i = 0;  i < retained;  i++) {
+			pOut.writeShort(nameIndexes[i]);
+			pOut.writeInt(values[i].length);
+			pOut.write(values[i]);
+		}
+	}
+
+	private static void copy(DataInputStream pIn, DataOutputStream pOut, int pBytes) throws IOException {
+		final byte[] bytes = new byte[pBytes];
+		pIn.readFully(bytes);
+		pOut.write(bytes);
+	}
+}
@@ -0,0 +1,226 @@
+package com.github.jochenw.isbuildtools.compile;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaFileObject;
+
+import com.github.jochenw.afw.core.log.ILog;
+import com.github.jochenw.isbuildtools.util.Json;
+
+
+/** A {@link DiagnosticListener}, which streams the compilers diagnostics to the log,
+ * as they arrive. Counts are kept by kind, and by code, but only a bounded number
+ * of diagnostic messages is retained in memory.
+ */
+public class CompilerDiagnostics implements DiagnosticListener<JavaFileObject> {
+	public static class Entry {
+		private final Diagnostic.Kind kind;
+		private final String code, source, message;
+		private final long line, column;
+
+		public Entry(Diagnostic.Kind pKind, String pCode, String pSource, long pLine, long pColumn, String pMessage) {
+			kind = pKind;
+			code = pCode;
+			source = pSource;
+			line = pLine;
+			column = pColumn;
+			message = pMessage;
+		}
+		public Diagnostic.Kind getKind() { return kind; }
+		public String getCode() { return code; }
+		public String getSource() { return source; }
+		public long getLine() { return line; }
+		public long getColumn() { return column; }
+		public String getMessage() { return message; }
+	}
+
+	private final ILog log;
+	private final String packageName;
+	private final int maxRetained;
+	private final Map<Diagnostic.Kind,Integer> countsByKind = new EnumMap<>(Diagnostic.Kind.class);
+	private final Map<String,Integer> countsByCode = new TreeMap<>();
+	private final List<Entry> entries = new ArrayList<>();
+	private int droppedEntries;
+
+	public CompilerDiagnostics(ILog pLog, String pPackageName, int pMaxRetained) {
+		log = pLog;
+		packageName = pPackageName;
+		maxRetained = pMaxRetained;
+	}
+
+	@Override
+	public synchronized void report(Diagnostic<? extends JavaFileObject> pDiagnostic) {
+		final Diagnostic.Kind kind = pDiagnostic.getKind();
+		final String code = pDiagnostic.getCode();
+		countsByKind.merge(kind, Integer.valueOf(1), Integer::sum);
+		if (code != null) {
+			countsByCode.merge(code, Integer.valueOf(1), Integer::sum);
+		}
+		final JavaFileObject jfo = pDiagnostic.getSource();
+		final String source = jfo == null ? null : jfo.getName();
+		final String message = pDiagnostic.getMessage(Locale.getDefault());
+		final long line = pDiagnostic.getLineNumber();
+		final long column = pDiagnostic.getColumnNumber();
+		final String logMsg;
+		if (source == null) {
+			logMsg = packageName + ": " + message;
+		} else if (line == Diagnostic.NOPOS) {
+			logMsg = source + ": " + message;
+		} else {
+			logMsg = source + ":" + line + ": " + message;
+		}
+		switch (kind) {
+		  case ERROR:
+			  log.error("report", logMsg);
+			  break;
+		  case WARNING:
+		  case MANDATORY_WARNING:
+			  log.warn("report", logMsg);
+			  break;
+		  default:
+			  log.info("report", logMsg);
+			  break;
+		}
+		if (entries.size() < maxRetained) {
+			entries.add(new Entry(kind, code, source, line, column, message));
+		} else {
+			++droppedEntries;
+		}
+	}
+
+	public synchronized int getCount(Diagnostic.Kind pKind) {
+		final Integer count = countsByKind.get(pKind);
+		return count == null ? 0 : count.intValue();
+	}
+
+	public int getErrorCount() {
+		return getCount(Diagnostic.Kind.ERROR);
+	}
+
+	public int getWarningCount() {
+		return getCount(Diagnostic.Kind.WARNING) + getCount(Diagnostic.Kind.MANDATORY_WARNING);
+	}
+
+	public synchronized Map<String,Integer> getCountsByCode() {
+		return Collections.unmodifiableMap(new TreeMap<>(countsByCode));
+	}
+
+	public synchronized List<Entry> getEntries() {
+		return Collections.unmodifiableList(new ArrayList<>(entries));
+	}
+
+	public synchronized int getDroppedEntries() {
+		return droppedEntries;
+	}
+
+	public String getSummary() {
+		return getErrorCount() + " error(s), " + getWarningCount() + " warning(s)";
+	}
+
+	/** Returns a writer for the compilers additional output (output, which isn't
+	 * reported as a diagnostic). The output is logged line by line, rather than
+	 * buffered.
+	 */
+	public Writer getOutputWriter() {
+		return new Writer() {
+			private final StringBuilder sb = new StringBuilder();
+
+			@Override
+			public void write(char[] pBuffer, int pOffset, int pLength) throws IOException {
+				for (int i = 0;  i < pLength;  i++) {
+					final char c = pBuffer[pOffset+i];
+					if (c == '\n') {
+						flushLine();
+					} else if (c != '\r') {
+						sb.append(c);
+					}
+				}
+			}
+
+			private void flushLine() {
+				if (sb.length() > 0) {
+					log.info("runCompiler", sb.toString());
+					sb.setLength(0);
+				}
+			}
+
+			@Override
+			public void flush() throws IOException {
+				// Incomplete lines are kept, until the next line terminator.
+			}
+
+			@Override
+			public void close() throws IOException {
+				flushLine();
+			}
+		};
+	}
+
+	/** Writes the diagnostics as a machine readable JSON file.
+	 */
+	public synchronized void write(Path pFile, int pStatus) {
+		try {
+			final Path dir = pFile.getParent();
+			if (dir != null) {
+				Files.createDirectories(dir);
+			}
+			try (BufferedWriter bw = Files.newBufferedWriter(pFile, StandardCharsets.UTF_8)) {
+				bw.write("{\n  \"package\": ");
+				Json.quote(bw, packageName);
+				bw.write(",\n  \"status\": " + pStatus);
+				bw.write(",\n  \"countsByKind\": {");
+				String sep = "";
+				for (Map.Entry<Diagnostic.Kind,Integer> en : countsByKind.entrySet()) {
+					bw.write(sep);
+					Json.quote(bw, en.getKey().name());
+					bw.write(": " + en.getValue());
+					sep = ", ";
+				}
+				bw.write("},\n  \"countsByCode\": {");
+				sep = "";
+				for (Map.Entry<String,Integer> en : countsByCode.entrySet()) {
+					bw.write(sep);
+					Json.quote(bw, en.getKey());
+					bw.write(": " + en.getValue());
+					sep = ", ";
+				}
+				bw.write("},\n  \"droppedDiagnostics\": " + droppedEntries);
+				bw.write(",\n  \"diagnostics\": [");
+				sep = "\n    ";
+				for (Entry en : entries) {
+					bw.write(sep);
+					bw.write("{\"kind\": ");
+					Json.quote(bw, en.getKind().name());
+					bw.write(", \"code\": ");
+					Json.quote(bw, en.getCode());
+					bw.write(", \"source\": ");
+					Json.quote(bw, en.getSource());
+					bw.write(", \"line\": " + en.getLine());
+					bw.write(", \"column\": " + en.getColumn());
+					bw.write(", \"message\": ");
+					Json.quote(bw, en.getMessage());
+					bw.write("}");
+					sep = ",\n    ";
+				}
+				bw.write("\n  ]\n}\n");
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package com.github.jochenw.isbuildtools.compile;
+
+import java.util.concurrent.Semaphore;
+
+import javax.inject.Inject;
+
+import com.github.jochenw.afw.core.inject.IComponentFactory;
+import com.github.jochenw.afw.core.log.ILog;
+import com.github.jochenw.afw.core.log.ILogFactory;
+import com.github.jochenw.afw.core.props.IPropertyFactory;
+import com.github.jochenw.afw.core.util.Exceptions;
+
+
+/** Admission control for concurrent compiler runs. Every compiler run must acquire
+ * an estimated amount of heap (in MB) before it may start. The estimate is based on
+ * the number of source files, and the size of the class path. A run, which exceeds
+ * the whole budget, is admitted, but it will be the only one.
+ *
+ * Properties:
+ * <ul>
+ *   <li><code>compiler.memory.budget</code>: Total budget in MB (default: 60% of the max heap)</li>
+ *   <li><code>compiler.memory.base</code>: Fixed cost of a compiler run in MB (default: 64)</li>
+ *   <li><code>compiler.memory.perSource</code>: Cost per source file in KB (default: 256)</li>
+ *   <li><code>compiler.memory.classPathPercent</code>: Cost of the class path, as a percentage
+ *     of its size on disk (default: 25)</li>
+ * </ul>
+ */
+public class CompilerMemoryBudget {
+	public class Lease implements AutoCloseable {
+		private final int megabytes;
+		private boolean released;
+
+		Lease(int pMegabytes) {
+			megabytes = pMegabytes;
+		}
+
+		public int getMegabytes() { return megabytes; }
+
+		@Override
+		public void close() {
+			if (!released) {
+				released = true;
+				semaphore.release(megabytes);
+			}
+		}
+	}
+
+	private final ILog log;
+	private final int budget, base, perSource, classPathPercent;
+	private final Semaphore semaphore;
+
+	public @Inject CompilerMemoryBudget(IComponentFactory pComponentFactory) {
+		log = pComponentFactory.requireInstance(ILogFactory.class).getLog(CompilerMemoryBudget.class);
+		final IPropertyFactory propertyFactory = pComponentFactory.requireInstance(IPropertyFactory.class);
+		final long maxHeap = Runtime.getRuntime().maxMemory() / (1024*1024);
+		budget = getIntProperty(propertyFactory, "compiler.memory.budget", (int) Math.min(Integer.MAX_VALUE, maxHeap * 6 / 10));
+		base = getIntProperty(propertyFactory, "compiler.memory.base", 64);
+		perSource = getIntProperty(propertyFactory, "compiler.memory.perSource", 256);
+		classPathPercent = getIntProperty(propertyFactory, "compiler.memory.classPathPercent", 25);
+		semaphore = new Semaphore(budget, true);
+	}
+
+	protected int getIntProperty(IPropertyFactory pPropertyFactory, String pKey, int pDefault) {
+		final String value = pPropertyFactory.getPropertyValue(pKey);
+		if (value == null  ||  value.trim().length() == 0) {
+			return pDefault;
+		}
+		try {
+			return Math.max(1, Integer.parseInt(value.trim()));
+		} catch (NumberFormatException e) {
+			throw new IllegalStateException("Invalid value for property " + pKey + ": " + value);
+		}
+	}
+
+	public int getBudget() { return budget; }
+
+	/** Returns the estimated heap requirement of a compiler run in MB.
+	 */
+	public int estimate(int pNumberOfSourceFiles, long pClassPathBytes) {
+		final long kb = (long) pNumberOfSourceFiles * perSource
+				+ (pClassPathBytes / 1024) * classPathPercent / 100;
+		final long mb = base + (kb + 1023) / 1024;
+		return (int) Math.min(budget, mb);
+	}
+
+	/** Blocks, until the given amount of heap (in MB) is available, and returns a
+	 * lease, which must be closed after the compiler run.
+	 */
+	public Lease acquire(String pPackageName, int pMegabytes) {
+		final int mb = Math.max(1, Math.min(budget, pMegabytes));
+		if (!semaphore.tryAcquire(mb)) {
+			log.debug("acquire", "Waiting for " + mb + " MB of compiler memory budget for package " + pPackageName
+					  + " (" + semaphore.availablePermits() + " of " + budget + " MB available)");
+			try {
+				semaphore.acquire(mb);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw Exceptions.show(e);
+			}
+		}
+		return new Lease(mb);
+	}
+}
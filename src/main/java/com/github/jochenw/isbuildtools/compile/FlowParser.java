@@ -0,0 +1,41 @@
+package com.github.jochenw.isbuildtools.compile;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+
+/*
+ * Parses a flow.xml file, looking for the services, which are being invoked:
+ *   //INVOKE/@SERVICE
+ *   //MAPINVOKE/@SERVICE
+ */
+public class FlowParser extends AbstractContentHandler {
+	private final Set<String> invokedServices = new LinkedHashSet<>();
+
+	public Set<String> getInvokedServices() { return invokedServices; }
+
+	@Override
+	public void startDocument() throws SAXException {
+		super.startDocument();
+		invokedServices.clear();
+	}
+
+	@Override
+	public void startElement(String pUri, String pLocalName, String pQName, Attributes pAttrs) throws SAXException {
+		super.startElement(pUri, pLocalName, pQName, pAttrs);
+		if (isElement("INVOKE", pUri, pLocalName)  ||  isElement("MAPINVOKE", pUri, pLocalName)) {
+			final String service = pAttrs.getValue("SERVICE");
+			if (service != null  &&  service.length() > 0) {
+				invokedServices.add(service);
+			}
+		}
+	}
+
+	@Override
+	public void processingInstruction(String pTarget, String pData) throws SAXException {
+		// Ignore this
+	}
+}
@@ -0,0 +1,457 @@
+package com.github.jochenw.isbuildtools.compile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+
+import com.github.jochenw.afw.core.inject.IComponentFactory;
+import com.github.jochenw.afw.core.log.ILog;
+import com.github.jochenw.afw.core.log.ILogFactory;
+import com.github.jochenw.afw.core.props.IPropertyFactory;
+import com.github.jochenw.isbuildtools.util.BuildTracer;
+import com.github.jochenw.isbuildtools.util.Digests;
+import com.github.jochenw.isbuildtools.util.IoExecutor;
+
+
+/** Detects duplicate classes, and split packages on a packages class path. The class
+ * names are read from the central directory of each jar file, which is memory mapped,
+ * so no entry is ever inflated. Jar files are scanned in parallel, and the results
+ * are cached by path, size, and modification time. Only conflicts, which involve at
+ * least one package jar (<code>code/jars</code>), are reported; the server class path
+ * is taken as it is.
+ *
+ * The property <code>compiler.classpath.check</code> is either of <code>off</code>,
+ * <code>warn</code> (default), or <code>fail</code>.
+ *
+ * Additionally, jar files with the same content (for example, the same third party
+ * jar in several packages) are {@link #deduplicate(String, List) removed} from the
+ * class path, unless the property <code>compiler.classpath.dedup</code> is false.
+ */
+public class JarScanner {
+	private static final int EOCD_SIG = 0x06054b50;
+	private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+	private static final int ZIP64_EOCD_SIG = 0x06064b50;
+	private static final int CEN_SIG = 0x02014b50;
+	private static final int EOCD_SIZE = 22;
+	private static final int CEN_SIZE = 46;
+
+	private static class JarInfo {
+		private final long size, lastModified;
+		private final String[] classNames;
+
+		JarInfo(long pSize, long pLastModified, String[] pClassNames) {
+			size = pSize;
+			lastModified = pLastModified;
+			classNames = pClassNames;
+		}
+	}
+
+	private static class ContentHash {
+		private final long size, lastModified;
+		private final String sha256;
+
+		ContentHash(long pSize, long pLastModified, String pSha256) {
+			size = pSize;
+			lastModified = pLastModified;
+			sha256 = pSha256;
+		}
+	}
+
+	private static class ServerIndex {
+		private final Map<String,Path> classes = new HashMap<>();
+		private final Map<String,Set<Path>> packages = new HashMap<>();
+	}
+
+	private final ILog log;
+	private final IoExecutor ioExecutor;
+	private final BuildTracer tracer;
+	private final String mode;
+	private final boolean deduplicating;
+	private final ConcurrentMap<Path,JarInfo> jars = new ConcurrentHashMap<>();
+	private final ConcurrentMap<List<Path>,ServerIndex> serverIndexes = new ConcurrentHashMap<>();
+	private final Set<String> reported = ConcurrentHashMap.newKeySet();
+	private final ConcurrentMap<Path,ContentHash> contentHashes = new ConcurrentHashMap<>();
+
+	public @Inject JarScanner(IComponentFactory pComponentFactory) {
+		log = pComponentFactory.requireInstance(ILogFactory.class).getLog(JarScanner.class);
+		ioExecutor = pComponentFactory.requireInstance(IoExecutor.class);
+		tracer = pComponentFactory.requireInstance(BuildTracer.class);
+		final IPropertyFactory propertyFactory = pComponentFactory.requireInstance(IPropertyFactory.class);
+		final String modeStr = propertyFactory.getPropertyValue("compiler.classpath.check");
+		mode = modeStr == null  ||  modeStr.trim().length() == 0 ? "warn" : modeStr.trim();
+		if (!"off".equals(mode)  &&  !"warn".equals(mode)  &&  !"fail".equals(mode)) {
+			throw new IllegalStateException("Invalid value for property compiler.classpath.check: "
+					+ modeStr + " (expected off, warn, or fail)");
+		}
+		final String dedupStr = propertyFactory.getPropertyValue("compiler.classpath.dedup");
+		deduplicating = dedupStr == null  ||  dedupStr.trim().length() == 0  ||  Boolean.parseBoolean(dedupStr.trim());
+	}
+
+	public boolean isEnabled() {
+		return !"off".equals(mode);
+	}
+
+	/** Removes jar files from the given class path, which have the same content as a
+	 * jar file earlier on the class path (so the first occurrence in resolution order
+	 * is kept), as well as repeated elements. Only jar files with the same size are
+	 * hashed, and the hashes are cached by path, size, and modification time.
+	 * @return The class path without the duplicates.
+	 */
+	public List<Path> deduplicate(String pPackageName, List<Path> pClassPath) {
+		if (!deduplicating) {
+			return pClassPath;
+		}
+		final Map<Long,Integer> sizeCounts = new HashMap<>();
+		final Map<Path,Long> sizes = new HashMap<>();
+		for (Path p : new LinkedHashSet<>(pClassPath)) {
+			if (p.getFileName().toString().endsWith(".jar")  &&  Files.isRegularFile(p)) {
+				try {
+					final Long size = Long.valueOf(Files.size(p));
+					sizes.put(p, size);
+					sizeCounts.merge(size, Integer.valueOf(1), (i1, i2) -> Integer.valueOf(i1.intValue() + i2.intValue()));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+		final List<Path> candidates = new ArrayList<>();
+		for (Map.Entry<Path,Long> en : sizes.entrySet()) {
+			if (sizeCounts.get(en.getValue()).intValue() > 1) {
+				candidates.add(en.getKey());
+			}
+		}
+		final Map<Path,String> hashes = new ConcurrentHashMap<>();
+		if (!candidates.isEmpty()) {
+			final AtomicInteger next = new AtomicInteger();
+			final Runnable task = () -> {
+				for (int i = next.getAndIncrement();  i < candidates.size();  i = next.getAndIncrement()) {
+					final Path jar = candidates.get(i);
+					hashes.put(jar, getContentHash(jar));
+				}
+			};
+			final List<Runnable> tasks = new ArrayList<>();
+			for (int i = Math.min(candidates.size(), Runtime.getRuntime().availableProcessors());  i > 0;  i--) {
+				tasks.add(task);
+			}
+			ioExecutor.runAll(tasks);
+		}
+		final List<Path> result = new ArrayList<>(pClassPath.size());
+		final Set<Path> paths = new HashSet<>();
+		final Map<String,Path> jarsByHash = new HashMap<>();
+		for (Path p : pClassPath) {
+			if (!paths.add(p)) {
+				continue;
+			}
+			final String hash = hashes.get(p);
+			if (hash != null) {
+				final Path first = jarsByHash.putIfAbsent(hash, p);
+				if (first != null) {
+					log.info("deduplicate", "Package " + pPackageName + ": Removed " + p
+							 + " from the class path, because it is identical to " + first);
+					continue;
+				}
+			}
+			result.add(p);
+		}
+		return result;
+	}
+
+	/** Returns the SHA-256 of the given jar file. The result is cached by path, size,
+	 * and modification time.
+	 */
+	public String getContentHash(Path pJar) {
+		final Path jar = pJar.toAbsolutePath();
+		try {
+			final long size = Files.size(jar);
+			final long lastModified = Files.getLastModifiedTime(jar).toMillis();
+			final ContentHash cached = contentHashes.get(jar);
+			if (cached != null  &&  cached.size == size  &&  cached.lastModified == lastModified) {
+				return cached.sha256;
+			}
+			final String sha256 = Digests.sha256(jar);
+			contentHashes.put(jar, new ContentHash(size, lastModified, sha256));
+			return sha256;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/** Checks the given packages class path for duplicate classes, and split packages.
+	 * Conflicts are logged once per build. If the mode is <code>fail</code>, then an
+	 * {@link IllegalStateException} is thrown.
+	 * @param pPackageName The package, which is being compiled.
+	 * @param pPackageJars The jar files from the <code>code/jars</code> directories of the
+	 *   package, and its dependencies. Other elements (like classes directories) are ignored.
+	 * @param pServerJars The jar files from the server class path.
+	 */
+	public void check(String pPackageName, List<Path> pPackageJars, List<Path> pServerJars) {
+		if (!isEnabled()) {
+			return;
+		}
+		final List<String> conflicts;
+		try (BuildTracer.Span span = tracer.span("compiler", "scan class path", pPackageName)) {
+			conflicts = findConflicts(pPackageJars, pServerJars);
+			span.arg("conflicts", Integer.valueOf(conflicts.size()));
+		}
+		if (conflicts.isEmpty()) {
+			return;
+		}
+		if ("fail".equals(mode)) {
+			throw new IllegalStateException("Class path conflicts for package " + pPackageName + ": "
+					+ String.join("; ", conflicts));
+		}
+		for (String conflict : conflicts) {
+			if (reported.add(conflict)) {
+				log.warn("check", "Package " + pPackageName + ": " + conflict);
+			}
+		}
+	}
+
+	/** Returns the duplicate classes, and split packages, which involve at least one of
+	 * the given package jars, as a list of messages, one per set of conflicting jars.
+	 */
+	public List<String> findConflicts(List<Path> pPackageJars, List<Path> pServerJars) {
+		final List<Path> packageJars = new ArrayList<>();
+		for (Path p : new LinkedHashSet<>(pPackageJars)) {
+			if (p.getFileName().toString().endsWith(".jar")  &&  Files.isRegularFile(p)) {
+				packageJars.add(p);
+			}
+		}
+		if (packageJars.isEmpty()) {
+			return Collections.emptyList();
+		}
+		final ServerIndex serverIndex = serverIndexes.computeIfAbsent(pServerJars, this::newServerIndex);
+		final Map<Path,JarInfo> infos = scan(packageJars);
+		final Map<String,Set<Path>> classOwners = new HashMap<>();
+		final Map<String,Set<Path>> packageOwners = new HashMap<>();
+		for (Path jar : packageJars) {
+			for (String className : infos.get(jar).classNames) {
+				classOwners.computeIfAbsent(className, (c) -> new LinkedHashSet<>()).add(jar);
+				packageOwners.computeIfAbsent(getPackageName(className), (p) -> new LinkedHashSet<>()).add(jar);
+			}
+		}
+		// Group the conflicts by the set of jars, which are involved.
+		final Map<String,List<String>> duplicates = new TreeMap<>();
+		final Set<String> duplicatePackages = new LinkedHashSet<>();
+		for (Map.Entry<String,Set<Path>> en : classOwners.entrySet()) {
+			final String className = en.getKey();
+			final Set<Path> owners = en.getValue();
+			final Path serverJar = serverIndex.classes.get(className);
+			if (serverJar != null) {
+				owners.add(serverJar);
+			}
+			if (owners.size() > 1) {
+				duplicates.computeIfAbsent(describe(owners), (k) -> new ArrayList<>()).add(className);
+				duplicatePackages.add(getPackageName(className));
+			}
+		}
+		final Map<String,List<String>> splits = new TreeMap<>();
+		for (Map.Entry<String,Set<Path>> en : packageOwners.entrySet()) {
+			final String packageName = en.getKey();
+			final Set<Path> owners = en.getValue();
+			final Set<Path> serverJars = serverIndex.packages.get(packageName);
+			if (serverJars != null) {
+				owners.addAll(serverJars);
+			}
+			// Packages with duplicate classes are already reported as duplicates.
+			if (owners.size() > 1  &&  !duplicatePackages.contains(packageName)) {
+				splits.computeIfAbsent(describe(owners), (k) -> new ArrayList<>()).add(packageName.length() == 0 ? "<default>" : packageName);
+			}
+		}
+		final List<String> conflicts = new ArrayList<>();
+		for (Map.Entry<String,List<String>> en : duplicates.entrySet()) {
+			conflicts.add(en.getValue().size() + " duplicate class(es) in " + en.getKey() + " (" + examples(en.getValue()) + ")");
+		}
+		for (Map.Entry<String,List<String>> en : splits.entrySet()) {
+			conflicts.add(en.getValue().size() + " split package(s) in " + en.getKey() + " (" + examples(en.getValue()) + ")");
+		}
+		return conflicts;
+	}
+
+	private String describe(Set<Path> pJars) {
+		final List<String> list = new ArrayList<>(pJars.size());
+		for (Path p : pJars) {
+			list.add(p.toString());
+		}
+		Collections.sort(list);
+		return String.join(", ", list);
+	}
+
+	private String examples(List<String> pNames) {
+		Collections.sort(pNames);
+		final List<String> list = pNames.size() > 3 ? pNames.subList(0, 3) : pNames;
+		return String.join(", ", list) + (pNames.size() > 3 ? ", ..." : "");
+	}
+
+	private static String getPackageName(String pClassName) {
+		final int offset = pClassName.lastIndexOf('.');
+		return offset == -1 ? "" : pClassName.substring(0, offset);
+	}
+
+	private ServerIndex newServerIndex(List<Path> pServerJars) {
+		final ServerIndex index = new ServerIndex();
+		final Map<Path,JarInfo> infos = scan(pServerJars);
+		for (Path jar : pServerJars) {
+			final JarInfo info = infos.get(jar);
+			if (info != null) {
+				for (String className : info.classNames) {
+					// The first occurrence wins, as with the class loader.
+					index.classes.putIfAbsent(className, jar);
+					index.packages.computeIfAbsent(getPackageName(className), (p) -> new LinkedHashSet<>()).add(jar);
+				}
+			}
+		}
+		log.debug("newServerIndex", "Indexed " + index.classes.size() + " classes from " + pServerJars.size() + " server jar files");
+		return index;
+	}
+
+	/** Scans the given jar files in parallel, reusing cached results for unchanged files.
+	 * Jar files, which can't be read, are reported, and treated as empty.
+	 */
+	private Map<Path,JarInfo> scan(List<Path> pJars) {
+		final Map<Path,JarInfo> result = new ConcurrentHashMap<>();
+		final AtomicInteger next = new AtomicInteger();
+		final Runnable task = () -> {
+			for (int i = next.getAndIncrement();  i < pJars.size();  i = next.getAndIncrement()) {
+				final Path jar = pJars.get(i);
+				try {
+					result.put(jar, getJarInfo(jar));
+				} catch (UncheckedIOException e) {
+					log.warn("scan", e.getMessage());
+					result.put(jar, new JarInfo(-1, -1, new String[0]));
+				}
+			}
+		};
+		final int numberOfTasks = Math.min(pJars.size(), 2 * Runtime.getRuntime().availableProcessors());
+		final List<Runnable> tasks = new ArrayList<>(numberOfTasks);
+		for (int i = 0;  i < numberOfTasks;  i++) {
+			tasks.add(task);
+		}
+		ioExecutor.runAll(tasks);
+		return result;
+	}
+
+	private JarInfo getJarInfo(Path pJar) {
+		final Path jar = pJar.toAbsolutePath();
+		try {
+			final long size = Files.size(jar);
+			final long lastModified = Files.getLastModifiedTime(jar).toMillis();
+			final JarInfo cached = jars.get(jar);
+			if (cached != null  &&  cached.size == size  &&  cached.lastModified == lastModified) {
+				return cached;
+			}
+			final List<String> classNames = readClassNames(jar);
+			final JarInfo info = new JarInfo(size, lastModified, classNames.toArray(new String[classNames.size()]));
+			jars.put(jar, info);
+			return info;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to scan jar file " + jar + ": " + e.getMessage(), e);
+		}
+	}
+
+	/** Returns the names of the classes in the given jar file, by reading the memory
+	 * mapped central directory. Multi-release entries (<code>META-INF/versions</code>),
+	 * <code>module-info</code>, and <code>package-info</code> are ignored.
+	 */
+	public static List<String> readClassNames(Path pJar) throws IOException {
+		try (FileChannel channel = FileChannel.open(pJar, StandardOpenOption.READ)) {
+			final long size = channel.size();
+			if (size < EOCD_SIZE) {
+				throw new IOException("Not a zip file (too short)");
+			}
+			// The end of central directory record is followed by a comment of up to 64 KB.
+			final long tailPos = Math.max(0, size - EOCD_SIZE - 0xffff);
+			final MappedByteBuffer tail = channel.map(FileChannel.MapMode.READ_ONLY, tailPos, size - tailPos);
+			tail.order(ByteOrder.LITTLE_ENDIAN);
+			int eocd = -1;
+			for (int i = tail.limit() - EOCD_SIZE;  i >= 0;  i--) {
+				if (tail.getInt(i) == EOCD_SIG) {
+					eocd = i;
+					break;
+				}
+			}
+			if (eocd == -1) {
+				throw new IOException("Not a zip file (no end of central directory record)");
+			}
+			long cenSize = tail.getInt(eocd + 12) & 0xffffffffL;
+			long cenOffset = tail.getInt(eocd + 16) & 0xffffffffL;
+			if (cenSize == 0xffffffffL  ||  cenOffset == 0xffffffffL  ||  (tail.getShort(eocd + 10) & 0xffff) == 0xffff) {
+				final int locator = eocd - 20;
+				if (locator >= 0  &&  tail.getInt(locator) == ZIP64_LOCATOR_SIG) {
+					final long zip64Eocd = tail.getLong(locator + 8);
+					final MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, zip64Eocd, 56);
+					buf.order(ByteOrder.LITTLE_ENDIAN);
+					if (buf.getInt(0) != ZIP64_EOCD_SIG) {
+						throw new IOException("Invalid zip64 end of central directory record");
+					}
+					cenSize = buf.getLong(40);
+					cenOffset = buf.getLong(48);
+				}
+			}
+			if (cenOffset + cenSize > size  ||  cenSize > Integer.MAX_VALUE) {
+				throw new IOException("Invalid central directory");
+			}
+			final MappedByteBuffer cen;
+			final int base;
+			if (cenOffset >= tailPos) {
+				cen = tail;
+				base = (int) (cenOffset - tailPos);
+			} else {
+				cen = channel.map(FileChannel.MapMode.READ_ONLY, cenOffset, cenSize);
+				cen.order(ByteOrder.LITTLE_ENDIAN);
+				base = 0;
+			}
+			final List<String> classNames = new ArrayList<>();
+			final byte[] buffer = new byte[256];
+			final int end = base + (int) cenSize;
+			int pos = base;
+			while (pos + CEN_SIZE <= end  &&  cen.getInt(pos) == CEN_SIG) {
+				final int nameLength = cen.getShort(pos + 28) & 0xffff;
+				final int extraLength = cen.getShort(pos + 30) & 0xffff;
+				final int commentLength = cen.getShort(pos + 32) & 0xffff;
+				final int namePos = pos + CEN_SIZE;
+				if (isClassEntry(cen, namePos, nameLength)) {
+					final byte[] bytes = nameLength <= buffer.length ? buffer : new byte[nameLength];
+					for (int i = 0;  i < nameLength;  i++) {
+						bytes[i] = cen.get(namePos + i);
+					}
+					final String name = new String(bytes, 0, nameLength - 6, StandardCharsets.UTF_8);
+					if (!name.startsWith("META-INF/")  &&  !name.equals("module-info")  &&  !name.endsWith("package-info")) {
+						classNames.add(name.replace('/', '.'));
+					}
+				}
+				pos = namePos + nameLength + extraLength + commentLength;
+			}
+			return classNames;
+		}
+	}
+
+	private static boolean isClassEntry(MappedByteBuffer pBuffer, int pNamePos, int pNameLength) {
+		if (pNameLength <= 6) {
+			return false;
+		}
+		final int p = pNamePos + pNameLength - 6;
+		return pBuffer.get(p) == '.'  &&  pBuffer.get(p+1) == 'c'  &&  pBuffer.get(p+2) == 'l'
+			&&  pBuffer.get(p+3) == 'a'  &&  pBuffer.get(p+4) == 's'  &&  pBuffer.get(p+5) == 's';
+	}
+}
@@ -1,7 +1,17 @@
 package com.github.jochenw.isbuildtools.compile;
 
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.xml.parsers.SAXParserFactory;
+
 import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import com.github.jochenw.afw.core.util.Exceptions;
 
 
 /*
@@ -23,6 +33,24 @@ public class ManifestParser extends AbstractContentHandler {
 		listener = pListener;
 	}
 
+	public static void parse(Path pManifestFile, Listener pListener) {
+		final ManifestParser manifestParser = new ManifestParser(pListener);
+		try {
+			final SAXParserFactory spf = SAXParserFactory.newInstance();
+			spf.setNamespaceAware(true);
+			spf.setValidating(false);
+			final XMLReader xr = spf.newSAXParser().getXMLReader();
+			xr.setContentHandler(manifestParser);
+			try (InputStream in = Files.newInputStream(pManifestFile)) {
+				final InputSource isource = new InputSource(in);
+				isource.setSystemId(pManifestFile.toString());
+				xr.parse(isource);
+			}
+		} catch (Throwable t) {
+			throw Exceptions.show(t);
+		}
+	}
+
 	@Override
 	public void startDocument() throws SAXException {
 		super.startDocument();
@@ -24,13 +24,21 @@ import org.commonmark.renderer.html.HtmlRenderer;
 import com.github.jochenw.afw.core.inject.IComponentFactory;
 import com.github.jochenw.afw.core.log.ILog;
 import com.github.jochenw.afw.core.log.ILogFactory;
-import com.github.jochenw.afw.core.util.MutableInteger;
+import com.github.jochenw.isbuildtools.util.BuildEventLog;
+import com.github.jochenw.isbuildtools.util.BuildTracer;
+import com.github.jochenw.isbuildtools.util.IoExecutor;
 
 public class MarkdownConverter {
 	private final ILog log;
+	private final IoExecutor ioExecutor;
+	private final BuildEventLog events;
+	private final BuildTracer tracer;
 
 	public @Inject MarkdownConverter(IComponentFactory pFactory) {
 		log = pFactory.requireInstance(ILogFactory.class).getLog(MarkdownConverter.class);
+		ioExecutor = pFactory.requireInstance(IoExecutor.class);
+		events = pFactory.requireInstance(BuildEventLog.class);
+		tracer = pFactory.requireInstance(BuildTracer.class);
 	}
 
 	public boolean hasMarkdownFiles(Path pPackageDir) {
@@ -74,27 +82,42 @@ public class MarkdownConverter {
 
 	public void convertToHTML(Path pPackageDir) {
 		log.entering("convertHTML", pPackageDir.toString());
-		final MutableInteger counter = new MutableInteger();
-		findMarkdownFiles(pPackageDir, (s) -> {
-			counter.inc();
-			final Path markdownFile = pPackageDir.resolve(s);
-			final Path htmlFile = pPackageDir.resolve(s.replace(".md", ".html"));
-			final Parser parser = Parser.builder().build();
-			final Node node;
-			log.trace("convertHTML", "Reading Markdown file", markdownFile);
-			try (Reader reader = Files.newBufferedReader(markdownFile, StandardCharsets.UTF_8)) {
-				node = parser.parseReader(reader);
-			} catch (IOException e) {
-				throw new UncheckedIOException(e);
-			}
-			final HtmlRenderer renderer = HtmlRenderer.builder().build();
-			log.trace("convertHTML", "Writing HTML file", htmlFile);
-			try (Writer writer = Files.newBufferedWriter(htmlFile, StandardCharsets.UTF_8)) {
-				renderer.render(node, writer);
-			} catch (IOException e) {
-				throw new UncheckedIOException(e);
+		final List<Runnable> tasks = new ArrayList<>();
+		final boolean tracing = log.isTraceEnabled();
+		final String packageName = pPackageDir.getFileName().toString();
+		findMarkdownFiles(pPackageDir, (s) -> tasks.add(() -> {
+			final BuildTracer.Span span = tracer.span("markdown", s, packageName);
+			try {
+				convertToHTML(pPackageDir, s, tracing);
+			} finally {
+				span.close();
 			}
-		});
-		log.exiting("convertHTML", counter.intValue());
+		}));
+		ioExecutor.runAll(tasks);
+		log.exiting("convertHTML", tasks.size());
+	}
+
+	protected void convertToHTML(Path pPackageDir, String pMarkdownFile, boolean pTracing) {
+		final Path markdownFile = pPackageDir.resolve(pMarkdownFile);
+		final Path htmlFile = pPackageDir.resolve(pMarkdownFile.replace(".md", ".html"));
+		final Parser parser = Parser.builder().build();
+		final Node node;
+		if (pTracing) {
+			events.tracef(log, "convertHTML", "Reading Markdown file %s", markdownFile);
+		}
+		try (Reader reader = Files.newBufferedReader(markdownFile, StandardCharsets.UTF_8)) {
+			node = parser.parseReader(reader);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		final HtmlRenderer renderer = HtmlRenderer.builder().build();
+		if (pTracing) {
+			events.tracef(log, "convertHTML", "Writing HTML file %s", htmlFile);
+		}
+		try (Writer writer = Files.newBufferedWriter(htmlFile, StandardCharsets.UTF_8)) {
+			renderer.render(node, writer);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
 	}
 }
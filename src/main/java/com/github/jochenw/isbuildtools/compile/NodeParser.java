@@ -0,0 +1,128 @@
+package com.github.jochenw.isbuildtools.compile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+
+/*
+ * Parses a node.ndf file, looking for the following XPath expressions:
+ *   /Values/value[@name="svc_type"]
+ *   /Values/value[@name="node_type"]
+ *   /Values/record[@name="svc_sig"]/record[@name="sig_in"|@name="sig_out"]/array[@name="rec_fields"]/record/value[@name="field_name"|@name="field_type"|@name="field_dim"]
+ */
+public class NodeParser extends AbstractContentHandler {
+	private String serviceType, nodeType;
+	private final List<String> inputFields = new ArrayList<>();
+	private final List<String> outputFields = new ArrayList<>();
+	private boolean inSignature, inFields;
+	private List<String> currentFields;
+	private String fieldName, fieldType, fieldDim;
+
+	public String getServiceType() { return serviceType; }
+	public String getNodeType() { return nodeType; }
+	public List<String> getInputFields() { return inputFields; }
+	public List<String> getOutputFields() { return outputFields; }
+
+	@Override
+	public void startDocument() throws SAXException {
+		super.startDocument();
+		serviceType = null;
+		nodeType = null;
+		inputFields.clear();
+		outputFields.clear();
+		inSignature = false;
+		inFields = false;
+		currentFields = null;
+	}
+
+	@Override
+	public void startElement(String pUri, String pLocalName, String pQName, Attributes pAttrs) throws SAXException {
+		super.startElement(pUri, pLocalName, pQName, pAttrs);
+		final String name = pAttrs.getValue("name");
+		switch (getLevel()) {
+		  case 1:
+			  assertElement("Values", pUri, pLocalName);
+			  break;
+		  case 2:
+			  if (isElement("value", pUri, pLocalName)) {
+				  if ("svc_type".equals(name)) {
+					  startCollecting(1, (s) -> serviceType = s);
+				  } else if ("node_type".equals(name)) {
+					  startCollecting(1, (s) -> nodeType = s);
+				  }
+			  } else if (isElement("record", pUri, pLocalName)  &&  "svc_sig".equals(name)) {
+				  inSignature = true;
+			  }
+			  break;
+		  case 3:
+			  if (inSignature  &&  isElement("record", pUri, pLocalName)) {
+				  if ("sig_in".equals(name)) {
+					  currentFields = inputFields;
+				  } else if ("sig_out".equals(name)) {
+					  currentFields = outputFields;
+				  }
+			  }
+			  break;
+		  case 4:
+			  if (currentFields != null  &&  isElement("array", pUri, pLocalName)  &&  "rec_fields".equals(name)) {
+				  inFields = true;
+			  }
+			  break;
+		  case 5:
+			  if (inFields  &&  isElement("record", pUri, pLocalName)) {
+				  fieldName = null;
+				  fieldType = null;
+				  fieldDim = null;
+			  }
+			  break;
+		  case 6:
+			  if (inFields  &&  isElement("value", pUri, pLocalName)) {
+				  if ("field_name".equals(name)) {
+					  startCollecting(5, (s) -> fieldName = s);
+				  } else if ("field_type".equals(name)) {
+					  startCollecting(5, (s) -> fieldType = s);
+				  } else if ("field_dim".equals(name)) {
+					  startCollecting(5, (s) -> fieldDim = s);
+				  }
+			  }
+			  break;
+		}
+	}
+
+	@Override
+	public void endElement(String pUri, String pLocalName, String pQName) throws SAXException {
+		super.endElement(pUri, pLocalName, pQName);
+		switch (getLevel()) {
+		  case 1:
+			  inSignature = false;
+			  break;
+		  case 2:
+			  currentFields = null;
+			  break;
+		  case 3:
+			  inFields = false;
+			  break;
+		  case 4:
+			  if (inFields  &&  fieldName != null) {
+				  final StringBuilder sb = new StringBuilder(fieldName);
+				  if (fieldType != null) {
+					  sb.append(':').append(fieldType);
+				  }
+				  if (fieldDim != null  &&  !"0".equals(fieldDim)) {
+					  sb.append('[').append(fieldDim).append(']');
+				  }
+				  currentFields.add(sb.toString());
+				  fieldName = null;
+			  }
+			  break;
+		}
+	}
+
+	@Override
+	public void processingInstruction(String pTarget, String pData) throws SAXException {
+		// Ignore this
+	}
+}
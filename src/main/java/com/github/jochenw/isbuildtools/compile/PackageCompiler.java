@@ -1,31 +1,34 @@
 package com.github.jochenw.isbuildtools.compile;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Function;
 
 import javax.inject.Inject;
 import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
 import javax.tools.ToolProvider;
-import javax.xml.parsers.SAXParserFactory;
-
-import org.xml.sax.InputSource;
-import org.xml.sax.XMLReader;
 
 import com.github.jochenw.afw.core.inject.IComponentFactory;
 import com.github.jochenw.afw.core.log.ILog;
 import com.github.jochenw.afw.core.log.ILogFactory;
 import com.github.jochenw.afw.core.util.Exceptions;
+import com.github.jochenw.isbuildtools.util.BuildEventLog;
+import com.github.jochenw.isbuildtools.util.BuildEvents;
+import com.github.jochenw.isbuildtools.util.BuildTracer;
 
 
 public class PackageCompiler {
@@ -58,7 +61,8 @@ public class PackageCompiler {
 		private final List<Path> javaSourceFiles = new ArrayList<>();
 		private final List<Path> classPathDependencies = new ArrayList<>();
 		private final Set<String> collectedPackageDependencies = new HashSet<String>();
-		private byte[] standardOutput, errorOutput;
+		private CompilerDiagnostics diagnostics;
+		private Path diagnosticsFile;
 		private int status;
 		private boolean usingRelativePaths;
 		public Data(Path pWmHomeDir, Path pCurrentDir, Function<String,Path> pPackageLocator,
@@ -88,20 +92,20 @@ public class PackageCompiler {
 		}
 		public boolean isPackageDependencyCollected(String pPackageName) { return collectedPackageDependencies.contains(pPackageName); }
 		public void addCollectedPackageDependencyCollected(String pPackageName) { collectedPackageDependencies.add(pPackageName); }
-		public void setStandardOutput(byte[] pBytes) {
-			standardOutput = pBytes;
+		public void setDiagnostics(CompilerDiagnostics pDiagnostics) {
+			diagnostics = pDiagnostics;
 		}
-		public void setErrorOutput(byte[] pBytes) {
-			errorOutput = pBytes;
+		public void setDiagnosticsFile(Path pDiagnosticsFile) {
+			diagnosticsFile = pDiagnosticsFile;
 		}
 		public void setStatus(int pStatus) {
 			status = pStatus;
 		}
-		public byte[] getStandardOutput() {
-			return standardOutput;
+		public CompilerDiagnostics getDiagnostics() {
+			return diagnostics;
 		}
-		public byte[] getErrorOutput() {
-			return errorOutput;
+		public Path getDiagnosticsFile() {
+			return diagnosticsFile;
 		}
 		public int getStatus() {
 			return status;
@@ -111,11 +115,37 @@ public class PackageCompiler {
 		}
 	}
 
+	private static class ManifestInfo {
+		private final long lastModified;
+		private final String[] requiredPackages;
+		ManifestInfo(long pLastModified, String[] pRequiredPackages) {
+			lastModified = pLastModified;
+			requiredPackages = pRequiredPackages;
+		}
+	}
+
 	private final ILog log;
-	private boolean usingXlintDeprecation, failingOnWarnings;
+	private final CompilerMemoryBudget memoryBudget;
+	private final BuildEventLog events;
+	private final ServerStubs serverStubs;
+	private final BuildTracer tracer;
+	private final JarScanner jarScanner;
+	// Settings are volatile, because compile() may be invoked by several threads concurrently.
+	private volatile boolean usingXlintDeprecation, failingOnWarnings;
+	private volatile int maxRetainedDiagnostics = 100;
+	// The following are shared by all builds, which are running in this JVM.
+	private volatile JavaCompiler javaCompiler;
+	private final ConcurrentMap<Path,List<Path>> serverClassPaths = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Path,List<Path>> compilerServerClassPaths = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Path,ManifestInfo> manifests = new ConcurrentHashMap<>();
 
 	public @Inject PackageCompiler(IComponentFactory pComponentFactory) {
 		log = pComponentFactory.requireInstance(ILogFactory.class).getLog(PackageCompiler.class);
+		memoryBudget = pComponentFactory.requireInstance(CompilerMemoryBudget.class);
+		events = pComponentFactory.requireInstance(BuildEventLog.class);
+		serverStubs = pComponentFactory.requireInstance(ServerStubs.class);
+		tracer = pComponentFactory.requireInstance(BuildTracer.class);
+		jarScanner = pComponentFactory.requireInstance(JarScanner.class);
 	}
 
 	public boolean isFailingOnWarnings() {
@@ -134,6 +164,14 @@ public class PackageCompiler {
 		usingXlintDeprecation = pUsingXlintDeprecation;
 	}
 
+	public int getMaxRetainedDiagnostics() {
+		return maxRetainedDiagnostics;
+	}
+
+	public void setMaxRetainedDiagnostics(int pMaxRetainedDiagnostics) {
+		maxRetainedDiagnostics = pMaxRetainedDiagnostics;
+	}
+
 	protected Path getPackagesDir(Path pInstanceDir) {
 		return pInstanceDir.resolve("packages");
 	}
@@ -158,10 +196,15 @@ public class PackageCompiler {
 		try {
 			final Path codeSourceDir = pData.getCodeSourceDir();
 			log.debug("collectJavaSourceFiles", "Looking for source files in " + codeSourceDir);
+			final boolean tracing = log.isTraceEnabled();
 			Files.walk(codeSourceDir, Integer.MAX_VALUE).forEach((p) -> {
-				log.trace("collectJavaSourceFiles", "Source dir entry: " + p);
+				if (tracing) {
+					events.tracef(log, "collectJavaSourceFiles", "Source dir entry: %s", p);
+				}
 				if (Files.isRegularFile(p)  &&  p.getFileName().toString().endsWith(".java")) {
-					log.trace("collectJavaSourceFiles", "Adding java source file: " + p);
+					if (tracing) {
+						events.tracef(log, "collectJavaSourceFiles", "Adding java source file: %s", p);
+					}
 					pData.addJavaSourceFile(p);
 				}
 			});
@@ -197,8 +240,19 @@ public class PackageCompiler {
 		return sb.toString();
 	}
 
+	protected JavaCompiler getJavaCompiler() {
+		if (javaCompiler == null) {
+			final JavaCompiler jc = ToolProvider.getSystemJavaCompiler();
+			if (jc == null) {
+				throw new IllegalStateException("No system Java compiler available. Make sure, that a JDK (rather than a JRE) is being used.");
+			}
+			javaCompiler = jc;
+		}
+		return javaCompiler;
+	}
+
 	protected void runCompiler(Data pData) {
-		JavaCompiler javaCompiler = ToolProvider.getSystemJavaCompiler();
+		final JavaCompiler javaCompiler = getJavaCompiler();
 		final Path codeClassesDir = pData.getCodeClassesDir();
 		final List<String> argList = new ArrayList<String>();
 		if (isUsingXlintDeprecation()) {
@@ -209,39 +263,69 @@ public class PackageCompiler {
 		argList.add(getClassPathString(pData));
 		argList.add("-d");
 		argList.add(asLocalPath(pData, codeClassesDir));
+		final List<String> sourceFiles = new ArrayList<String>(pData.javaSourceFiles.size());
 		for (Path sourceFile : pData.javaSourceFiles) {
-			argList.add(asLocalPath(pData, sourceFile));
+			sourceFiles.add(asLocalPath(pData, sourceFile));
 		}
 		final int status;
-		final ByteArrayOutputStream baos = newStdOutStream();
-		final ByteArrayOutputStream baes = newStdErrStream();
-		try {
+		final CompilerDiagnostics diagnostics = newDiagnostics(pData);
+		pData.setDiagnostics(diagnostics);
+		final int estimate = memoryBudget.estimate(sourceFiles.size(), getClassPathSize(pData));
+		try (CompilerMemoryBudget.Lease lease = acquireMemory(pData.getPackageName(), estimate)) {
 			Files.createDirectories(codeClassesDir);
-			final String[] args = argList.toArray(new String[argList.size()]);
-			log.info("runCompiler", "Compiler args: " + String.join(" ", args));
-			status = javaCompiler.run((InputStream) null, baos, baes, args);
+			log.info("runCompiler", "Compiler args: " + String.join(" ", argList) + " (" + sourceFiles.size() + " source files, "
+					 + lease.getMegabytes() + " MB memory budget)");
+			try (StandardJavaFileManager fileManager = javaCompiler.getStandardFileManager(diagnostics, null, null);
+				 Writer out = diagnostics.getOutputWriter()) {
+				final Iterable<? extends JavaFileObject> compilationUnits = fileManager.getJavaFileObjectsFromStrings(sourceFiles);
+				try (BuildTracer.Span span = tracer.span("compiler", "javac", pData.getPackageName());
+					 BuildEvents.Scope event = BuildEvents.javac(pData.getPackageName(), sourceFiles.size(), pData.classPathDependencies.size())) {
+					span.arg("sourceFiles", Integer.valueOf(sourceFiles.size()));
+					final Boolean result = javaCompiler.getTask(out, fileManager, diagnostics, argList, null, compilationUnits).call();
+					status = result != null  &&  result.booleanValue() ? 0 : 1;
+					event.setStatus(status);
+				}
+			}
 		} catch (Throwable t) {
 			throw Exceptions.show(t);
 		}
-		pData.setStandardOutput(baos.toByteArray());
-		pData.setErrorOutput(baes.toByteArray());
 		pData.setStatus(status);
+		final Path diagnosticsFile = pData.getDiagnosticsFile();
+		if (diagnosticsFile != null) {
+			diagnostics.write(diagnosticsFile, status);
+		}
 		if (status != 0) {
-			log.error("compile", "Compiler output on stderr: " + baes.toString());
-			log.error("compile", "Compiler output on stdout: " + baos.toString());
+			log.error("compile", "Compiler reported " + diagnostics.getSummary() + " for package " + pData.getPackageName());
 			throw new IllegalStateException("Compiler exited with status=" + status + ", expected status=0");
 		}
-		if (isFailingOnWarnings()  &&  baes.size() > 0) {
-			throw new IllegalStateException("Compiler exited with warnings, or error messages");
+		if (isFailingOnWarnings()  &&  (diagnostics.getWarningCount() > 0  ||  diagnostics.getErrorCount() > 0)) {
+			throw new IllegalStateException("Compiler exited with warnings, or error messages: " + diagnostics.getSummary());
 		}
 	}
 
-	protected ByteArrayOutputStream newStdOutStream() {
-		return new ByteArrayOutputStream();
+	protected CompilerMemoryBudget.Lease acquireMemory(String pPackageName, int pMegabytes) {
+		try (BuildTracer.Span span = tracer.span("compiler", "wait for memory", pPackageName)) {
+			span.arg("megabytes", Integer.valueOf(pMegabytes));
+			return memoryBudget.acquire(pPackageName, pMegabytes);
+		}
+	}
+
+	protected long getClassPathSize(Data pData) {
+		long size = 0;
+		for (Path p : pData.classPathDependencies) {
+			try {
+				if (Files.isRegularFile(p)) {
+					size += Files.size(p);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return size;
 	}
 
-	protected ByteArrayOutputStream newStdErrStream() {
-		return new ByteArrayOutputStream();
+	protected CompilerDiagnostics newDiagnostics(Data pData) {
+		return new CompilerDiagnostics(log, pData.getPackageName(), getMaxRetainedDiagnostics());
 	}
 
 	protected Path getManifestFile(Path pPackageDir) {
@@ -252,8 +336,19 @@ public class PackageCompiler {
 		if (pData.isPackageDependencyCollected(pPackageName)) {
 			return; // This package has already been recognized, nothing to do.
 		}
+		pData.addCollectedPackageDependencyCollected(pPackageName);
 		log.debug("collectClassPathDependencies", "Package dependency: " + pPackageName);
-		final Path packageDir = pData.getPackagePath(pPackageName);
+		final Path packageDir;
+		try {
+			packageDir = pData.getPackagePath(pPackageName);
+		} catch (RuntimeException e) {
+			throw new IllegalStateException("Unable to resolve required package " + pPackageName
+					                        + " (while compiling package " + pData.getPackageName() + "): " + e.getMessage(), e);
+		}
+		if (packageDir == null) {
+			throw new IllegalStateException("Unable to resolve required package " + pPackageName
+					                        + " (while compiling package " + pData.getPackageName() + ")");
+		}
 		final String[] requiredPackages= parseManifestFile(pPackageName, packageDir); 
 		final Path codeClassesDir = getCodeClassesDir(packageDir);
 		if (Files.isDirectory(codeClassesDir)) {
@@ -269,6 +364,31 @@ public class PackageCompiler {
 	}
 
 	protected String[] parseManifestFile(String pPackageName, final Path packageDir) {
+		final Path manifestFile = getManifestFile(packageDir).toAbsolutePath();
+		final long lastModified;
+		try {
+			lastModified = Files.isRegularFile(manifestFile) ? Files.getLastModifiedTime(manifestFile).toMillis() : -1;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		final ManifestInfo cached = manifests.get(manifestFile);
+		if (cached != null  &&  cached.lastModified == lastModified) {
+			return cached.requiredPackages;
+		}
+		final String[] requiredPackages;
+		final BuildTracer.Span span = tracer.span("compiler", "parse manifest", pPackageName);
+		final BuildEvents.Scope event = BuildEvents.manifestParse(pPackageName);
+		try {
+			requiredPackages = parseManifestFile(pPackageName, packageDir, manifestFile);
+		} finally {
+			event.close();
+			span.close();
+		}
+		manifests.put(manifestFile, new ManifestInfo(lastModified, requiredPackages));
+		return requiredPackages;
+	}
+
+	protected String[] parseManifestFile(String pPackageName, Path packageDir, Path manifestFile) {
 		final List<String> requiredPackages = new ArrayList<String>();
 		final ManifestParser.Listener listener = new ManifestParser.Listener() {
 			@Override
@@ -276,23 +396,8 @@ public class PackageCompiler {
 				requiredPackages.add(pPackageName);
 			}
 		};
-		final Path manifestFile = getManifestFile(packageDir);
 		if (Files.isRegularFile(manifestFile)) {
-			final ManifestParser manifestParser = new ManifestParser(listener);
-			try {
-				final SAXParserFactory spf = SAXParserFactory.newInstance();
-				spf.setNamespaceAware(true);
-				spf.setValidating(false);
-				final XMLReader xr = spf.newSAXParser().getXMLReader();
-				xr.setContentHandler(manifestParser);
-				try (InputStream in = Files.newInputStream(manifestFile)) {
-					final InputSource isource = new InputSource(in);
-					isource.setSystemId(manifestFile.toString());
-					xr.parse(isource);
-				}
-			} catch (Throwable t) {
-				throw Exceptions.show(t);
-			}
+			ManifestParser.parse(manifestFile, listener);
 		} else {
 			log.warn("collectClassPathDependencies", "Manifest file not found for package " + pPackageName + ". Ignoring this packages dependencies.");
 		}
@@ -303,9 +408,12 @@ public class PackageCompiler {
 		final Path codeJarsDir = getCodeJarsDir(packageDir);
 		if (Files.isDirectory(codeJarsDir)) {
 			try {
+				final boolean tracing = log.isTraceEnabled();
 				Files.walk(codeJarsDir, 1).forEach((p) -> {
 					if (p.getFileName().toString().endsWith(".jar")  &&  Files.isRegularFile(p)) {
-						log.trace("collectPackageJarFiles", "Classpath element: Package jar file " + p);
+						if (tracing) {
+							events.tracef(log, "collectPackageJarFiles", "Classpath element: Package jar file %s", p);
+						}
 						pData.addClassPathDependency(p);
 					}
 				});
@@ -325,12 +433,15 @@ public class PackageCompiler {
 		return pRootDir.resolve("IntegrationServer/lib");
 	}
 
-	protected void collectJarFiles(Data pData, Path pDir) {
+	protected void collectJarFiles(List<Path> pList, Path pDir) {
 		try {
+			final boolean tracing = log.isTraceEnabled();
 			Files.walk(pDir,  1).forEach((p) -> {
 				if (p.getFileName().toString().endsWith(".jar")  &&  Files.isRegularFile(p)) {
-					log.trace("collectJarFiles", "Classpath element: Common jar file " + p);
-					pData.addClassPathDependency(p);
+					if (tracing) {
+						events.tracef(log, "collectJarFiles", "Classpath element: Common jar file %s", p);
+					}
+					pList.add(p);
 				}
 			});
 		} catch (Throwable t) {
@@ -339,39 +450,89 @@ public class PackageCompiler {
 	}
 
 	protected void collectServerClassPathDependencies(Data pData) {
-		final Path rootDir = pData.getWmHomeDir();
+		final Path wmHomeDir = pData.getWmHomeDir().toAbsolutePath();
+		for (Path p : compilerServerClassPaths.computeIfAbsent(wmHomeDir, this::getCompilerServerClassPath)) {
+			pData.addClassPathDependency(p);
+		}
+	}
+
+	/** Returns the server class path, as it is passed to the compiler: Either the jar files
+	 * from the given WM_HOME, or the {@link ServerStubs stub jar}, which replaces them.
+	 */
+	protected List<Path> getCompilerServerClassPath(Path pWmHomeDir) {
+		final List<Path> jarFiles = getServerClassPathElements(pWmHomeDir);
+		if (!serverStubs.isEnabled()  ||  jarFiles.isEmpty()) {
+			return jarFiles;
+		}
+		try {
+			return Collections.singletonList(serverStubs.getStubJar(jarFiles));
+		} catch (RuntimeException e) {
+			log.warn("getCompilerServerClassPath", "Unable to create the server stub jar, using the original jar files: " + e.getMessage());
+			return jarFiles;
+		}
+	}
+
+	/** Returns the jar files from the given WM_HOME, which are on every packages class path.
+	 * The server class path is the same for all packages, so it is computed only once per WM_HOME.
+	 */
+	public List<Path> getServerClassPathElements(Path pWmHomeDir) {
+		return serverClassPaths.computeIfAbsent(pWmHomeDir.toAbsolutePath(), this::getServerClassPath);
+	}
+
+	protected List<Path> getServerClassPath(Path pWmHomeDir) {
+		final List<Path> list = new ArrayList<>();
+		final Path rootDir = pWmHomeDir;
 		final Path isLibDir = getIsLibDir(rootDir);
 		if (Files.isDirectory(isLibDir)) {
-			collectJarFiles(pData, isLibDir);
+			collectJarFiles(list, isLibDir);
 		} else {
 			log.warn("collectServerClassPathDependencies", "Directory <WM_HOME>/IntegrationServer/lib not found, ignoring jar files from that directory.");
 		}
 		final Path commonLibDir = getCommonLibDir(rootDir);
 		final Path commonLibExtDir = commonLibDir.resolve("ext");
 		if (Files.isDirectory(commonLibExtDir)) {
-			collectJarFiles(pData, commonLibExtDir);
+			collectJarFiles(list, commonLibExtDir);
 		} else {
 			log.warn("collectServerClassPathDependencies", "Directory <WM_HOME>/common/lib/ext not found, ignoring jar files from that directory.");
 		}
 		final Path commonLibGfDir = commonLibDir.resolve("glassfish");
 		if (Files.isDirectory(commonLibGfDir)) {
-			collectJarFiles(pData, commonLibGfDir);
+			collectJarFiles(list, commonLibGfDir);
 		} else {
 			log.warn("collectServerClassPathDependencies", "Directory <WM_HOME>/common/lib/glassfish not found, ignoring jar files from that directory.");
 		}
 		if (Files.isDirectory(commonLibDir)) {
-			collectJarFiles(pData, commonLibDir);
+			collectJarFiles(list, commonLibDir);
 		} else {
 			log.warn("collectServerClassPathDependencies", "Directory <WM_HOME>/common/lib not found, ignoring jar files from that directory.");
 		}
+		return Collections.unmodifiableList(list);
 	}
 
 	protected void collectClassPathDependencies(Data pData) {
-		collectClassPathDependencies(pData, pData.getPackageName());
-		collectServerClassPathDependencies(pData);
+		final BuildTracer.Span span = tracer.span("compiler", "collect class path", pData.getPackageName());
+		try {
+			collectClassPathDependencies(pData, pData.getPackageName());
+			// At this point, the class path contains the packages own elements only.
+			final List<Path> packageClassPath = jarScanner.deduplicate(pData.getPackageName(), pData.classPathDependencies);
+			if (packageClassPath != pData.classPathDependencies) {
+				pData.classPathDependencies.clear();
+				pData.classPathDependencies.addAll(packageClassPath);
+			}
+			jarScanner.check(pData.getPackageName(), new ArrayList<>(pData.classPathDependencies),
+					         getServerClassPathElements(pData.getWmHomeDir()));
+			collectServerClassPathDependencies(pData);
+		} finally {
+			span.close();
+		}
 	}
 
 	public void compile(Path pWmHomeDir, Path pCurrentDir, Path pPackageDir, Function<String,Path> pPackageLocator) throws CompilerStatusException {
+		compile(pWmHomeDir, pCurrentDir, pPackageDir, pPackageLocator, null);
+	}
+
+	public void compile(Path pWmHomeDir, Path pCurrentDir, Path pPackageDir, Function<String,Path> pPackageLocator,
+			            Path pDiagnosticsFile) throws CompilerStatusException {
 		final String packageName = pPackageDir.getFileName().toString();
 		log.info("compile", "Compiling package " + packageName + " in directory " + pPackageDir);
 		final Path packageDir = pPackageDir;
@@ -381,6 +542,7 @@ public class PackageCompiler {
 		final Path codeSourceDir = Objects.requireNonNull(getCodeSourceDir(packageDir));
 		final Path codeClassesDir = Objects.requireNonNull(getCodeClassesDir(packageDir));
 		final Data data = new Data(pWmHomeDir, pCurrentDir, pPackageLocator, packageDir, codeSourceDir, codeClassesDir, packageName, false);
+		data.setDiagnosticsFile(pDiagnosticsFile);
 		collectJavaSourceFiles(data);
 		collectClassPathDependencies(data);
 		runCompiler(data);
@@ -1,20 +1,38 @@
 package com.github.jochenw.isbuildtools.compile;
 
 import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
 import javax.inject.Inject;
@@ -24,18 +42,55 @@ import com.github.jochenw.afw.core.log.ILog;
 import com.github.jochenw.afw.core.log.ILogFactory;
 import com.github.jochenw.afw.core.props.IPropertyFactory;
 import com.github.jochenw.afw.core.util.Streams;
+import com.github.jochenw.isbuildtools.util.AtomicFiles;
+import com.github.jochenw.isbuildtools.util.BuildEventLog;
+import com.github.jochenw.isbuildtools.util.BuildEvents;
+import com.github.jochenw.isbuildtools.util.BuildTracer;
+import com.github.jochenw.isbuildtools.util.Digests;
+import com.github.jochenw.isbuildtools.util.PathFilter;
 
 public class PackageFileCreator {
+	/** Name of the directory, which contains the patch archives. This is a subdirectory
+	 * of the directory, which contains the package archives.
+	 */
+	public static final String PATCH_DIR = "patches";
+	/** Prefix of the entries in a patch archive, which aren't part of the package.
+	 */
+	public static final String PATCH_PREFIX = "META-INF/is-build-tools/";
+	public static final String PATCH_PROPERTIES = PATCH_PREFIX + "patch.properties";
+	public static final String PATCH_DELETIONS = PATCH_PREFIX + "deleted.txt";
+	public static final String PATCH_INDEX = PATCH_PREFIX + "entries.json";
+
 	private final ILog log;
 	private final IPropertyFactory propertyFactory;
+	private final BuildEventLog events;
+	private final BuildTracer tracer;
+	private final PathFilter archiveFilter;
 
 	public @Inject PackageFileCreator(IComponentFactory pFactory) {
 		log = pFactory.requireInstance(ILogFactory.class).getLog(PackageFileCreator.class);
 		propertyFactory = pFactory.requireInstance(IPropertyFactory.class);
+		events = pFactory.requireInstance(BuildEventLog.class);
+		tracer = pFactory.requireInstance(BuildTracer.class);
+		archiveFilter = PathFilter.of(propertyFactory, "project.archive", "**/*.bak");
+	}
+
+	/** Returns the filter for the files, which are added to the archive, as configured by
+	 * the properties <code>project.archive.includes</code>, and <code>project.archive.excludes</code>
+	 * (default: **&#47;*.bak).
+	 */
+	public PathFilter getArchiveFilter() {
+		return archiveFilter;
 	}
 
 	public void createArchive(Path pPackageDir, Path pDistDir) {
-		final String packageName = pPackageDir.getFileName().toString();
+		createArchive(pPackageDir, pDistDir, getArchiveName(pPackageDir.getFileName().toString()));
+	}
+
+	/** Returns the name of the archive file for the given package, as configured by
+	 * the properties <code>project.version</code>, and <code>project.archive.name</code>.
+	 */
+	public String getArchiveName(String packageName) {
 		final String projectVersion = propertyFactory.getPropertyValue("project.version");
 		final String archiveNameProperty = propertyFactory.getPropertyValue("project.archive.name");
 		final String archiveName;
@@ -51,10 +106,10 @@ public class PackageFileCreator {
 			archiveName = archiveNameProperty;
 			log.trace("createArchive", "Property project.archive.name is present, so archiveName is fixed", archiveName);
 		}
-		createArchive(pPackageDir, pDistDir, archiveName);
+		return archiveName;
 	}
 
-	protected void createArchive(Path pPackageDir, Path pDistDir, final String archiveName) {
+	public void createArchive(Path pPackageDir, Path pDistDir, final String archiveName) {
 		final Path archivePath = pDistDir.resolve(archiveName);
 		log.info("createArchive", archivePath.toString());
 		final Path dir = archivePath.getParent();
@@ -65,15 +120,85 @@ public class PackageFileCreator {
 				throw new UncheckedIOException(e);
 			}
 		}
+		final List<String> files = getArchiveFiles(pPackageDir);
+		// The digests are computed in the same pass, which writes the archive, so the
+		// archive doesn't need to be read again.
+		final boolean checksums = isCreatingChecksums();
+		final PackageFileIndex index = new PackageFileIndex(archiveName);
+		final MessageDigest archiveDigest = Digests.newSha256();
+		final MessageDigest entryDigest = Digests.newSha256();
+		// Written to a temporary file, and published atomically, so that a concurrent
+		// build never sees a partial archive.
+		final Path tempFile = AtomicFiles.getTempFile(archivePath);
+		try (BuildTracer.Span span = tracer.span("archive", "write zip entries", pPackageDir.getFileName().toString());
+			 OutputStream os = Files.newOutputStream(tempFile);
+			 OutputStream dos = checksums ? new DigestOutputStream(os, archiveDigest) : os;
+			 BufferedOutputStream bos = new BufferedOutputStream(dos);
+			 ZipOutputStream zos = new ZipOutputStream(bos, StandardCharsets.UTF_8)) {
+			span.arg("entries", Integer.valueOf(files.size()));
+			final boolean tracing = log.isTraceEnabled();
+			for (String s : files) {
+				final Path p = pPackageDir.resolve(s);
+				if (tracing) {
+					events.tracef(log, "createArchive", "Adding file %s", p);
+				}
+				final ZipEntry ze = new ZipEntry(s);
+				ze.setLastModifiedTime(Files.getLastModifiedTime(p));
+				ze.setMethod(ZipEntry.DEFLATED);
+				zos.putNextEntry(ze);
+				entryDigest.reset();
+				try (InputStream in = Files.newInputStream(p);
+					 InputStream din = checksums ? new DigestInputStream(in, entryDigest) : in) {
+					Streams.copy(din, zos);
+				}
+				zos.closeEntry();
+				BuildEvents.archiveEntry(archiveName, s, ze.getSize(), ze.getCompressedSize(), ze.getMethod());
+				if (checksums) {
+					index.add(new PackageFileIndex.Entry(s, ze.getSize(), ze.getCompressedSize(), ze.getCrc(),
+							                             Digests.toHex(entryDigest.digest())));
+				}
+			}
+		} catch (IOException e) {
+			AtomicFiles.deleteQuietly(tempFile);
+			throw new UncheckedIOException(e);
+		}
+		AtomicFiles.publish(tempFile, archivePath);
+		if (checksums) {
+			index.setSha256(Digests.toHex(archiveDigest.digest()));
+			index.write(archivePath);
+			log.debug("createArchive", "SHA-256 of " + archiveName + ": " + index.getSha256());
+		}
+	}
+
+	/** Returns the relative paths (with '/' as the separator) of the files in the given
+	 * package directory, which are added to the archive, in the order of the archive.
+	 */
+	public List<String> getArchiveFiles(Path pPackageDir) {
 		final List<String> files = new ArrayList<String>();
 		try {
+			final Deque<PathFilter.State> states = new ArrayDeque<>();
 			final FileVisitor<Path> fv = new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path pDir, BasicFileAttributes pAttrs) throws IOException {
+					final PathFilter.State state = states.isEmpty() ? archiveFilter.root() : states.peek().enter(pDir.getFileName().toString());
+					if (state.isPruned()) {
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+					states.push(state);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path pDir, IOException pExc) throws IOException {
+					states.pop();
+					return super.postVisitDirectory(pDir, pExc);
+				}
+
 				@Override
 				public FileVisitResult visitFile(Path pFile, BasicFileAttributes pAttrs) throws IOException {
-					final Path relativePath = pPackageDir.relativize(pFile);
-					final String relativePathStr = relativePath.toString().replace('\\', '/');
-					if (!relativePathStr.endsWith(".bak")) {
-						files.add(relativePathStr);
+					if (states.peek().enter(pFile.getFileName().toString()).isIncluded()) {
+						final Path relativePath = pPackageDir.relativize(pFile);
+						files.add(relativePath.toString().replace('\\', '/'));
 					}
 					return FileVisitResult.CONTINUE;
 				}
@@ -83,25 +208,262 @@ public class PackageFileCreator {
 			throw new UncheckedIOException(e);
 		}
 		files.sort((s1,s2) -> s1.compareToIgnoreCase(s2));
-		try (OutputStream os = Files.newOutputStream(archivePath);
-			 BufferedOutputStream bos = new BufferedOutputStream(os);
-			 ZipOutputStream zos = new ZipOutputStream(bos, StandardCharsets.UTF_8)) {
-			for (String s : files) {
-				final Path p = pPackageDir.resolve(s);
-				log.trace("createArchive", "Adding file", p);
-				final ZipEntry ze = new ZipEntry(s);
-				ze.setLastModifiedTime(Files.getLastModifiedTime(p));
-				ze.setMethod(ZipEntry.DEFLATED);
-				zos.putNextEntry(ze);
-				try (InputStream in = Files.newInputStream(p)) {
-					Streams.copy(in, zos);
+		return files;
+	}
+
+	/** Returns, whether the sidecar files <code>&lt;archive&gt;.sha256</code>, and
+	 * <code>&lt;archive&gt;.entries.json</code> are being created. This is controlled by
+	 * the property <code>project.archive.checksums</code> (default: true).
+	 */
+	public boolean isCreatingChecksums() {
+		final String value = propertyFactory.getPropertyValue("project.archive.checksums");
+		return value == null  ||  value.trim().length() == 0  ||  Boolean.parseBoolean(value.trim());
+	}
+
+
+	/** Returns the baseline archive of the given package, against which a patch archive
+	 * is created, or null. The property <code>project.archive.baseline</code> is either
+	 * a directory with the archives of the previous release, or a single archive. An
+	 * archive matches, if it is named <code>&lt;package&gt;.zip</code>, or
+	 * <code>&lt;package&gt;-&lt;version&gt;.zip</code>, with the version starting with a digit.
+	 * If several archives match, then the most recent one is used.
+	 */
+	public Path getBaselineArchive(String pPackageName) {
+		final String baselineStr = propertyFactory.getPropertyValue("project.archive.baseline");
+		if (baselineStr == null  ||  baselineStr.trim().length() == 0) {
+			return null;
+		}
+		final Path baseline = Paths.get(baselineStr.trim());
+		if (Files.isRegularFile(baseline)) {
+			return isBaselineArchive(pPackageName, baseline.getFileName().toString()) ? baseline : null;
+		}
+		if (!Files.isDirectory(baseline)) {
+			throw new IllegalStateException("Invalid value for property project.archive.baseline: "
+					+ baselineStr + " is neither a file, nor a directory.");
+		}
+		Path result = null;
+		FileTime resultTime = null;
+		try (DirectoryStream<Path> ds = Files.newDirectoryStream(baseline)) {
+			for (Path p : ds) {
+				if (Files.isRegularFile(p)  &&  isBaselineArchive(pPackageName, p.getFileName().toString())) {
+					final FileTime time = Files.getLastModifiedTime(p);
+					if (result == null  ||  time.compareTo(resultTime) > 0) {
+						result = p;
+						resultTime = time;
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		if (result == null) {
+			log.warn("getBaselineArchive", "No baseline archive found for package " + pPackageName + " in " + baseline);
+		}
+		return result;
+	}
+
+	private boolean isBaselineArchive(String pPackageName, String pFileName) {
+		if (!pFileName.endsWith(".zip")  ||  pFileName.endsWith(".patch.zip")) {
+			return false;
+		}
+		if (pFileName.equals(pPackageName + ".zip")) {
+			return true;
+		}
+		return pFileName.startsWith(pPackageName + "-")  &&  pFileName.length() > pPackageName.length() + 1
+			&&  Character.isDigit(pFileName.charAt(pPackageName.length() + 1));
+	}
+
+	/** Returns the name of the patch archive for the given archive.
+	 */
+	public static String getPatchName(String pArchiveName) {
+		final String baseName = pArchiveName.endsWith(".zip") ? pArchiveName.substring(0, pArchiveName.length()-4) : pArchiveName;
+		return baseName + ".patch.zip";
+	}
+
+	/** Creates a patch archive, which transforms the given baseline archive into the
+	 * given archive. The patch contains the added, and changed entries, the list of
+	 * deleted entries ({@link #PATCH_DELETIONS}), some metadata ({@link #PATCH_PROPERTIES}),
+	 * and the archives index ({@link #PATCH_INDEX}), if there is one. Entries are
+	 * compared by the sizes, and CRC values from the central directories, so unchanged
+	 * entries are never inflated.
+	 * @return The patch archive, which is written to the subdirectory <code>patches</code>
+	 *   of the given archives directory, so that it isn't mistaken for a package archive
+	 *   (for example, by the deploy action).
+	 */
+	public Path createPatch(Path pArchiveFile, Path pBaselineFile) {
+		final String archiveName = pArchiveFile.getFileName().toString();
+		final Path patchFile = pArchiveFile.resolveSibling(PATCH_DIR).resolve(getPatchName(archiveName));
+		try {
+			Files.createDirectories(patchFile.getParent());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		final List<String> deletions = new ArrayList<>();
+		int changes = 0;
+		final Path tempFile = AtomicFiles.getTempFile(patchFile);
+		try (BuildTracer.Span span = tracer.span("archive", "write patch", archiveName);
+			 ZipFile archive = new ZipFile(pArchiveFile.toFile(), StandardCharsets.UTF_8);
+			 ZipFile baseline = new ZipFile(pBaselineFile.toFile(), StandardCharsets.UTF_8);
+			 OutputStream os = Files.newOutputStream(tempFile);
+			 ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(os), StandardCharsets.UTF_8)) {
+			final Set<String> names = new HashSet<>();
+			for (Enumeration<? extends ZipEntry> en = archive.entries();  en.hasMoreElements();  ) {
+				final ZipEntry ze = en.nextElement();
+				names.add(ze.getName());
+				final ZipEntry baselineEntry = baseline.getEntry(ze.getName());
+				if (baselineEntry == null  ||  baselineEntry.getSize() != ze.getSize()  ||  baselineEntry.getCrc() != ze.getCrc()) {
+					copyEntry(archive, ze, zos);
+					++changes;
+				}
+			}
+			for (Enumeration<? extends ZipEntry> en = baseline.entries();  en.hasMoreElements();  ) {
+				final String name = en.nextElement().getName();
+				if (!names.contains(name)) {
+					deletions.add(name);
 				}
+			}
+			final StringBuilder sb = new StringBuilder();
+			for (String name : deletions) {
+				sb.append(name).append('\n');
+			}
+			zos.putNextEntry(new ZipEntry(PATCH_DELETIONS));
+			zos.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+			zos.closeEntry();
+			final Properties props = new Properties();
+			props.setProperty("baseline", pBaselineFile.getFileName().toString());
+			props.setProperty("baseline.fingerprint", getFingerprint(baseline));
+			props.setProperty("target", archiveName);
+			zos.putNextEntry(new ZipEntry(PATCH_PROPERTIES));
+			props.store(zos, null);
+			zos.closeEntry();
+			final Path entriesFile = PackageFileIndex.getEntriesFile(pArchiveFile);
+			if (Files.isRegularFile(entriesFile)) {
+				zos.putNextEntry(new ZipEntry(PATCH_INDEX));
+				Files.copy(entriesFile, zos);
 				zos.closeEntry();
 			}
+			span.arg("changes", Integer.valueOf(changes)).arg("deletions", Integer.valueOf(deletions.size()));
+		} catch (IOException e) {
+			AtomicFiles.deleteQuietly(tempFile);
+			throw new UncheckedIOException(e);
+		}
+		AtomicFiles.publish(tempFile, patchFile);
+		log.info("createPatch", patchFile + ": " + changes + " added, or changed, " + deletions.size()
+				 + " deleted entries, against " + pBaselineFile.getFileName());
+		return patchFile;
+	}
+
+	/** Applies a patch archive, which has been created by {@link #createPatch(Path, Path)},
+	 * to the given baseline archive, and writes the resulting archive. If the patch
+	 * contains an index, then it is written as the sidecar files of the resulting archive.
+	 */
+	public void applyPatch(Path pBaselineFile, Path pPatchFile, Path pTargetFile) {
+		final Path tempFile = AtomicFiles.getTempFile(pTargetFile);
+		final Path entriesFile = PackageFileIndex.getEntriesFile(pTargetFile);
+		final Path entriesTempFile = AtomicFiles.getTempFile(entriesFile);
+		boolean withIndex = false;
+		try (ZipFile patch = new ZipFile(pPatchFile.toFile(), StandardCharsets.UTF_8);
+			 ZipFile baseline = new ZipFile(pBaselineFile.toFile(), StandardCharsets.UTF_8)) {
+			final ZipEntry propsEntry = patch.getEntry(PATCH_PROPERTIES);
+			final ZipEntry deletionsEntry = patch.getEntry(PATCH_DELETIONS);
+			if (propsEntry == null  ||  deletionsEntry == null) {
+				throw new IllegalStateException("Not a patch archive: " + pPatchFile);
+			}
+			final Properties props = new Properties();
+			try (InputStream in = patch.getInputStream(propsEntry)) {
+				props.load(in);
+			}
+			final String fingerprint = props.getProperty("baseline.fingerprint");
+			if (fingerprint != null  &&  !fingerprint.equals(getFingerprint(baseline))) {
+				throw new IllegalStateException("The patch " + pPatchFile + " has been created for the baseline "
+						+ props.getProperty("baseline") + ", which doesn't match " + pBaselineFile);
+			}
+			final Set<String> deletions = new HashSet<>();
+			try (BufferedReader br = new BufferedReader(new InputStreamReader(patch.getInputStream(deletionsEntry), StandardCharsets.UTF_8))) {
+				for (String line = br.readLine();  line != null;  line = br.readLine()) {
+					if (line.length() > 0) {
+						deletions.add(line);
+					}
+				}
+			}
+			final Map<String,ZipFile> sources = new HashMap<>();
+			for (Enumeration<? extends ZipEntry> en = baseline.entries();  en.hasMoreElements();  ) {
+				final String name = en.nextElement().getName();
+				if (!deletions.contains(name)) {
+					sources.put(name, baseline);
+				}
+			}
+			for (Enumeration<? extends ZipEntry> en = patch.entries();  en.hasMoreElements();  ) {
+				final String name = en.nextElement().getName();
+				if (!name.startsWith(PATCH_PREFIX)) {
+					sources.put(name, patch);
+				}
+			}
+			final List<String> names = new ArrayList<>(sources.keySet());
+			names.sort((s1,s2) -> s1.compareToIgnoreCase(s2));
+			try (OutputStream os = Files.newOutputStream(tempFile);
+				 ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(os), StandardCharsets.UTF_8)) {
+				for (String name : names) {
+					final ZipFile source = sources.get(name);
+					copyEntry(source, source.getEntry(name), zos);
+				}
+			}
+			final ZipEntry indexEntry = patch.getEntry(PATCH_INDEX);
+			if (indexEntry != null) {
+				try (InputStream in = patch.getInputStream(indexEntry)) {
+					Files.copy(in, entriesTempFile, StandardCopyOption.REPLACE_EXISTING);
+				}
+				withIndex = true;
+			}
 		} catch (IOException e) {
+			AtomicFiles.deleteQuietly(tempFile);
+			AtomicFiles.deleteQuietly(entriesTempFile);
 			throw new UncheckedIOException(e);
+		} catch (RuntimeException e) {
+			AtomicFiles.deleteQuietly(tempFile);
+			AtomicFiles.deleteQuietly(entriesTempFile);
+			throw e;
+		}
+		AtomicFiles.publish(tempFile, pTargetFile);
+		if (withIndex) {
+			AtomicFiles.publish(entriesTempFile, entriesFile);
+			// The index has the entries of the original archive, but the archive itself
+			// has been recompressed, so its SHA-256 is computed again.
+			final PackageFileIndex index = PackageFileIndex.read(pTargetFile);
+			index.setSha256(Digests.sha256(pTargetFile));
+			index.write(pTargetFile);
+		}
+		log.info("applyPatch", "Created " + pTargetFile + " from " + pBaselineFile.getFileName() + ", and " + pPatchFile.getFileName());
+	}
+
+	/** Returns a hash over the names, sizes, and CRC values of the given archives entries.
+	 * Unlike the archives SHA-256, it is computed from the central directory only.
+	 */
+	private static String getFingerprint(ZipFile pZipFile) {
+		final List<String> values = new ArrayList<>();
+		for (Enumeration<? extends ZipEntry> en = pZipFile.entries();  en.hasMoreElements();  ) {
+			final ZipEntry ze = en.nextElement();
+			values.add(ze.getName() + ":" + ze.getSize() + ":" + Long.toHexString(ze.getCrc()));
+		}
+		values.sort(null);
+		final MessageDigest md = Digests.newSha256();
+		for (String value : values) {
+			md.update(value.getBytes(StandardCharsets.UTF_8));
+			md.update((byte) '\n');
 		}
+		return Digests.toHex(md.digest());
 	}
 
-	
+	private void copyEntry(ZipFile pSource, ZipEntry pEntry, ZipOutputStream pTarget) throws IOException {
+		final ZipEntry ze = new ZipEntry(pEntry.getName());
+		if (pEntry.getLastModifiedTime() != null) {
+			ze.setLastModifiedTime(pEntry.getLastModifiedTime());
+		}
+		ze.setMethod(ZipEntry.DEFLATED);
+		pTarget.putNextEntry(ze);
+		try (InputStream in = pSource.getInputStream(pEntry)) {
+			Streams.copy(in, pTarget);
+		}
+		pTarget.closeEntry();
+	}
 }
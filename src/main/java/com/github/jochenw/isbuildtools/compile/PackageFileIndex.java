@@ -0,0 +1,178 @@
+package com.github.jochenw.isbuildtools.compile;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.github.jochenw.isbuildtools.util.AtomicFiles;
+import com.github.jochenw.isbuildtools.util.Json;
+
+
+/** The list of entries in a package archive, with their sizes, CRC values, and SHA-256
+ * hashes. The index is created by the {@link PackageFileCreator} while writing the archive,
+ * and stored next to it as <code>&lt;archive&gt;.entries.json</code>. Additionally, the
+ * archives SHA-256 is stored as <code>&lt;archive&gt;.sha256</code>, in the format of the
+ * <code>sha256sum</code> command.
+ */
+public class PackageFileIndex {
+	public static class Entry {
+		private final String name, sha256;
+		private final long size, compressedSize, crc;
+
+		public Entry(String pName, long pSize, long pCompressedSize, long pCrc, String pSha256) {
+			name = pName;
+			size = pSize;
+			compressedSize = pCompressedSize;
+			crc = pCrc;
+			sha256 = pSha256;
+		}
+		public String getName() { return name; }
+		public long getSize() { return size; }
+		public long getCompressedSize() { return compressedSize; }
+		public long getCrc() { return crc; }
+		public String getSha256() { return sha256; }
+	}
+
+	private static final Pattern ENTRY_PATTERN = Pattern.compile("\\s*\\{\"name\": (\".*\"), \"size\": (\\d+), \"compressedSize\": (\\d+), "
+			+ "\"crc\": \"([0-9a-f]{8})\", \"sha256\": \"([0-9a-f]+)\"\\},?\\s*");
+	private static final Pattern SHA256_PATTERN = Pattern.compile("\\s*\"sha256\": \"([0-9a-f]*)\",?\\s*");
+	private static final Pattern ENTRIES_START_PATTERN = Pattern.compile("\\s*\"entries\": \\[\\s*");
+	private static final Pattern ENTRIES_END_PATTERN = Pattern.compile("\\s*\\]\\s*");
+
+	private final String archiveName;
+	private final List<Entry> entries = new ArrayList<>();
+	private String sha256;
+
+	public PackageFileIndex(String pArchiveName) {
+		archiveName = pArchiveName;
+	}
+
+	public String getArchiveName() { return archiveName; }
+	public List<Entry> getEntries() { return Collections.unmodifiableList(entries); }
+	public String getSha256() { return sha256; }
+	public void setSha256(String pSha256) { sha256 = pSha256; }
+	public void add(Entry pEntry) { entries.add(pEntry); }
+
+	public static Path getEntriesFile(Path pArchiveFile) {
+		return pArchiveFile.resolveSibling(pArchiveFile.getFileName() + ".entries.json");
+	}
+
+	public static Path getSha256File(Path pArchiveFile) {
+		return pArchiveFile.resolveSibling(pArchiveFile.getFileName() + ".sha256");
+	}
+
+	/** Writes the sidecar files for the given archive. Both files are written to a
+	 * temporary file first, and published atomically.
+	 */
+	public void write(Path pArchiveFile) {
+		final Path sha256File = getSha256File(pArchiveFile);
+		final Path entriesFile = getEntriesFile(pArchiveFile);
+		final Path sha256TempFile = AtomicFiles.getTempFile(sha256File);
+		final Path entriesTempFile = AtomicFiles.getTempFile(entriesFile);
+		try {
+			try (BufferedWriter bw = Files.newBufferedWriter(sha256TempFile, StandardCharsets.UTF_8)) {
+				bw.write(sha256 + "  " + archiveName + "\n");
+			}
+			// One entry per line, so that the file can be read back without a JSON parser.
+			try (BufferedWriter bw = Files.newBufferedWriter(entriesTempFile, StandardCharsets.UTF_8)) {
+				bw.write("{\n  \"archive\": ");
+				Json.quote(bw, archiveName);
+				bw.write(",\n  \"sha256\": \"" + sha256 + "\",\n  \"entries\": [");
+				String sep = "\n";
+				for (Entry en : entries) {
+					bw.write(sep);
+					bw.write("    {\"name\": ");
+					Json.quote(bw, en.getName());
+					bw.write(", \"size\": " + en.getSize() + ", \"compressedSize\": " + en.getCompressedSize()
+					         + ", \"crc\": \"" + String.format("%08x", Long.valueOf(en.getCrc()))
+					         + "\", \"sha256\": \"" + en.getSha256() + "\"}");
+					sep = ",\n";
+				}
+				bw.write("\n  ]\n}\n");
+			}
+			AtomicFiles.publish(entriesTempFile, entriesFile);
+			AtomicFiles.publish(sha256TempFile, sha256File);
+		} catch (IOException e) {
+			AtomicFiles.deleteQuietly(sha256TempFile);
+			AtomicFiles.deleteQuietly(entriesTempFile);
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/** Reads the index of the given archive from the entries file, which
+	 * has been written by {@link #write(Path)}.
+	 * @throws IllegalStateException The entries file is malformed, or truncated.
+	 */
+	public static PackageFileIndex read(Path pArchiveFile) {
+		final PackageFileIndex index = new PackageFileIndex(pArchiveFile.getFileName().toString());
+		final Path entriesFile = getEntriesFile(pArchiveFile);
+		try (BufferedReader br = Files.newBufferedReader(entriesFile, StandardCharsets.UTF_8)) {
+			// 0 = Before, 1 = inside, 2 = after the entries array
+			int state = 0;
+			int lineNumber = 0;
+			for (String line = br.readLine();  line != null;  line = br.readLine()) {
+				++lineNumber;
+				if (state == 1) {
+					final Matcher entryMatcher = ENTRY_PATTERN.matcher(line);
+					if (entryMatcher.matches()) {
+						index.add(new Entry(unquote(entryMatcher.group(1)), Long.parseLong(entryMatcher.group(2)),
+								            Long.parseLong(entryMatcher.group(3)), Long.parseLong(entryMatcher.group(4), 16),
+								            entryMatcher.group(5)));
+					} else if (ENTRIES_END_PATTERN.matcher(line).matches()) {
+						state = 2;
+					} else {
+						throw new IllegalStateException("Invalid entry in " + entriesFile + ", line " + lineNumber + ": " + line);
+					}
+				} else if (state == 0) {
+					final Matcher sha256Matcher = SHA256_PATTERN.matcher(line);
+					if (sha256Matcher.matches()) {
+						index.setSha256(sha256Matcher.group(1));
+					} else if (ENTRIES_START_PATTERN.matcher(line).matches()) {
+						state = 1;
+					}
+				}
+			}
+			if (state != 2) {
+				throw new IllegalStateException("Unexpected end of file in " + entriesFile + ", line " + lineNumber
+						                        + ": The entries array is " + (state == 0 ? "missing" : "incomplete"));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return index;
+	}
+
+	private static String unquote(String pQuoted) {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 1;  i < pQuoted.length()-1;  i++) {
+			final char c = pQuoted.charAt(i);
+			if (c == '\\') {
+				final char next = pQuoted.charAt(++i);
+				switch (next) {
+				  case 'n': sb.append('\n'); break;
+				  case 'r': sb.append('\r'); break;
+				  case 't': sb.append('\t'); break;
+				  case 'b': sb.append('\b'); break;
+				  case 'f': sb.append('\f'); break;
+				  case 'u':
+					  sb.append((char) Integer.parseInt(pQuoted.substring(i+1, i+5), 16));
+					  i += 4;
+					  break;
+				  default: sb.append(next); break;
+				}
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
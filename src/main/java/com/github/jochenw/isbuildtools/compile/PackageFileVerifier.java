@@ -0,0 +1,237 @@
+package com.github.jochenw.isbuildtools.compile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.inject.Inject;
+
+import com.github.jochenw.afw.core.inject.IComponentFactory;
+import com.github.jochenw.afw.core.log.ILog;
+import com.github.jochenw.afw.core.log.ILogFactory;
+import com.github.jochenw.afw.core.props.IPropertyFactory;
+import com.github.jochenw.isbuildtools.util.BuildTracer;
+import com.github.jochenw.isbuildtools.util.Digests;
+import com.github.jochenw.isbuildtools.util.IoExecutor;
+
+
+/** Verifies an archive, which has been created by the {@link PackageFileCreator}. The
+ * entries are read from the central directory, and inflated, and CRC checked in parallel.
+ * The entry list, and the content hashes are compared against the {@link PackageFileIndex},
+ * if the archive has one, or against the staged package directory otherwise.
+ *
+ * Verification after each build is enabled by the property <code>project.archive.verify</code>
+ * (default: false).
+ */
+public class PackageFileVerifier {
+	private static final int BUFFER_SIZE = 65536;
+
+	private static class Expected {
+		private final long size, crc;
+		private final String sha256;
+		private final Path file;
+
+		Expected(long pSize, long pCrc, String pSha256, Path pFile) {
+			size = pSize;
+			crc = pCrc;
+			sha256 = pSha256;
+			file = pFile;
+		}
+	}
+
+	private final ILog log;
+	private final IPropertyFactory propertyFactory;
+	private final PackageFileCreator packageFileCreator;
+	private final IoExecutor ioExecutor;
+	private final BuildTracer tracer;
+
+	public @Inject PackageFileVerifier(IComponentFactory pComponentFactory) {
+		log = pComponentFactory.requireInstance(ILogFactory.class).getLog(PackageFileVerifier.class);
+		propertyFactory = pComponentFactory.requireInstance(IPropertyFactory.class);
+		packageFileCreator = pComponentFactory.requireInstance(PackageFileCreator.class);
+		ioExecutor = pComponentFactory.requireInstance(IoExecutor.class);
+		tracer = pComponentFactory.requireInstance(BuildTracer.class);
+	}
+
+	/** Returns, whether archives are verified after they have been created.
+	 */
+	public boolean isVerifying() {
+		final String value = propertyFactory.getPropertyValue("project.archive.verify");
+		return value != null  &&  Boolean.parseBoolean(value.trim());
+	}
+
+	/** Verifies the given archive, and throws an {@link IllegalStateException}, if it
+	 * doesn't match.
+	 * @see #verify(Path, Path)
+	 */
+	public void check(Path pArchiveFile, Path pStagedDir) {
+		final List<String> mismatches = verify(pArchiveFile, pStagedDir);
+		if (!mismatches.isEmpty()) {
+			throw new IllegalStateException("Verification of archive " + pArchiveFile + " failed with "
+					+ mismatches.size() + " mismatch(es): " + String.join(", ", mismatches));
+		}
+	}
+
+	/** Verifies the given archive.
+	 * @param pArchiveFile The archive, which is being verified.
+	 * @param pStagedDir The staged package directory, from which the archive was created.
+	 *   Used only, if the archive has no index. May be null, in which case the archive
+	 *   is checked for corruption only.
+	 * @return The list of mismatches, which is empty, if the archive is valid.
+	 */
+	public List<String> verify(Path pArchiveFile, Path pStagedDir) {
+		final String archiveName = pArchiveFile.getFileName().toString();
+		final Queue<String> mismatches = new ConcurrentLinkedQueue<>();
+		try (BuildTracer.Span span = tracer.span("archive", "verify archive", archiveName);
+			 ZipFile zipFile = new ZipFile(pArchiveFile.toFile(), StandardCharsets.UTF_8)) {
+			final Map<String,Expected> expected = getExpectedEntries(pArchiveFile, pStagedDir);
+			final List<ZipEntry> entries = new ArrayList<>();
+			final Set<String> names = new HashSet<>();
+			for (Enumeration<? extends ZipEntry> en = zipFile.entries();  en.hasMoreElements();  ) {
+				final ZipEntry ze = en.nextElement();
+				if (!names.add(ze.getName())) {
+					mismatches.add(ze.getName() + ": duplicate entry");
+				} else if (!ze.isDirectory()) {
+					entries.add(ze);
+				}
+			}
+			if (expected != null) {
+				for (String name : expected.keySet()) {
+					if (!names.contains(name)) {
+						mismatches.add(name + ": missing in archive");
+					}
+				}
+			}
+			span.arg("entries", Integer.valueOf(entries.size()));
+			// Largest entries first, so that the tasks finish at roughly the same time.
+			entries.sort((e1, e2) -> Long.compare(e2.getSize(), e1.getSize()));
+			final AtomicInteger next = new AtomicInteger();
+			final Runnable task = () -> {
+				final byte[] buffer = new byte[BUFFER_SIZE];
+				final CRC32 crc = new CRC32();
+				final MessageDigest digest = Digests.newSha256();
+				for (int i = next.getAndIncrement();  i < entries.size();  i = next.getAndIncrement()) {
+					final ZipEntry ze = entries.get(i);
+					verify(zipFile, ze, expected == null ? null : expected.get(ze.getName()), expected != null,
+						   buffer, crc, digest, mismatches);
+				}
+			};
+			final List<Runnable> tasks = new ArrayList<>();
+			final int numberOfTasks = Math.min(entries.size(), Runtime.getRuntime().availableProcessors());
+			for (int i = 0;  i < numberOfTasks;  i++) {
+				tasks.add(task);
+			}
+			final Path sha256File = PackageFileIndex.getSha256File(pArchiveFile);
+			if (Files.isRegularFile(sha256File)) {
+				tasks.add(() -> verifyArchiveSha256(pArchiveFile, sha256File, mismatches));
+			}
+			ioExecutor.runAll(tasks);
+		} catch (IOException e) {
+			mismatches.add("unreadable archive (" + e.getMessage() + ")");
+		}
+		final List<String> list = new ArrayList<>(mismatches);
+		Collections.sort(list);
+		if (list.isEmpty()) {
+			log.debug("verify", "Archive " + archiveName + " verified successfully");
+		} else {
+			for (String mismatch : list) {
+				log.error("verify", archiveName + ": " + mismatch);
+			}
+		}
+		return list;
+	}
+
+	/** Returns the expected entries, either from the archives index, or from the
+	 * staged package directory, or null, if neither is available.
+	 */
+	private Map<String,Expected> getExpectedEntries(Path pArchiveFile, Path pStagedDir) {
+		final Map<String,Expected> map = new HashMap<>();
+		if (Files.isRegularFile(PackageFileIndex.getEntriesFile(pArchiveFile))) {
+			for (PackageFileIndex.Entry en : PackageFileIndex.read(pArchiveFile).getEntries()) {
+				map.put(en.getName(), new Expected(en.getSize(), en.getCrc(), en.getSha256(), null));
+			}
+			return map;
+		}
+		if (pStagedDir != null  &&  Files.isDirectory(pStagedDir)) {
+			for (String name : packageFileCreator.getArchiveFiles(pStagedDir)) {
+				map.put(name, new Expected(-1, -1, null, pStagedDir.resolve(name)));
+			}
+			return map;
+		}
+		return null;
+	}
+
+	private void verify(ZipFile pZipFile, ZipEntry pEntry, Expected pExpected, boolean pHasExpectations,
+			            byte[] pBuffer, CRC32 pCrc, MessageDigest pDigest, Queue<String> pMismatches) {
+		final String name = pEntry.getName();
+		if (pExpected == null  &&  pHasExpectations) {
+			pMismatches.add(name + ": unexpected entry");
+		}
+		pCrc.reset();
+		pDigest.reset();
+		long size = 0;
+		try (InputStream in = pZipFile.getInputStream(pEntry)) {
+			for (int res = in.read(pBuffer);  res != -1;  res = in.read(pBuffer)) {
+				pCrc.update(pBuffer, 0, res);
+				pDigest.update(pBuffer, 0, res);
+				size += res;
+			}
+		} catch (IOException e) {
+			pMismatches.add(name + ": corrupt entry (" + e.getMessage() + ")");
+			return;
+		}
+		if (size != pEntry.getSize()  ||  pCrc.getValue() != pEntry.getCrc()) {
+			pMismatches.add(name + ": corrupt entry (CRC, or size mismatch)");
+			return;
+		}
+		if (pExpected == null) {
+			return;
+		}
+		final String sha256 = Digests.toHex(pDigest.digest());
+		if (pExpected.file == null) {
+			if (size != pExpected.size  ||  pCrc.getValue() != pExpected.crc  ||  !sha256.equals(pExpected.sha256)) {
+				pMismatches.add(name + ": content differs from the index");
+			}
+		} else {
+			try {
+				if (size != Files.size(pExpected.file)  ||  !sha256.equals(Digests.sha256(pExpected.file))) {
+					pMismatches.add(name + ": content differs from the staged file");
+				}
+			} catch (IOException|UncheckedIOException e) {
+				pMismatches.add(name + ": staged file unreadable (" + e.getMessage() + ")");
+			}
+		}
+	}
+
+	private void verifyArchiveSha256(Path pArchiveFile, Path pSha256File, Queue<String> pMismatches) {
+		try {
+			final String line = new String(Files.readAllBytes(pSha256File), StandardCharsets.UTF_8).trim();
+			final int offset = line.indexOf(' ');
+			final String expected = offset == -1 ? line : line.substring(0, offset);
+			final String actual = Digests.sha256(pArchiveFile);
+			if (!expected.equalsIgnoreCase(actual)) {
+				pMismatches.add("SHA-256 of the archive differs from " + pSha256File.getFileName());
+			}
+		} catch (IOException|UncheckedIOException e) {
+			pMismatches.add(pSha256File.getFileName() + ": unreadable (" + e.getMessage() + ")");
+		}
+	}
+}
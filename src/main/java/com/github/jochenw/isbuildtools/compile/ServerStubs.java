@@ -0,0 +1,158 @@
+package com.github.jochenw.isbuildtools.compile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import javax.inject.Inject;
+
+import com.github.jochenw.afw.core.inject.IComponentFactory;
+import com.github.jochenw.afw.core.log.ILog;
+import com.github.jochenw.afw.core.log.ILogFactory;
+import com.github.jochenw.afw.core.props.IPropertyFactory;
+import com.github.jochenw.isbuildtools.cache.BuildCache;
+import com.github.jochenw.isbuildtools.util.AtomicFiles;
+
+
+/** Condenses the server class path into a single stub jar, which contains only the
+ * class signatures (see {@link ClassStubber}), and no resources. The stub jar is
+ * cached by a fingerprint of the server class path (names, sizes, and modification
+ * times of the jar files), so it is created only once per WM_HOME installation.
+ *
+ * Properties:
+ * <ul>
+ *   <li><code>compiler.server.stubs</code>: Whether the stub jar is used (default: false)</li>
+ *   <li><code>compiler.server.stubs.dir</code>: Directory of the cached stub jars
+ *     (default: ~/.is-build-tools/stubs)</li>
+ * </ul>
+ */
+public class ServerStubs {
+	private static final String FORMAT = "is-build-tools-stubs-1";
+
+	private final ILog log;
+	private final boolean enabled;
+	private final Path stubsDir;
+
+	public @Inject ServerStubs(IComponentFactory pComponentFactory) {
+		log = pComponentFactory.requireInstance(ILogFactory.class).getLog(ServerStubs.class);
+		final IPropertyFactory propertyFactory = pComponentFactory.requireInstance(IPropertyFactory.class);
+		final String enabledStr = propertyFactory.getPropertyValue("compiler.server.stubs");
+		enabled = enabledStr != null  &&  Boolean.parseBoolean(enabledStr.trim());
+		final String dirStr = propertyFactory.getPropertyValue("compiler.server.stubs.dir");
+		if (dirStr == null  ||  dirStr.trim().length() == 0) {
+			stubsDir = Paths.get(System.getProperty("user.home"), ".is-build-tools", "stubs");
+		} else {
+			stubsDir = Paths.get(dirStr.trim());
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/** Returns the fingerprint of the given server class path.
+	 */
+	public String getFingerprint(List<Path> pJarFiles) {
+		final List<String> values = new ArrayList<>();
+		values.add(FORMAT);
+		try {
+			for (Path p : pJarFiles) {
+				values.add(p.toAbsolutePath().toString());
+				values.add(String.valueOf(Files.size(p)));
+				values.add(String.valueOf(Files.getLastModifiedTime(p).toMillis()));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return BuildCache.hash(values);
+	}
+
+	/** Returns the stub jar for the given server class path, creating it, if necessary.
+	 */
+	public Path getStubJar(List<Path> pJarFiles) {
+		final Path stubJar = stubsDir.resolve("server-" + getFingerprint(pJarFiles) + ".jar");
+		if (Files.isRegularFile(stubJar)) {
+			log.debug("getStubJar", "Using stub jar " + stubJar);
+			return stubJar;
+		}
+		final long start = System.currentTimeMillis();
+		final Path tempFile = AtomicFiles.getTempFile(stubJar);
+		try {
+			Files.createDirectories(stubsDir);
+			final long[] counts = createStubJar(pJarFiles, tempFile);
+			AtomicFiles.publish(tempFile, stubJar);
+			log.info("getStubJar", "Created stub jar " + stubJar + " from " + pJarFiles.size() + " jar files ("
+					 + counts[0] + " classes, " + counts[1] + " bytes) in " + (System.currentTimeMillis()-start) + " ms");
+			return stubJar;
+		} catch (IOException e) {
+			AtomicFiles.deleteQuietly(tempFile);
+			throw new UncheckedIOException(e);
+		} catch (RuntimeException e) {
+			AtomicFiles.deleteQuietly(tempFile);
+			throw e;
+		}
+	}
+
+	/** Writes the stub jar. If a class is present in several jar files, the first one wins,
+	 * as on the class path. Versioned entries of multi-release jars, and module descriptors
+	 * are omitted, because they are never used on the class path of the compiler.
+	 * @return The number of classes, and the size of the stub jar.
+	 */
+	protected long[] createStubJar(List<Path> pJarFiles, Path pStubJar) throws IOException {
+		final Set<String> names = new HashSet<>();
+		final byte[] buffer = new byte[65536];
+		try (OutputStream os = Files.newOutputStream(pStubJar);
+			 ZipOutputStream zos = new ZipOutputStream(os)) {
+			zos.setLevel(Deflater.BEST_SPEED);
+			for (Path jarFile : pJarFiles) {
+				try (ZipFile zf = new ZipFile(jarFile.toFile())) {
+					for (ZipEntry ze : Collections.list(zf.entries())) {
+						final String name = ze.getName();
+						if (ze.isDirectory()  ||  !name.endsWith(".class")  ||  name.startsWith("META-INF/")
+								||  name.endsWith("module-info.class")  ||  !names.add(name)) {
+							continue;
+						}
+						final ByteArrayOutputStream baos = new ByteArrayOutputStream(ze.getSize() > 0 ? (int) ze.getSize() : 8192);
+						try (InputStream in = zf.getInputStream(ze)) {
+							for (;;) {
+								final int res = in.read(buffer);
+								if (res == -1) {
+									break;
+								}
+								baos.write(buffer, 0, res);
+							}
+						}
+						byte[] bytes = baos.toByteArray();
+						try {
+							bytes = ClassStubber.strip(bytes);
+						} catch (IOException e) {
+							log.debug("createStubJar", "Unable to strip " + name + " in " + jarFile + ", copying it unchanged: " + e.getMessage());
+						}
+						final ZipEntry entry = new ZipEntry(name);
+						entry.setTime(ze.getTime());
+						zos.putNextEntry(entry);
+						zos.write(bytes);
+						zos.closeEntry();
+					}
+				} catch (IOException e) {
+					throw new IOException("Unable to read jar file " + jarFile + ": " + e.getMessage(), e);
+				}
+			}
+		}
+		return new long[] {names.size(), Files.size(pStubJar)};
+	}
+}
@@ -0,0 +1,157 @@
+package com.github.jochenw.isbuildtools.compile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.github.jochenw.isbuildtools.util.AtomicFiles;
+
+
+/** An index of the IS services (and other namespace nodes) in a set of packages.
+ * The index is persisted in a compact binary format, and can be updated incrementally.
+ */
+public class ServiceIndex {
+	private static final int MAGIC = 0x49534958; // "ISIX"
+	private static final int VERSION = 1;
+
+	public static class Node {
+		private final String packageName, name, type;
+		private final long lastModified;
+		private final List<String> inputFields, outputFields, invokedServices;
+
+		public Node(String pPackageName, String pName, String pType, long pLastModified,
+				    List<String> pInputFields, List<String> pOutputFields, List<String> pInvokedServices) {
+			packageName = pPackageName;
+			name = pName;
+			type = pType;
+			lastModified = pLastModified;
+			inputFields = pInputFields;
+			outputFields = pOutputFields;
+			invokedServices = pInvokedServices;
+		}
+		public String getPackageName() { return packageName; }
+		public String getName() { return name; }
+		public String getType() { return type; }
+		public long getLastModified() { return lastModified; }
+		public List<String> getInputFields() { return inputFields; }
+		public List<String> getOutputFields() { return outputFields; }
+		public List<String> getInvokedServices() { return invokedServices; }
+	}
+
+	private final Map<String,Node> nodesByName = new TreeMap<>();
+	private final List<String> duplicates = new ArrayList<>();
+
+	public Node getNode(String pName) {
+		return nodesByName.get(pName);
+	}
+
+	public Collection<Node> getNodes() {
+		return Collections.unmodifiableCollection(nodesByName.values());
+	}
+
+	/** Adds the given node. If the index already contains a node with the same name
+	 * from another package, then the existing node is kept, and the conflict is
+	 * recorded as a duplicate.
+	 */
+	public void add(Node pNode) {
+		final Node existing = nodesByName.putIfAbsent(pNode.getName(), pNode);
+		if (existing != null  &&  existing != pNode) {
+			duplicates.add("Duplicate node: " + pNode.getName() + " is present in package " + existing.getPackageName()
+			               + ", and in package " + pNode.getPackageName() + " (ignored)");
+		}
+	}
+
+	/** Returns the conflicts, which have been detected by {@link #add(Node)}.
+	 */
+	public List<String> getDuplicates() {
+		return Collections.unmodifiableList(duplicates);
+	}
+
+	public int size() {
+		return nodesByName.size();
+	}
+
+	public static ServiceIndex read(Path pFile) {
+		final ServiceIndex index = new ServiceIndex();
+		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(pFile)))) {
+			if (dis.readInt() != MAGIC  ||  dis.readInt() != VERSION) {
+				return index; // Unknown format, rebuild from scratch.
+			}
+			final int numberOfNodes = dis.readInt();
+			for (int i = 0;  i < numberOfNodes;  i++) {
+				final String packageName = dis.readUTF();
+				final String name = dis.readUTF();
+				final String type = dis.readUTF();
+				final long lastModified = dis.readLong();
+				final List<String> inputFields = readList(dis);
+				final List<String> outputFields = readList(dis);
+				final List<String> invokedServices = readList(dis);
+				index.add(new Node(packageName, name, type, lastModified, inputFields, outputFields, invokedServices));
+			}
+		} catch (NoSuchFileException e) {
+			return index;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return index;
+	}
+
+	public void write(Path pFile) {
+		final Path tempFile = AtomicFiles.getTempFile(pFile);
+		try {
+			final Path dir = pFile.getParent();
+			if (dir != null) {
+				Files.createDirectories(dir);
+			}
+			try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+				dos.writeInt(MAGIC);
+				dos.writeInt(VERSION);
+				dos.writeInt(nodesByName.size());
+				for (Node node : nodesByName.values()) {
+					dos.writeUTF(node.getPackageName());
+					dos.writeUTF(node.getName());
+					dos.writeUTF(node.getType());
+					dos.writeLong(node.getLastModified());
+					writeList(dos, node.getInputFields());
+					writeList(dos, node.getOutputFields());
+					writeList(dos, node.getInvokedServices());
+				}
+			}
+			AtomicFiles.publish(tempFile, pFile);
+		} catch (IOException e) {
+			AtomicFiles.deleteQuietly(tempFile);
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static List<String> readList(DataInputStream pIn) throws IOException {
+		final int size = pIn.readInt();
+		if (size == 0) {
+			return Collections.emptyList();
+		}
+		final List<String> list = new ArrayList<>(size);
+		for (int i = 0;  i < size;  i++) {
+			list.add(pIn.readUTF());
+		}
+		return list;
+	}
+
+	private static void writeList(DataOutputStream pOut, List<String> pList) throws IOException {
+		pOut.writeInt(pList.size());
+		for (String s : pList) {
+			pOut.writeUTF(s);
+		}
+	}
+}
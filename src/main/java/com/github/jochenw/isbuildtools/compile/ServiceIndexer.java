@@ -0,0 +1,288 @@
+package com.github.jochenw.isbuildtools.compile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import com.github.jochenw.afw.core.inject.IComponentFactory;
+import com.github.jochenw.afw.core.log.ILog;
+import com.github.jochenw.afw.core.log.ILogFactory;
+import com.github.jochenw.afw.core.props.IPropertyFactory;
+import com.github.jochenw.afw.core.util.Exceptions;
+import com.github.jochenw.isbuildtools.compile.ServiceIndex.Node;
+import com.github.jochenw.isbuildtools.util.IoExecutor;
+
+
+/** Builds a {@link ServiceIndex} by streaming every <code>ns/&#42;&#42;/node.ndf</code>,
+ * and <code>flow.xml</code> file of a set of packages on the {@link IoExecutor}. Files,
+ * which haven't been modified since the previous index was created, aren't parsed again.
+ * The number of concurrent parser tasks is given by the property <code>serviceIndex.threads</code>
+ * (default: number of processors).
+ */
+public class ServiceIndexer {
+	private static class Job {
+		private final String packageName, name;
+		private final Path nodeFile, flowFile;
+		private final long lastModified;
+		private boolean reused;
+		private Node node;
+
+		Job(String pPackageName, String pName, Path pNodeFile, Path pFlowFile, long pLastModified) {
+			packageName = pPackageName;
+			name = pName;
+			nodeFile = pNodeFile;
+			flowFile = pFlowFile;
+			lastModified = pLastModified;
+		}
+	}
+
+	private final ILog log;
+	private final IoExecutor ioExecutor;
+	private final int threads;
+	private final ThreadLocal<SAXParser> parsers = new ThreadLocal<SAXParser>() {
+		@Override
+		protected SAXParser initialValue() {
+			try {
+				final SAXParserFactory spf = SAXParserFactory.newInstance();
+				spf.setNamespaceAware(true);
+				spf.setValidating(false);
+				return spf.newSAXParser();
+			} catch (Exception e) {
+				throw Exceptions.show(e);
+			}
+		}
+	};
+
+	public @Inject ServiceIndexer(IComponentFactory pComponentFactory) {
+		log = pComponentFactory.requireInstance(ILogFactory.class).getLog(ServiceIndexer.class);
+		ioExecutor = pComponentFactory.requireInstance(IoExecutor.class);
+		final IPropertyFactory propertyFactory = pComponentFactory.requireInstance(IPropertyFactory.class);
+		final String threadsStr = propertyFactory.getPropertyValue("serviceIndex.threads");
+		if (threadsStr == null  ||  threadsStr.trim().length() == 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		} else {
+			threads = Math.max(1, Integer.parseInt(threadsStr.trim()));
+		}
+	}
+
+	/** Creates an updated index for the given packages. The packages are processed in
+	 * the order of their names, so that the result is the same on every machine, even
+	 * if a node name is present in several packages (see {@link ServiceIndex#getDuplicates()}).
+	 * @param pPrevious The previous index, or null.
+	 * @param pPackageDirs The package directories, keyed by package name.
+	 */
+	public ServiceIndex update(ServiceIndex pPrevious, Map<String,Path> pPackageDirs) {
+		log.entering("update", pPackageDirs.keySet());
+		final List<Job> jobs = new ArrayList<>();
+		try {
+			for (Map.Entry<String,Path> en : new TreeMap<>(pPackageDirs).entrySet()) {
+				final String packageName = en.getKey();
+				final Path nsDir = en.getValue().resolve("ns");
+				if (!Files.isDirectory(nsDir)) {
+					continue;
+				}
+				final List<Job> packageJobs = new ArrayList<>();
+				Files.walkFileTree(nsDir, new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(Path pFile, BasicFileAttributes pAttrs) throws IOException {
+						if (!"node.ndf".equals(pFile.getFileName().toString())) {
+							return FileVisitResult.CONTINUE;
+						}
+						final String name = getNodeName(nsDir, pFile);
+						if (name == null) {
+							return FileVisitResult.CONTINUE;
+						}
+						final Path flowFile = pFile.resolveSibling("flow.xml");
+						long lastModified = pAttrs.lastModifiedTime().toMillis();
+						if (Files.isRegularFile(flowFile)) {
+							lastModified = Math.max(lastModified, Files.getLastModifiedTime(flowFile).toMillis());
+						}
+						final Job job = new Job(packageName, name, pFile, flowFile, lastModified);
+						final Node previousNode = pPrevious == null ? null : pPrevious.getNode(name);
+						if (previousNode != null  &&  previousNode.getLastModified() == lastModified
+								&&  packageName.equals(previousNode.getPackageName())) {
+							job.node = previousNode;
+							job.reused = true;
+						}
+						packageJobs.add(job);
+						return FileVisitResult.CONTINUE;
+					}
+				});
+				// Within a package, the order of the file system walk may differ between machines.
+				packageJobs.sort((j1, j2) -> j1.name.compareTo(j2.name));
+				jobs.addAll(packageJobs);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		final List<Job> parseJobs = new ArrayList<>();
+		for (Job job : jobs) {
+			if (!job.reused) {
+				parseJobs.add(job);
+			}
+		}
+		final AtomicInteger next = new AtomicInteger();
+		final Runnable task = () -> {
+			for (int i = next.getAndIncrement();  i < parseJobs.size();  i = next.getAndIncrement()) {
+				final Job job = parseJobs.get(i);
+				job.node = parse(job.packageName, job.name, job.nodeFile, job.flowFile, job.lastModified);
+			}
+		};
+		final int numberOfTasks = Math.min(threads, parseJobs.size());
+		final List<Runnable> tasks = new ArrayList<>(numberOfTasks);
+		for (int i = 0;  i < numberOfTasks;  i++) {
+			tasks.add(task);
+		}
+		ioExecutor.runAll(tasks);
+		final ServiceIndex index = new ServiceIndex();
+		for (Job job : jobs) {
+			if (job.node != null) {
+				index.add(job.node);
+			}
+		}
+		log.info("update", "Service index contains " + index.size() + " nodes, " + parseJobs.size()
+		         + " node files parsed, " + (jobs.size() - parseJobs.size()) + " reused from the previous index.");
+		log.exiting("update");
+		return index;
+	}
+
+	/** Converts the path of a node.ndf file into the node name: The path
+	 * <code>ns/a/b/c/node.ndf</code> becomes <code>a.b:c</code>.
+	 */
+	protected String getNodeName(Path pNsDir, Path pNodeFile) {
+		final Path relativeDir = pNsDir.relativize(pNodeFile.getParent());
+		final int count = relativeDir.getNameCount();
+		if (count == 0  ||  relativeDir.toString().length() == 0) {
+			return null;
+		}
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0;  i < count-1;  i++) {
+			if (i > 0) {
+				sb.append('.');
+			}
+			sb.append(relativeDir.getName(i).toString());
+		}
+		if (count > 1) {
+			sb.append(':');
+		}
+		sb.append(relativeDir.getName(count-1).toString());
+		return sb.toString();
+	}
+
+	protected Node parse(String pPackageName, String pName, Path pNodeFile, Path pFlowFile, long pLastModified) {
+		log.trace("parse", pNodeFile);
+		final NodeParser nodeParser = new NodeParser();
+		parse(pNodeFile, nodeParser);
+		final String type = nodeParser.getServiceType() == null ? nodeParser.getNodeType() : nodeParser.getServiceType();
+		if (type == null) {
+			return null; // An unknown node type.
+		}
+		final List<String> invokedServices;
+		if (Files.isRegularFile(pFlowFile)) {
+			final FlowParser flowParser = new FlowParser();
+			parse(pFlowFile, flowParser);
+			invokedServices = new ArrayList<>(flowParser.getInvokedServices());
+		} else {
+			invokedServices = new ArrayList<>();
+		}
+		return new Node(pPackageName, pName, type, pLastModified, new ArrayList<>(nodeParser.getInputFields()),
+				        new ArrayList<>(nodeParser.getOutputFields()), invokedServices);
+	}
+
+	protected void parse(Path pFile, AbstractContentHandler pHandler) {
+		final SAXParser parser = parsers.get();
+		try (InputStream in = Files.newInputStream(pFile)) {
+			final XMLReader xr = parser.getXMLReader();
+			xr.setContentHandler(pHandler);
+			final InputSource isource = new InputSource(in);
+			isource.setSystemId(pFile.toString());
+			xr.parse(isource);
+		} catch (Throwable t) {
+			parser.reset();
+			throw new IllegalStateException("Failed to parse " + pFile + ": " + t.getMessage(), t);
+		}
+	}
+
+	/** Checks the service invocations in the index.
+	 * @param pIndex The index being checked.
+	 * @param pRequiredPackages The required packages (as declared in the manifest), keyed by package name.
+	 * @param pIgnoredPrefixes Invocations of services with these prefixes (for example, "pub.") are
+	 *   expected to be resolved by the server, and aren't reported, if they are missing in the index.
+	 * @return A list of problems: Node names, which are present in several packages, unresolved
+	 *   service references, and references to packages, which aren't declared as (possibly indirect)
+	 *   dependencies.
+	 */
+	public List<String> checkReferences(ServiceIndex pIndex, Map<String,? extends Collection<String>> pRequiredPackages,
+			                            Collection<String> pIgnoredPrefixes) {
+		final List<String> problems = new ArrayList<>(pIndex.getDuplicates());
+		for (Node node : pIndex.getNodes()) {
+			Set<String> dependencies = null;
+			for (String service : node.getInvokedServices()) {
+				final Node target = pIndex.getNode(service);
+				if (target == null) {
+					if (!isIgnored(service, pIgnoredPrefixes)) {
+						problems.add("Unresolved service reference: " + node.getPackageName() + "/" + node.getName()
+						             + " invokes " + service);
+					}
+				} else if (!target.getPackageName().equals(node.getPackageName())) {
+					if (dependencies == null) {
+						dependencies = getDependencies(node.getPackageName(), pRequiredPackages);
+					}
+					if (!dependencies.contains(target.getPackageName())) {
+						problems.add("Undeclared package dependency: " + node.getPackageName() + "/" + node.getName()
+						             + " invokes " + service + " from package " + target.getPackageName());
+					}
+				}
+			}
+		}
+		return problems;
+	}
+
+	protected boolean isIgnored(String pService, Collection<String> pIgnoredPrefixes) {
+		for (String prefix : pIgnoredPrefixes) {
+			if (pService.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	protected Set<String> getDependencies(String pPackageName, Map<String,? extends Collection<String>> pRequiredPackages) {
+		final Set<String> dependencies = new HashSet<>();
+		final Deque<String> queue = new ArrayDeque<>();
+		queue.add(pPackageName);
+		while (!queue.isEmpty()) {
+			final Collection<String> required = pRequiredPackages.get(queue.removeFirst());
+			if (required != null) {
+				for (String r : required) {
+					if (dependencies.add(r)) {
+						queue.add(r);
+					}
+				}
+			}
+		}
+		return dependencies;
+	}
+}
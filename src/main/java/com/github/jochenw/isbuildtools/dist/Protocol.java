@@ -0,0 +1,108 @@
+package com.github.jochenw.isbuildtools.dist;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+
+/** Wire format of the distributed build. All messages are written with a
+ * {@link DataOutputStream}. A session looks like this:
+ * <pre>
+ *   C: MAGIC VERSION                 W: MAGIC VERSION workerId
+ *   C: JOB packageName archiveName &lt;source zip&gt; n (packageName hash)*n
+ *   W: NEED m hash*m
+ *   C: (hash &lt;bundle zip&gt;)*m
+ *   W: RESULT ok message [&lt;classes zip&gt; &lt;archive&gt; hasChecksums [&lt;sha256&gt; &lt;entries&gt;]]
+ *   ... more jobs ...
+ *   C: BYE
+ * </pre>
+ * A bundle is a zip file with the manifest, the classes, and the jar files of a
+ * package, which is required for compiling. Workers cache bundles by hash.
+ */
+public final class Protocol {
+	public static final int MAGIC = 0x49534257; // "ISBW"
+	public static final int VERSION = 1;
+	public static final int BYE = 0;
+	public static final int JOB = 1;
+	public static final int NEED = 2;
+	public static final int RESULT = 3;
+	private static final int MAX_STRING = 1024*1024;
+
+	private Protocol() {}
+
+	public static void writeString(DataOutputStream pOut, String pValue) throws IOException {
+		final byte[] bytes = pValue.getBytes(StandardCharsets.UTF_8);
+		pOut.writeInt(bytes.length);
+		pOut.write(bytes);
+	}
+
+	public static String readString(DataInputStream pIn) throws IOException {
+		final int len = pIn.readInt();
+		if (len < 0  ||  len > MAX_STRING) {
+			throw new IOException("Invalid string length: " + len);
+		}
+		final byte[] bytes = new byte[len];
+		pIn.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public static void writeFile(DataOutputStream pOut, Path pFile) throws IOException {
+		pOut.writeLong(Files.size(pFile));
+		Files.copy(pFile, pOut);
+	}
+
+	/** Reads a file, which has been written by {@link #writeFile(DataOutputStream, Path)}.
+	 */
+	public static void readFile(DataInputStream pIn, Path pFile) throws IOException {
+		final long len = pIn.readLong();
+		if (len < 0) {
+			throw new IOException("Invalid file length: " + len);
+		}
+		final Path dir = pFile.getParent();
+		if (dir != null) {
+			Files.createDirectories(dir);
+		}
+		final byte[] buffer = new byte[65536];
+		try (OutputStream out = Files.newOutputStream(pFile)) {
+			long remaining = len;
+			while (remaining > 0) {
+				final int res = pIn.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+				if (res == -1) {
+					throw new IOException("Unexpected end of stream, while reading " + pFile);
+				}
+				out.write(buffer, 0, res);
+				remaining -= res;
+			}
+		}
+	}
+
+	public static void writeHeader(DataOutputStream pOut) throws IOException {
+		pOut.writeInt(MAGIC);
+		pOut.writeInt(VERSION);
+	}
+
+	public static void readHeader(DataInputStream pIn) throws IOException {
+		final int magic = pIn.readInt();
+		if (magic != MAGIC) {
+			throw new IOException("Invalid protocol header: " + Integer.toHexString(magic));
+		}
+		final int version = pIn.readInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported protocol version: " + version + " (expected " + VERSION + ")");
+		}
+	}
+
+	public static int expect(DataInputStream pIn, int... pTypes) throws IOException {
+		final int type = pIn.readInt();
+		for (int t : pTypes) {
+			if (t == type) {
+				return type;
+			}
+		}
+		throw new IOException("Unexpected message type: " + type);
+	}
+}
@@ -0,0 +1,156 @@
+package com.github.jochenw.isbuildtools.dist;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+
+/** The coordinator side of a connection to a {@link WorkerServer}. A connection
+ * runs one job at a time. Any {@link IOException} means, that the worker must be
+ * considered lost.
+ */
+public class WorkerConnection implements AutoCloseable {
+	public static class Result {
+		private final boolean ok;
+		private final String message;
+		private final boolean withChecksums;
+
+		Result(boolean pOk, String pMessage, boolean pWithChecksums) {
+			ok = pOk;
+			message = pMessage;
+			withChecksums = pWithChecksums;
+		}
+
+		public boolean isOk() { return ok; }
+		public String getMessage() { return message; }
+		/** Returns, whether the worker has returned the checksum files of the archive.
+		 */
+		public boolean isWithChecksums() { return withChecksums; }
+	}
+
+	private final String address;
+	private final int timeoutMillis;
+	private Socket socket;
+	private DataInputStream in;
+	private DataOutputStream out;
+	private String workerId;
+
+	public WorkerConnection(String pAddress, int pTimeoutMillis) {
+		address = pAddress;
+		timeoutMillis = pTimeoutMillis;
+	}
+
+	public String getAddress() { return address; }
+	public String getWorkerId() { return workerId; }
+
+	public void connect() throws IOException {
+		final int offset = address.lastIndexOf(':');
+		if (offset <= 0) {
+			throw new IllegalArgumentException("Invalid worker address, expected host:port: " + address);
+		}
+		final String host = address.substring(0, offset);
+		final int port = Integer.parseInt(address.substring(offset+1));
+		final Socket s = new Socket();
+		try {
+			s.connect(new InetSocketAddress(host, port), Math.min(timeoutMillis, 10000));
+			s.setSoTimeout(timeoutMillis);
+			s.setTcpNoDelay(true);
+			in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 65536));
+			out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 65536));
+			Protocol.writeHeader(out);
+			out.flush();
+			Protocol.readHeader(in);
+			workerId = Protocol.readString(in);
+			socket = s;
+		} catch (IOException|RuntimeException e) {
+			s.close();
+			throw e;
+		}
+	}
+
+	/** Builds a package on the worker.
+	 * @param pPackageName The package name.
+	 * @param pArchiveName The name of the archive, which is being created.
+	 * @param pSourceZip The zipped package directory.
+	 * @param pBundles The bundles, which are required for compiling, as a map of package
+	 *   names to bundle hashes.
+	 * @param pBundleFiles Maps a bundle hash to the bundle file.
+	 * @param pClassesZip The file, which receives the compiled classes.
+	 * @param pArchiveFile The file, which receives the archive.
+	 * @param pSha256File The file, which receives the archives SHA-256 sidecar file, if any.
+	 * @param pEntriesFile The file, which receives the archives entries sidecar file, if any.
+	 */
+	public Result build(String pPackageName, String pArchiveName, Path pSourceZip,
+			            Map<String,String> pBundles, Function<String,Path> pBundleFiles,
+			            Path pClassesZip, Path pArchiveFile, Path pSha256File, Path pEntriesFile) throws IOException {
+		if (socket == null) {
+			throw new IllegalStateException("Not connected.");
+		}
+		out.writeInt(Protocol.JOB);
+		Protocol.writeString(out, pPackageName);
+		Protocol.writeString(out, pArchiveName);
+		Protocol.writeFile(out, pSourceZip);
+		out.writeInt(pBundles.size());
+		for (Map.Entry<String,String> en : pBundles.entrySet()) {
+			Protocol.writeString(out, en.getKey());
+			Protocol.writeString(out, en.getValue());
+		}
+		out.flush();
+		Protocol.expect(in, Protocol.NEED);
+		final int numberOfMissingBundles = in.readInt();
+		final List<String> missing = new ArrayList<>(numberOfMissingBundles);
+		for (int i = 0;  i < numberOfMissingBundles;  i++) {
+			missing.add(Protocol.readString(in));
+		}
+		for (String hash : missing) {
+			final Path bundleFile = pBundleFiles.apply(hash);
+			if (bundleFile == null) {
+				throw new IOException("Worker requested an unknown bundle: " + hash);
+			}
+			Protocol.writeString(out, hash);
+			Protocol.writeFile(out, bundleFile);
+		}
+		out.flush();
+		Protocol.expect(in, Protocol.RESULT);
+		final boolean ok = in.readBoolean();
+		final String message = Protocol.readString(in);
+		if (!ok) {
+			return new Result(false, message, false);
+		}
+		Protocol.readFile(in, pClassesZip);
+		Protocol.readFile(in, pArchiveFile);
+		final boolean withChecksums = in.readBoolean();
+		if (withChecksums) {
+			Protocol.readFile(in, pSha256File);
+			Protocol.readFile(in, pEntriesFile);
+		}
+		return new Result(true, message, withChecksums);
+	}
+
+	@Override
+	public void close() {
+		if (socket != null) {
+			try {
+				out.writeInt(Protocol.BYE);
+				out.flush();
+			} catch (IOException e) {
+				// Ignore this, the worker may be gone.
+			}
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// Ignore this
+			}
+			socket = null;
+		}
+	}
+}
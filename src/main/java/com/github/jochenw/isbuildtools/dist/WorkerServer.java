@@ -0,0 +1,244 @@
+package com.github.jochenw.isbuildtools.dist;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+import com.github.jochenw.afw.core.inject.IComponentFactory;
+import com.github.jochenw.afw.core.log.ILog;
+import com.github.jochenw.isbuildtools.actions.BuildUtils;
+import com.github.jochenw.isbuildtools.cache.BuildCache;
+import com.github.jochenw.isbuildtools.compile.MarkdownConverter;
+import com.github.jochenw.isbuildtools.compile.PackageCompiler;
+import com.github.jochenw.isbuildtools.compile.PackageFileCreator;
+import com.github.jochenw.isbuildtools.compile.PackageFileIndex;
+import com.github.jochenw.isbuildtools.util.AtomicFiles;
+
+
+/** The worker side of a distributed build: Accepts connections from a coordinator,
+ * and builds the packages, which it receives (compile, convert Markdown, and create
+ * the archive), using the local WM_HOME for the server class path. Every connection
+ * is served by its own thread.
+ */
+public class WorkerServer {
+	private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_][A-Za-z0-9_.\\-]*");
+	private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+
+	private final ILog log;
+	private final PackageCompiler packageCompiler;
+	private final MarkdownConverter markdownConverter;
+	private final PackageFileCreator packageFileCreator;
+	private final BuildUtils buildUtils;
+	private final Path wmHomeDir, workDir;
+	private final String workerId;
+	private ServerSocket serverSocket;
+	private ExecutorService executor;
+
+	public WorkerServer(IComponentFactory pComponentFactory, ILog pLog, Path pWmHomeDir, Path pWorkDir) {
+		log = pLog;
+		packageCompiler = pComponentFactory.requireInstance(PackageCompiler.class);
+		markdownConverter = pComponentFactory.requireInstance(MarkdownConverter.class);
+		packageFileCreator = pComponentFactory.requireInstance(PackageFileCreator.class);
+		buildUtils = pComponentFactory.requireInstance(BuildUtils.class);
+		wmHomeDir = pWmHomeDir;
+		workDir = pWorkDir.toAbsolutePath();
+		String host;
+		try {
+			host = InetAddress.getLocalHost().getHostName();
+		} catch (IOException e) {
+			host = "localhost";
+		}
+		workerId = host + "/" + UUID.randomUUID().toString().substring(0, 8);
+	}
+
+	public String getWorkerId() { return workerId; }
+
+	public synchronized void start(String pHost, int pPort) throws IOException {
+		if (serverSocket != null) {
+			throw new IllegalStateException("Worker is already running.");
+		}
+		Files.createDirectories(workDir.resolve("bundles"));
+		serverSocket = new ServerSocket();
+		serverSocket.bind(new InetSocketAddress(pHost, pPort));
+		executor = Executors.newCachedThreadPool();
+		final ServerSocket ss = serverSocket;
+		final Thread acceptor = new Thread(() -> accept(ss), "is-build-tools-worker-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		log.info("start", "Worker " + workerId + " listening on " + pHost + ":" + getPort() + ", work directory " + workDir);
+	}
+
+	public synchronized int getPort() {
+		if (serverSocket == null) {
+			throw new IllegalStateException("Worker is not running.");
+		}
+		return serverSocket.getLocalPort();
+	}
+
+	public synchronized void stop() {
+		if (serverSocket != null) {
+			try {
+				serverSocket.close();
+			} catch (IOException e) {
+				// Ignore this
+			}
+			executor.shutdownNow();
+			serverSocket = null;
+			executor = null;
+		}
+	}
+
+	protected void accept(ServerSocket pServerSocket) {
+		while (!pServerSocket.isClosed()) {
+			try {
+				final Socket socket = pServerSocket.accept();
+				executor.submit(() -> handle(socket));
+			} catch (IOException e) {
+				if (!pServerSocket.isClosed()) {
+					log.error("accept", e);
+				}
+			}
+		}
+	}
+
+	protected void handle(Socket pSocket) {
+		final String peer = String.valueOf(pSocket.getRemoteSocketAddress());
+		log.info("handle", "Coordinator connected: " + peer);
+		try (Socket socket = pSocket;
+			 DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 65536));
+			 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 65536))) {
+			socket.setTcpNoDelay(true);
+			Protocol.readHeader(in);
+			Protocol.writeHeader(out);
+			Protocol.writeString(out, workerId);
+			out.flush();
+			while (Protocol.expect(in, Protocol.JOB, Protocol.BYE) == Protocol.JOB) {
+				runJob(in, out);
+			}
+			log.info("handle", "Coordinator disconnected: " + peer);
+		} catch (SocketException e) {
+			log.warn("handle", "Connection to " + peer + " lost: " + e.getMessage());
+		} catch (IOException|RuntimeException e) {
+			log.error("handle", e);
+		}
+	}
+
+	protected Path getBundleDir(String pHash) {
+		return workDir.resolve("bundles").resolve(pHash);
+	}
+
+	private static String check(Pattern pPattern, String pValue) throws IOException {
+		if (!pPattern.matcher(pValue).matches()) {
+			throw new IOException("Invalid value: " + pValue);
+		}
+		return pValue;
+	}
+
+	protected void runJob(DataInputStream pIn, DataOutputStream pOut) throws IOException {
+		final String packageName = check(NAME, Protocol.readString(pIn));
+		final String archiveName = check(NAME, Protocol.readString(pIn));
+		final Path jobDir = workDir.resolve("jobs").resolve(UUID.randomUUID().toString());
+		try {
+			final Path sourceZip = jobDir.resolve("source.zip");
+			Protocol.readFile(pIn, sourceZip);
+			final int numberOfBundles = pIn.readInt();
+			final Map<String,String> bundles = new HashMap<>();
+			final List<String> missing = new ArrayList<>();
+			for (int i = 0;  i < numberOfBundles;  i++) {
+				final String name = check(NAME, Protocol.readString(pIn));
+				final String hash = check(HASH, Protocol.readString(pIn));
+				bundles.put(name, hash);
+				if (!Files.isDirectory(getBundleDir(hash))  &&  !missing.contains(hash)) {
+					missing.add(hash);
+				}
+			}
+			pOut.writeInt(Protocol.NEED);
+			pOut.writeInt(missing.size());
+			for (String hash : missing) {
+				Protocol.writeString(pOut, hash);
+			}
+			pOut.flush();
+			for (int i = 0;  i < missing.size();  i++) {
+				final String hash = Protocol.readString(pIn);
+				if (!missing.contains(hash)) {
+					throw new IOException("Unexpected bundle: " + hash);
+				}
+				final Path bundleZip = jobDir.resolve("bundles").resolve(hash + ".zip");
+				Protocol.readFile(pIn, bundleZip);
+				installBundle(hash, bundleZip);
+			}
+			log.info("runJob", "Building package " + packageName + " (" + missing.size() + " of " + numberOfBundles + " bundles transferred)");
+			final Path packageDir = jobDir.resolve("packages").resolve(packageName);
+			BuildCache.unzip(sourceZip, packageDir);
+			final Path distDir = jobDir.resolve("dist");
+			final Path archiveFile = distDir.resolve(archiveName);
+			final Path classesZip = jobDir.resolve("classes.zip");
+			String error = null;
+			try {
+				packageCompiler.compile(wmHomeDir, jobDir, packageDir, (n) -> {
+					final String hash = bundles.get(n);
+					return hash == null ? null : getBundleDir(hash);
+				});
+				markdownConverter.convertToHTML(packageDir);
+				packageFileCreator.createArchive(packageDir, distDir, archiveName);
+				BuildCache.zipDirectory(packageDir.resolve("code/classes"), classesZip);
+			} catch (PackageCompiler.CompilerStatusException|RuntimeException e) {
+				log.error("runJob", "Building package " + packageName + " failed: " + e.getMessage());
+				error = String.valueOf(e.getMessage());
+			}
+			pOut.writeInt(Protocol.RESULT);
+			pOut.writeBoolean(error == null);
+			Protocol.writeString(pOut, error == null ? "" : error);
+			if (error == null) {
+				Protocol.writeFile(pOut, classesZip);
+				Protocol.writeFile(pOut, archiveFile);
+				final Path sha256File = PackageFileIndex.getSha256File(archiveFile);
+				final Path entriesFile = PackageFileIndex.getEntriesFile(archiveFile);
+				final boolean checksums = Files.isRegularFile(sha256File)  &&  Files.isRegularFile(entriesFile);
+				pOut.writeBoolean(checksums);
+				if (checksums) {
+					Protocol.writeFile(pOut, sha256File);
+					Protocol.writeFile(pOut, entriesFile);
+				}
+			}
+			pOut.flush();
+		} finally {
+			buildUtils.deleteDirectory(jobDir);
+		}
+	}
+
+	/** Extracts a bundle into the bundle cache. The bundle is extracted into a temporary
+	 * directory first, so concurrent jobs never see a partially extracted bundle.
+	 */
+	protected void installBundle(String pHash, Path pBundleZip) throws IOException {
+		final Path bundleDir = getBundleDir(pHash);
+		final Path tempDir = AtomicFiles.getTempFile(bundleDir);
+		BuildCache.unzip(pBundleZip, tempDir);
+		try {
+			Files.move(tempDir, bundleDir);
+		} catch (IOException e) {
+			// Another job has installed the same bundle concurrently.
+			buildUtils.deleteDirectory(tempDir);
+			if (!Files.isDirectory(bundleDir)) {
+				throw e;
+			}
+		}
+	}
+}
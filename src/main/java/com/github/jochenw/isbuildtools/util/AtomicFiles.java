@@ -0,0 +1,62 @@
+package com.github.jochenw.isbuildtools.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+
+/** Utility methods for publishing files atomically: The file is written to a temporary
+ * file in the target directory first, and then moved into place. Readers never see
+ * a partially written file.
+ */
+public class AtomicFiles {
+	private AtomicFiles() {}
+
+	public static Path getTempFile(Path pTargetFile) {
+		return pTargetFile.resolveSibling("." + pTargetFile.getFileName() + "." + Long.toHexString(System.nanoTime()) + ".tmp");
+	}
+
+	/** Moves the given temporary file to the target file, replacing an existing file.
+	 * If the file system doesn't support atomic moves, a non-atomic move is used.
+	 */
+	public static void publish(Path pTempFile, Path pTargetFile) {
+		try {
+			try {
+				Files.move(pTempFile, pTargetFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(pTempFile, pTargetFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public static void copy(Path pSourceFile, Path pTargetFile) {
+		final Path tempFile = getTempFile(pTargetFile);
+		try {
+			final Path dir = pTargetFile.getParent();
+			if (dir != null) {
+				Files.createDirectories(dir);
+			}
+			Files.copy(pSourceFile, tempFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+			publish(tempFile, pTargetFile);
+		} catch (IOException e) {
+			deleteQuietly(tempFile);
+			throw new UncheckedIOException(e);
+		} catch (RuntimeException e) {
+			deleteQuietly(tempFile);
+			throw e;
+		}
+	}
+
+	public static void deleteQuietly(Path pFile) {
+		try {
+			Files.deleteIfExists(pFile);
+		} catch (IOException e) {
+			// Ignore this
+		}
+	}
+}
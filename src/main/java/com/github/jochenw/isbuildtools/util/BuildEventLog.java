@@ -0,0 +1,260 @@
+package com.github.jochenw.isbuildtools.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import javax.inject.Inject;
+
+import com.github.jochenw.afw.core.inject.IComponentFactory;
+import com.github.jochenw.afw.core.log.ILog;
+import com.github.jochenw.afw.core.log.ILog.Level;
+import com.github.jochenw.afw.core.props.IPropertyFactory;
+
+
+/** Asynchronous sink for high volume build events (typically trace, and debug messages
+ * from per-file loops). The level check is done by the caller, and messages are formatted
+ * lazily: Either by a {@link Supplier}, or by the background writer, in the case of a
+ * format string. Events are placed on a lock-free ring buffer, and written in batches
+ * by a single daemon thread, either to the originating {@link ILog}, or to the file
+ * given by the property <code>build.events.file</code>. While the buffer is empty, the
+ * writer is parked, until a producer wakes it up. If the ring buffer is full,
+ * producers wait for the writer.
+ *
+ * Properties:
+ * <ul>
+ *   <li><code>build.events.bufferSize</code>: Size of the ring buffer (default: 16384, rounded
+ *     up to a power of two)</li>
+ *   <li><code>build.events.batchSize</code>: Maximum number of events per batch (default: 512)</li>
+ *   <li><code>build.events.file</code>: If present, events are appended to this file,
+ *     rather than being passed to the log.</li>
+ * </ul>
+ */
+public class BuildEventLog {
+	private static class Event {
+		private final ILog log;
+		private final Level level;
+		private final String method;
+		private final String format;
+		private final Object[] args;
+		private final long time;
+		private final String thread;
+
+		Event(ILog pLog, Level pLevel, String pMethod, String pFormat, Object[] pArgs) {
+			log = pLog;
+			level = pLevel;
+			method = pMethod;
+			format = pFormat;
+			args = pArgs;
+			time = System.currentTimeMillis();
+			thread = Thread.currentThread().getName();
+		}
+
+		String getMessage() {
+			if (args == null  ||  args.length == 0) {
+				return format;
+			} else {
+				return String.format(format, args);
+			}
+		}
+	}
+
+	private final AtomicReferenceArray<Event> slots;
+	private final int mask;
+	private final int batchSize;
+	private final Path eventsFile;
+	/** Next sequence number to be claimed by a producer. */
+	private final AtomicLong tail = new AtomicLong();
+	/** Next sequence number to be consumed by the writer. */
+	private final AtomicLong head = new AtomicLong();
+	private volatile Thread writerThread;
+	/** True, while the writer is parked, or about to park, and must be unparked by the next producer. */
+	private volatile boolean writerWaiting;
+	private Writer writer;
+	private boolean writerFailed;
+
+	public @Inject BuildEventLog(IComponentFactory pComponentFactory) {
+		final IPropertyFactory propertyFactory = pComponentFactory.requireInstance(IPropertyFactory.class);
+		final int bufferSize = getIntProperty(propertyFactory, "build.events.bufferSize", 16384);
+		int capacity = 1;
+		while (capacity < bufferSize) {
+			capacity <<= 1;
+		}
+		slots = new AtomicReferenceArray<>(capacity);
+		mask = capacity-1;
+		batchSize = getIntProperty(propertyFactory, "build.events.batchSize", 512);
+		final String eventsFileStr = propertyFactory.getPropertyValue("build.events.file");
+		if (eventsFileStr == null  ||  eventsFileStr.trim().length() == 0) {
+			eventsFile = null;
+		} else {
+			eventsFile = Paths.get(eventsFileStr.trim());
+		}
+	}
+
+	protected int getIntProperty(IPropertyFactory pPropertyFactory, String pKey, int pDefault) {
+		final String value = pPropertyFactory.getPropertyValue(pKey);
+		if (value == null  ||  value.trim().length() == 0) {
+			return pDefault;
+		}
+		try {
+			return Math.max(1, Integer.parseInt(value.trim()));
+		} catch (NumberFormatException e) {
+			throw new IllegalStateException("Invalid value for property " + pKey + ": " + value);
+		}
+	}
+
+	/** Logs a message, which is created by {@link String#format(String, Object...)} on
+	 * the writer thread. The arguments must not be modified afterwards.
+	 */
+	public void log(ILog pLog, Level pLevel, String pMethod, String pFormat, Object... pArgs) {
+		if (pLog.isEnabled(pLevel)) {
+			publish(new Event(pLog, pLevel, pMethod, pFormat, pArgs));
+		}
+	}
+
+	/** Logs a message, which is created by the given supplier, if the level is enabled.
+	 */
+	public void log(ILog pLog, Level pLevel, String pMethod, Supplier<String> pMessage) {
+		if (pLog.isEnabled(pLevel)) {
+			publish(new Event(pLog, pLevel, pMethod, pMessage.get(), null));
+		}
+	}
+
+	public void tracef(ILog pLog, String pMethod, String pFormat, Object... pArgs) {
+		log(pLog, Level.TRACE, pMethod, pFormat, pArgs);
+	}
+
+	public void debugf(ILog pLog, String pMethod, String pFormat, Object... pArgs) {
+		log(pLog, Level.DEBUG, pMethod, pFormat, pArgs);
+	}
+
+	protected void publish(Event pEvent) {
+		startWriter();
+		final long seq = tail.getAndIncrement();
+		while (seq - head.get() > mask) {
+			// The buffer is full: Wait for the writer.
+			LockSupport.parkNanos(100000);
+		}
+		slots.set((int) (seq & mask), pEvent);
+		if (writerWaiting) {
+			LockSupport.unpark(writerThread);
+		}
+	}
+
+	protected void startWriter() {
+		if (writerThread == null) {
+			synchronized (this) {
+				if (writerThread == null) {
+					final Thread t = new Thread(this::runWriter, "build-event-writer");
+					t.setDaemon(true);
+					writerThread = t;
+					t.start();
+					Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(5000)));
+				}
+			}
+		}
+	}
+
+	/** Waits, until all events, which have been published so far, are written,
+	 * or the given timeout (in milliseconds) has expired.
+	 * @return True, if all events have been written.
+	 */
+	public boolean flush(long pTimeoutMillis) {
+		final long target = tail.get();
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pTimeoutMillis);
+		while (head.get() < target) {
+			if (System.nanoTime() > deadline) {
+				return false;
+			}
+			LockSupport.unpark(writerThread);
+			LockSupport.parkNanos(100000);
+		}
+		return true;
+	}
+
+	protected void runWriter() {
+		final List<Event> batch = new ArrayList<>(batchSize);
+		for (;;) {
+			long h = head.get();
+			Event event;
+			while (batch.size() < batchSize  &&  (event = slots.get((int) (h & mask))) != null) {
+				slots.set((int) (h & mask), null);
+				batch.add(event);
+				head.lazySet(++h);
+			}
+			if (batch.isEmpty()) {
+				// Announce, that we are going to park, and check again, so that a producer,
+				// which has published in the meantime, either sees the flag, or is seen here.
+				writerWaiting = true;
+				if (slots.get((int) (h & mask)) == null) {
+					LockSupport.park(this);
+				}
+				writerWaiting = false;
+			} else {
+				write(batch);
+				batch.clear();
+			}
+		}
+	}
+
+	protected void write(List<Event> pBatch) {
+		try {
+			if (eventsFile == null  ||  writerFailed) {
+				for (Event event : pBatch) {
+					event.log.log(event.level, event.method, event.getMessage());
+				}
+			} else {
+				final Writer w = getWriter();
+				final SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss.SSS");
+				for (Event event : pBatch) {
+					w.write(sdf.format(new Date(event.time)));
+					w.write(' ');
+					w.write(event.level.name());
+					w.write(" [");
+					w.write(event.thread);
+					w.write("] ");
+					w.write(event.method);
+					w.write(": ");
+					w.write(event.getMessage());
+					w.write(System.lineSeparator());
+				}
+				w.flush();
+			}
+		} catch (IOException e) {
+			// Fall back to the log, rather than blocking the producers.
+			writerFailed = true;
+			pBatch.get(0).log.error("write", new UncheckedIOException("Unable to write build events file " + eventsFile, e));
+			write(pBatch);
+		} catch (RuntimeException e) {
+			// Never let a malformed message kill the writer thread.
+			pBatch.get(0).log.error("write", e);
+		}
+	}
+
+	protected Writer getWriter() throws IOException {
+		if (writer == null) {
+			final Path dir = eventsFile.toAbsolutePath().getParent();
+			if (dir != null) {
+				Files.createDirectories(dir);
+			}
+			writer = new BufferedWriter(Files.newBufferedWriter(eventsFile, StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND), 65536);
+		}
+		return writer;
+	}
+}
@@ -0,0 +1,59 @@
+package com.github.jochenw.isbuildtools.util;
+
+
+/** Emits Java Flight Recorder events for the build (package builds, compiler runs,
+ * copy batches, archive entries, and manifest parsing). This is the Java 8 variant,
+ * which does nothing. On Java 11, or later, the variant from
+ * <code>META-INF/versions/11</code> is used instead, which emits JFR events.
+ */
+public final class BuildEvents {
+	/** An event with a duration, which ends, when the scope is closed.
+	 */
+	public interface Scope extends AutoCloseable {
+		/** Sets the operations status (for example, the compilers exit status).
+		 */
+		void setStatus(int pStatus);
+		@Override
+		void close();
+	}
+
+	private static final Scope NOOP = new Scope() {
+		@Override
+		public void setStatus(int pStatus) {
+			// Does nothing
+		}
+
+		@Override
+		public void close() {
+			// Does nothing
+		}
+	};
+
+	private BuildEvents() {}
+
+	/** Returns, whether JFR events are being emitted.
+	 */
+	public static boolean isAvailable() {
+		return false;
+	}
+
+	public static Scope packageBuild(String pPackageName) {
+		return NOOP;
+	}
+
+	public static Scope javac(String pPackageName, int pSourceFiles, int pClassPathElements) {
+		return NOOP;
+	}
+
+	public static Scope copyBatch(String pSourceDir, int pFiles, long pBytes) {
+		return NOOP;
+	}
+
+	public static Scope manifestParse(String pPackageName) {
+		return NOOP;
+	}
+
+	public static void archiveEntry(String pArchive, String pEntry, long pSize, long pCompressedSize, int pMethod) {
+		// Does nothing
+	}
+}
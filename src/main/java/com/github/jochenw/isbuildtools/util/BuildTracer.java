@@ -0,0 +1,203 @@
+package com.github.jochenw.isbuildtools.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+
+import com.github.jochenw.afw.core.inject.IComponentFactory;
+import com.github.jochenw.afw.core.log.ILog;
+import com.github.jochenw.afw.core.log.ILogFactory;
+import com.github.jochenw.afw.core.props.IPropertyFactory;
+
+
+/** Records a timeline of the build as a set of spans (package, stage, compiler run,
+ * and so on), each on the thread, which executed it. The timeline can be written in
+ * the Chrome trace event format, and opened in <code>chrome://tracing</code>, or
+ * <a href="https://ui.perfetto.dev">Perfetto</a>.
+ *
+ * Recording is enabled by the property <code>build.trace</code> (default: false). If
+ * it is disabled, {@link #span(String, String, String)} returns a shared no-op span.
+ */
+public class BuildTracer {
+	public static class Span implements AutoCloseable {
+		private final BuildTracer tracer;
+		private final String category, name;
+		private final long startNanos;
+		private final Thread thread;
+		private final long asyncId;
+		private List<String> args;
+
+		Span(BuildTracer pTracer, String pCategory, String pName, long pStartNanos, Thread pThread, long pAsyncId) {
+			tracer = pTracer;
+			category = pCategory;
+			name = pName;
+			startNanos = pStartNanos;
+			thread = pThread;
+			asyncId = pAsyncId;
+		}
+
+		/** Adds an argument, which is shown in the details of the span.
+		 */
+		public Span arg(String pKey, Object pValue) {
+			if (tracer != null) {
+				if (args == null) {
+					args = new ArrayList<>(4);
+				}
+				args.add(pKey);
+				args.add(String.valueOf(pValue));
+			}
+			return this;
+		}
+
+		@Override
+		public void close() {
+			if (tracer != null) {
+				tracer.add(this, System.nanoTime());
+			}
+		}
+	}
+
+	private static class Event {
+		private final Span span;
+		private final long endNanos;
+
+		Event(Span pSpan, long pEndNanos) {
+			span = pSpan;
+			endNanos = pEndNanos;
+		}
+	}
+
+	private static final Span NOOP = new Span(null, null, null, 0, null, 0);
+
+	private final ILog log;
+	private final boolean enabled;
+	private final long startNanos = System.nanoTime();
+	private final Queue<Event> events = new ConcurrentLinkedQueue<>();
+	private final Map<Long,String> threadNames = new ConcurrentHashMap<>();
+	private final AtomicLong asyncIds = new AtomicLong();
+
+	public @Inject BuildTracer(IComponentFactory pComponentFactory) {
+		log = pComponentFactory.requireInstance(ILogFactory.class).getLog(BuildTracer.class);
+		final IPropertyFactory propertyFactory = pComponentFactory.requireInstance(IPropertyFactory.class);
+		final String enabledStr = propertyFactory.getPropertyValue("build.trace");
+		enabled = enabledStr != null  &&  Boolean.parseBoolean(enabledStr.trim());
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/** Starts a span on the current thread. The span ends, when it is closed.
+	 * @param pCategory The spans category, for example "stage", or "compiler".
+	 * @param pName The spans name.
+	 * @param pPackageName The package, which is being built, or null.
+	 */
+	public Span span(String pCategory, String pName, String pPackageName) {
+		if (!enabled) {
+			return NOOP;
+		}
+		final Span span = new Span(this, pCategory, pName, System.nanoTime(), Thread.currentThread(), 0);
+		if (pPackageName != null) {
+			span.arg("package", pPackageName);
+		}
+		return span;
+	}
+
+	/** Starts a span, which isn't bound to a thread, and may be closed by another thread.
+	 * Used for the lifetime of a package, which passes several threads.
+	 */
+	public Span asyncSpan(String pCategory, String pName) {
+		if (!enabled) {
+			return NOOP;
+		}
+		return new Span(this, pCategory, pName, System.nanoTime(), Thread.currentThread(), asyncIds.incrementAndGet());
+	}
+
+	void add(Span pSpan, long pEndNanos) {
+		if (pSpan.asyncId == 0) {
+			threadNames.putIfAbsent(Long.valueOf(pSpan.thread.getId()), pSpan.thread.getName());
+		}
+		events.add(new Event(pSpan, pEndNanos));
+	}
+
+	/** Writes the recorded spans to the given file, in the Chrome trace event format.
+	 * Does nothing, if recording is disabled.
+	 */
+	public void write(Path pFile) {
+		if (!enabled) {
+			return;
+		}
+		final List<Event> list = new ArrayList<>(events);
+		final Path tempFile = AtomicFiles.getTempFile(pFile);
+		try {
+			final Path dir = pFile.getParent();
+			if (dir != null) {
+				Files.createDirectories(dir);
+			}
+			try (Writer w = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+				w.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+				w.write("\n{\"ph\":\"M\",\"pid\":1,\"tid\":0,\"name\":\"process_name\",\"args\":{\"name\":\"is-build-tools\"}}");
+				for (Map.Entry<Long,String> en : threadNames.entrySet()) {
+					w.write(",\n{\"ph\":\"M\",\"pid\":1,\"tid\":" + en.getKey() + ",\"name\":\"thread_name\",\"args\":{\"name\":");
+					Json.quote(w, en.getValue());
+					w.write("}}");
+				}
+				for (Event e : list) {
+					final Span span = e.span;
+					if (span.asyncId == 0) {
+						write(w, span, "\"ph\":\"X\",\"tid\":" + span.thread.getId()
+								+ ",\"ts\":" + micros(span.startNanos - startNanos)
+								+ ",\"dur\":" + micros(e.endNanos - span.startNanos));
+					} else {
+						write(w, span, "\"ph\":\"b\",\"tid\":0,\"id\":" + span.asyncId
+								+ ",\"ts\":" + micros(span.startNanos - startNanos));
+						write(w, span, "\"ph\":\"e\",\"tid\":0,\"id\":" + span.asyncId
+								+ ",\"ts\":" + micros(e.endNanos - startNanos));
+					}
+				}
+				w.write("\n]}\n");
+			}
+			AtomicFiles.publish(tempFile, pFile);
+		} catch (IOException e) {
+			AtomicFiles.deleteQuietly(tempFile);
+			throw new UncheckedIOException(e);
+		}
+		log.info("write", "Wrote " + list.size() + " trace events to " + pFile);
+	}
+
+	private void write(Writer pWriter, Span pSpan, String pFields) throws IOException {
+		pWriter.write(",\n{\"pid\":1," + pFields + ",\"cat\":");
+		Json.quote(pWriter, pSpan.category);
+		pWriter.write(",\"name\":");
+		Json.quote(pWriter, pSpan.name);
+		if (pSpan.args != null) {
+			pWriter.write(",\"args\":{");
+			for (int i = 0;  i < pSpan.args.size();  i += 2) {
+				if (i > 0) {
+					pWriter.write(',');
+				}
+				Json.quote(pWriter, pSpan.args.get(i));
+				pWriter.write(':');
+				Json.quote(pWriter, pSpan.args.get(i+1));
+			}
+			pWriter.write('}');
+		}
+		pWriter.write('}');
+	}
+
+	private static String micros(long pNanos) {
+		return String.valueOf(pNanos / 1000) + "." + String.format("%03d", Long.valueOf(pNanos % 1000));
+	}
+}
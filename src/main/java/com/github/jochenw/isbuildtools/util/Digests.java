@@ -0,0 +1,53 @@
+package com.github.jochenw.isbuildtools.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+/** Utility methods for computing SHA-256 digests.
+ */
+public class Digests {
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private Digests() {}
+
+	public static MessageDigest newSha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static String toHex(byte[] pBytes) {
+		final char[] chars = new char[pBytes.length*2];
+		for (int i = 0;  i < pBytes.length;  i++) {
+			final int b = pBytes[i] & 0xff;
+			chars[2*i] = HEX_DIGITS[b >> 4];
+			chars[2*i+1] = HEX_DIGITS[b & 0xf];
+		}
+		return new String(chars);
+	}
+
+	public static String sha256(Path pFile) {
+		final MessageDigest md = newSha256();
+		final byte[] buffer = new byte[65536];
+		try (InputStream in = Files.newInputStream(pFile)) {
+			for (;;) {
+				final int res = in.read(buffer);
+				if (res == -1) {
+					break;
+				}
+				md.update(buffer, 0, res);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return toHex(md.digest());
+	}
+}
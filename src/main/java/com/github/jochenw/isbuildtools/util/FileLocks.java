@@ -0,0 +1,132 @@
+package com.github.jochenw.isbuildtools.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+import com.github.jochenw.afw.core.log.ILog;
+
+
+/** Exclusive locks, which coordinate threads, and processes (for example, two builds
+ * sharing the same target directory). A lock is represented by a lock file, which is
+ * never deleted. Within the JVM, a semaphore per lock file is used in addition, because
+ * file locks are held on behalf of the whole JVM. The semaphore is discarded, when no
+ * thread holds, or waits for the lock anymore. Unlike a {@link java.util.concurrent.locks.ReentrantLock},
+ * a lock may be released by another thread, than the one, which acquired it.
+ */
+public final class FileLocks {
+	public static class Lock implements AutoCloseable {
+		private final Path file;
+		private final Entry entry;
+		private final FileChannel channel;
+		private final FileLock fileLock;
+		private boolean released;
+
+		Lock(Path pFile, Entry pEntry, FileChannel pChannel, FileLock pFileLock) {
+			file = pFile;
+			entry = pEntry;
+			channel = pChannel;
+			fileLock = pFileLock;
+		}
+
+		public Path getFile() { return file; }
+
+		@Override
+		public synchronized void close() {
+			if (!released) {
+				released = true;
+				try {
+					try {
+						fileLock.release();
+					} finally {
+						channel.close();
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				} finally {
+					release(file, entry);
+				}
+			}
+		}
+	}
+
+	private static class Entry {
+		private final Semaphore semaphore = new Semaphore(1);
+		/** Number of threads, which hold, or wait for the lock. Guarded by the maps compute methods. */
+		private int users;
+	}
+
+	private static final ConcurrentMap<Path,Entry> ENTRIES = new ConcurrentHashMap<>();
+
+	private FileLocks() {}
+
+	private static Entry register(Path pLockFile) {
+		return ENTRIES.compute(pLockFile, (p,e) -> {
+			final Entry entry = e == null ? new Entry() : e;
+			++entry.users;
+			return entry;
+		});
+	}
+
+	private static void release(Path pLockFile, Entry pEntry) {
+		pEntry.semaphore.release();
+		unregister(pLockFile);
+	}
+
+	private static void unregister(Path pLockFile) {
+		ENTRIES.compute(pLockFile, (p,e) -> --e.users == 0 ? null : e);
+	}
+
+	/** Acquires the lock, which is represented by the given lock file, waiting as long
+	 * as necessary.
+	 * @param pLockFile The lock file, which is created, if necessary.
+	 * @param pLog A logger for reporting, that the lock is held by another process, or null.
+	 */
+	public static Lock lock(Path pLockFile, ILog pLog) {
+		final Path lockFile = pLockFile.toAbsolutePath().normalize();
+		final Entry entry = register(lockFile);
+		try {
+			entry.semaphore.acquire();
+		} catch (InterruptedException e) {
+			unregister(lockFile);
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for lock " + lockFile);
+		}
+		FileChannel channel = null;
+		try {
+			final Path dir = lockFile.getParent();
+			if (dir != null) {
+				Files.createDirectories(dir);
+			}
+			channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			FileLock fileLock = channel.tryLock();
+			if (fileLock == null) {
+				if (pLog != null) {
+					pLog.info("lock", "Waiting for lock " + lockFile + ", which is held by another process.");
+				}
+				fileLock = channel.lock();
+			}
+			return new Lock(lockFile, entry, channel, fileLock);
+		} catch (IOException|RuntimeException e) {
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException e2) {
+					e.addSuppressed(e2);
+				}
+			}
+			release(lockFile, entry);
+			if (e instanceof IOException) {
+				throw new UncheckedIOException((IOException) e);
+			}
+			throw (RuntimeException) e;
+		}
+	}
+}
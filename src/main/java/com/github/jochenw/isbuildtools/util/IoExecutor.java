@@ -0,0 +1,85 @@
+package com.github.jochenw.isbuildtools.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.inject.Inject;
+
+import com.github.jochenw.afw.core.inject.IComponentFactory;
+import com.github.jochenw.afw.core.log.ILog;
+import com.github.jochenw.afw.core.log.ILogFactory;
+import com.github.jochenw.afw.core.props.IPropertyFactory;
+import com.github.jochenw.afw.core.util.Exceptions;
+
+
+/** Executor for massively parallel, small file operations (copying, stat calls,
+ * reading, and writing Markdown files). On Java 21, or later, virtual threads are used.
+ * On older JVMs, a bounded pool of platform threads is used, with the size given
+ * by the property <code>build.io.threads</code> (default: 4 * number of processors).
+ */
+public class IoExecutor {
+	private final ILog log;
+	private final int poolSize;
+	private ExecutorService executorService;
+
+	public @Inject IoExecutor(IComponentFactory pComponentFactory) {
+		log = pComponentFactory.requireInstance(ILogFactory.class).getLog(IoExecutor.class);
+		final IPropertyFactory propertyFactory = pComponentFactory.requireInstance(IPropertyFactory.class);
+		final String poolSizeStr = propertyFactory.getPropertyValue("build.io.threads");
+		if (poolSizeStr == null  ||  poolSizeStr.trim().length() == 0) {
+			poolSize = 4 * Runtime.getRuntime().availableProcessors();
+		} else {
+			try {
+				poolSize = Math.max(1, Integer.parseInt(poolSizeStr.trim()));
+			} catch (NumberFormatException e) {
+				throw new IllegalStateException("Invalid value for property build.io.threads: " + poolSizeStr);
+			}
+		}
+	}
+
+	public synchronized ExecutorService getExecutorService() {
+		if (executorService == null) {
+			log.debug("getExecutorService", "Creating I/O executor: " + IoThreads.getDescription(poolSize));
+			executorService = IoThreads.newExecutorService(poolSize);
+		}
+		return executorService;
+	}
+
+	/** Runs the given tasks concurrently, and waits for their termination. If a task fails,
+	 * then the remaining tasks are still waited for, and the first failure is rethrown.
+	 * Tasks must not invoke this method recursively.
+	 */
+	public void runAll(Collection<? extends Runnable> pTasks) {
+		if (pTasks.isEmpty()) {
+			return;
+		}
+		final ExecutorService es = getExecutorService();
+		final List<Future<?>> futures = new ArrayList<>(pTasks.size());
+		for (Runnable task : pTasks) {
+			futures.add(es.submit(task));
+		}
+		Throwable failure = null;
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					failure = e.getCause() == null ? e : e.getCause();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				for (Future<?> f : futures) {
+					f.cancel(true);
+				}
+				throw Exceptions.show(e);
+			}
+		}
+		if (failure != null) {
+			throw Exceptions.show(failure);
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package com.github.jochenw.isbuildtools.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/** Creates the executor for file I/O. This is the Java 8 variant, which uses a bounded
+ * pool of platform threads. On Java 21, or later, the variant from
+ * <code>META-INF/versions/21</code> is used instead, which uses virtual threads.
+ */
+final class IoThreads {
+	private IoThreads() {}
+
+	static ExecutorService newExecutorService(int pPoolSize) {
+		final AtomicInteger counter = new AtomicInteger();
+		final ThreadPoolExecutor tpe = new ThreadPoolExecutor(pPoolSize, pPoolSize, 30, TimeUnit.SECONDS,
+				                                              new LinkedBlockingQueue<Runnable>(), (r) -> {
+			final Thread t = new Thread(r, "is-build-tools-io-" + counter.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		tpe.allowCoreThreadTimeOut(true);
+		return tpe;
+	}
+
+	static String getDescription(int pPoolSize) {
+		return "platform thread pool, size=" + pPoolSize;
+	}
+}
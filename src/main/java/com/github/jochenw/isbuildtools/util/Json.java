@@ -0,0 +1,48 @@
+package com.github.jochenw.isbuildtools.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+
+/** Minimal helper for writing JSON documents, without depending on a JSON library.
+ */
+public class Json {
+	private Json() {}
+
+	public static String quote(String pValue) {
+		final StringBuilder sb = new StringBuilder();
+		quote(sb, pValue);
+		return sb.toString();
+	}
+
+	public static void quote(Appendable pAppendable, String pValue) {
+		try {
+			if (pValue == null) {
+				pAppendable.append("null");
+				return;
+			}
+			pAppendable.append('"');
+			for (int i = 0;  i < pValue.length();  i++) {
+				final char c = pValue.charAt(i);
+				switch (c) {
+				  case '"': pAppendable.append("\\\""); break;
+				  case '\\': pAppendable.append("\\\\"); break;
+				  case '\n': pAppendable.append("\\n"); break;
+				  case '\r': pAppendable.append("\\r"); break;
+				  case '\t': pAppendable.append("\\t"); break;
+				  case '\b': pAppendable.append("\\b"); break;
+				  case '\f': pAppendable.append("\\f"); break;
+				  default:
+					if (c < 0x20) {
+						pAppendable.append(String.format("\\u%04x", Integer.valueOf(c)));
+					} else {
+						pAppendable.append(c);
+					}
+				}
+			}
+			pAppendable.append('"');
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,514 @@
+package com.github.jochenw.isbuildtools.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import com.github.jochenw.afw.core.props.IPropertyFactory;
+
+
+/** A compiled set of include, and exclude patterns for relative paths, like
+ * <code>code/source/a/A.java</code>. Patterns are Ant style: <code>**</code> matches
+ * any number of directories, <code>*</code>, and <code>?</code> match within a single
+ * name, and so do the glob constructs <code>[abc]</code>, and <code>{a,b}</code>. A
+ * pattern with a trailing "/" is a shorthand for "/**".
+ *
+ * A path is included, if it matches an include pattern (or there are no include
+ * patterns), and neither the path, nor one of its parent directories matches an
+ * exclude pattern. So, an excluded directory is skipped with everything below.
+ *
+ * All patterns are compiled into a trie of path names, which is evaluated as a lazily
+ * built, deterministic automaton. Walkers should use {@link #root()}, and
+ * {@link State#enter(String)} for every directory level, so that matching a directory
+ * entry costs a single (usually cached) transition, and excluded subtrees are pruned
+ * without looking at their contents.
+ */
+public class PathFilter implements Predicate<String> {
+	/** The filter, which includes everything.
+	 */
+	public static final PathFilter ALL = new PathFilter(Collections.emptyList(), Collections.emptyList());
+
+	private static final int MAX_CACHED_TRANSITIONS = 512;
+
+	private static class Edge {
+		private final String glob;
+		private final Pattern pattern;
+		private final Node target;
+
+		Edge(String pGlob, Node pTarget) {
+			glob = pGlob;
+			pattern = Pattern.compile(toRegex(pGlob));
+			target = pTarget;
+		}
+	}
+
+	/** Wildcard edges of the form <code>*suffix</code>, or <code>prefix*</code>, indexed by
+	 * the literal part, so that matching a name costs one lookup per distinct length.
+	 */
+	private static class AffixIndex {
+		private final boolean suffixes;
+		private final Map<String,List<Node>> nodes = new HashMap<>();
+		private int[] lengths = new int[0];
+
+		AffixIndex(boolean pSuffixes) {
+			suffixes = pSuffixes;
+		}
+
+		Node get(String pAffix) {
+			final List<Node> list = nodes.get(pAffix);
+			return list == null ? null : list.get(0);
+		}
+
+		void add(String pAffix, Node pNode) {
+			nodes.computeIfAbsent(pAffix, (k) -> new ArrayList<>()).add(pNode);
+			for (int l : lengths) {
+				if (l == pAffix.length()) {
+					return;
+				}
+			}
+			lengths = Arrays.copyOf(lengths, lengths.length+1);
+			lengths[lengths.length-1] = pAffix.length();
+		}
+
+		void collect(String pName, Set<Node> pTargets) {
+			for (int l : lengths) {
+				if (l <= pName.length()) {
+					final String affix = suffixes ? pName.substring(pName.length()-l) : pName.substring(0, l);
+					final List<Node> list = nodes.get(affix);
+					if (list != null) {
+						pTargets.addAll(list);
+					}
+				}
+			}
+		}
+	}
+
+	private static class Node {
+		private final int id;
+		private final boolean anyDepth;
+		private final Map<String,Node> literals = new HashMap<>();
+		private final AffixIndex suffixes = new AffixIndex(true);
+		private final AffixIndex prefixes = new AffixIndex(false);
+		private final List<Edge> wildcards = new ArrayList<>();
+		private Node anyDepthChild;
+		private boolean terminal;
+
+		Node(int pId, boolean pAnyDepth) {
+			id = pId;
+			anyDepth = pAnyDepth;
+		}
+	}
+
+	/** The automaton of a single pattern set. Its states are sets of trie nodes, which are
+	 * created, and interned on demand.
+	 */
+	private static class Automaton {
+		private final Node root;
+		private final Map<String,DState> states = new ConcurrentHashMap<>();
+		private final AtomicInteger stateIds = new AtomicInteger();
+		private final DState start;
+		private int numberOfNodes;
+
+		Automaton(Collection<String> pPatterns) {
+			root = new Node(numberOfNodes++, false);
+			for (String pattern : pPatterns) {
+				add(pattern);
+			}
+			final Set<Node> set = new LinkedHashSet<>();
+			set.add(root);
+			start = state(set);
+		}
+
+		private void add(String pPattern) {
+			Node node = root;
+			for (String segment : pPattern.split("/")) {
+				if ("**".equals(segment)) {
+					if (!node.anyDepth) {
+						if (node.anyDepthChild == null) {
+							node.anyDepthChild = new Node(numberOfNodes++, true);
+						}
+						node = node.anyDepthChild;
+					}
+				} else if (isLiteral(segment)) {
+					Node child = node.literals.get(segment);
+					if (child == null) {
+						child = new Node(numberOfNodes++, false);
+						node.literals.put(segment, child);
+					}
+					node = child;
+				} else if (segment.startsWith("*")  &&  isLiteral(segment.substring(1))) {
+					Node child = node.suffixes.get(segment.substring(1));
+					if (child == null) {
+						child = new Node(numberOfNodes++, false);
+						node.suffixes.add(segment.substring(1), child);
+					}
+					node = child;
+				} else if (segment.endsWith("*")  &&  isLiteral(segment.substring(0, segment.length()-1))) {
+					Node child = node.prefixes.get(segment.substring(0, segment.length()-1));
+					if (child == null) {
+						child = new Node(numberOfNodes++, false);
+						node.prefixes.add(segment.substring(0, segment.length()-1), child);
+					}
+					node = child;
+				} else {
+					Node child = null;
+					for (Edge edge : node.wildcards) {
+						if (edge.glob.equals(segment)) {
+							child = edge.target;
+							break;
+						}
+					}
+					if (child == null) {
+						child = new Node(numberOfNodes++, false);
+						node.wildcards.add(new Edge(segment, child));
+					}
+					node = child;
+				}
+			}
+			node.terminal = true;
+		}
+
+		/** Returns the interned state for the given set of nodes, after adding the
+		 * "**" nodes, which are reachable without consuming a name.
+		 */
+		private DState state(Set<Node> pNodes) {
+			final List<Node> nodes = new ArrayList<>(pNodes);
+			for (int i = 0;  i < nodes.size();  i++) {
+				final Node anyDepthChild = nodes.get(i).anyDepthChild;
+				if (anyDepthChild != null  &&  !nodes.contains(anyDepthChild)) {
+					nodes.add(anyDepthChild);
+				}
+			}
+			nodes.sort((n1, n2) -> Integer.compare(n1.id, n2.id));
+			final StringBuilder sb = new StringBuilder();
+			for (Node n : nodes) {
+				sb.append(n.id).append(',');
+			}
+			return states.computeIfAbsent(sb.toString(), (k) -> new DState(this, stateIds.incrementAndGet(), nodes.toArray(new Node[nodes.size()])));
+		}
+	}
+
+	private static class DState {
+		private final Automaton automaton;
+		private final int id;
+		private final Node[] nodes;
+		private final boolean accepting, acceptingAll;
+		private final Map<String,DState> transitions = new ConcurrentHashMap<>();
+
+		DState(Automaton pAutomaton, int pId, Node[] pNodes) {
+			automaton = pAutomaton;
+			id = pId;
+			nodes = pNodes;
+			boolean acc = false, accAll = false;
+			for (Node n : nodes) {
+				acc |= n.terminal;
+				accAll |= n.terminal  &&  n.anyDepth;
+			}
+			accepting = acc;
+			acceptingAll = accAll;
+		}
+
+		boolean isDead() {
+			return nodes.length == 0;
+		}
+
+		DState next(String pName) {
+			if (isDead()) {
+				return this;
+			}
+			final DState cached = transitions.get(pName);
+			if (cached != null) {
+				return cached;
+			}
+			final Set<Node> set = new LinkedHashSet<>();
+			for (Node n : nodes) {
+				if (n.anyDepth) {
+					set.add(n);
+				}
+				final Node literal = n.literals.get(pName);
+				if (literal != null) {
+					set.add(literal);
+				}
+				n.suffixes.collect(pName, set);
+				n.prefixes.collect(pName, set);
+				for (Edge edge : n.wildcards) {
+					if (edge.pattern.matcher(pName).matches()) {
+						set.add(edge.target);
+					}
+				}
+			}
+			final DState next = automaton.state(set);
+			if (transitions.size() < MAX_CACHED_TRANSITIONS) {
+				transitions.put(pName, next);
+			}
+			return next;
+		}
+	}
+
+	/** The state of a walk after entering a path. States are immutable, and shared.
+	 */
+	public final class State {
+		private final DState includes, excludes;
+		private final boolean excluded;
+		private final Map<String,State> transitions = new ConcurrentHashMap<>();
+
+		State(DState pIncludes, DState pExcludes, boolean pExcluded) {
+			includes = pIncludes;
+			excludes = pExcludes;
+			excluded = pExcluded;
+		}
+
+		/** Returns the state for the given name (file, or directory) below this one.
+		 */
+		public State enter(String pName) {
+			final State cached = transitions.get(pName);
+			if (cached != null) {
+				return cached;
+			}
+			final DState inc = includes == null ? null : includes.next(pName);
+			final DState exc = excludes == null ? null : excludes.next(pName);
+			final State next = state(inc, exc, excluded  ||  (exc != null  &&  exc.accepting));
+			if (transitions.size() < MAX_CACHED_TRANSITIONS) {
+				transitions.put(pName, next);
+			}
+			return next;
+		}
+
+		/** Returns, whether the path itself is included.
+		 */
+		public boolean isIncluded() {
+			return !excluded  &&  (includes == null  ||  includes.accepting);
+		}
+
+		/** Returns, whether the path, or one of its parent directories is excluded.
+		 */
+		public boolean isExcluded() {
+			return excluded;
+		}
+
+		/** Returns, whether nothing below this path can be included, so that a directory
+		 * can be skipped.
+		 */
+		public boolean isPruned() {
+			return excluded  ||  (includes != null  &&  includes.isDead())
+					||  (excludes != null  &&  excludes.acceptingAll);
+		}
+	}
+
+	private final List<String> includePatterns, excludePatterns;
+	private final Automaton includes, excludes;
+	private final Map<String,State> states = new ConcurrentHashMap<>();
+	private final State root;
+
+	public PathFilter(Collection<String> pIncludes, Collection<String> pExcludes) {
+		includePatterns = normalize(pIncludes);
+		excludePatterns = normalize(pExcludes);
+		includes = includePatterns.isEmpty() ? null : new Automaton(includePatterns);
+		excludes = excludePatterns.isEmpty() ? null : new Automaton(excludePatterns);
+		root = state(includes == null ? null : includes.start, excludes == null ? null : excludes.start, false);
+	}
+
+	/** Creates a filter, which excludes the given patterns.
+	 */
+	public static PathFilter excluding(String... pExcludes) {
+		return new PathFilter(Collections.emptyList(), Arrays.asList(pExcludes));
+	}
+
+	/** Creates a filter from the properties <code>&lt;prefix&gt;.includes</code>, and
+	 * <code>&lt;prefix&gt;.excludes</code> (comma separated lists of patterns).
+	 * @param pPropertyFactory The property factory, which is being queried.
+	 * @param pPrefix The property prefix.
+	 * @param pDefaultExcludes Comma separated list of exclude patterns, which are used,
+	 *   if the excludes property isn't set, or null.
+	 * @param pFixedExcludes Exclude patterns, which are always added.
+	 */
+	public static PathFilter of(IPropertyFactory pPropertyFactory, String pPrefix, String pDefaultExcludes,
+			                    String... pFixedExcludes) {
+		final List<String> includes = split(pPropertyFactory.getPropertyValue(pPrefix + ".includes"));
+		final String excludesStr = pPropertyFactory.getPropertyValue(pPrefix + ".excludes");
+		final List<String> excludes = split(excludesStr == null ? pDefaultExcludes : excludesStr);
+		excludes.addAll(Arrays.asList(pFixedExcludes));
+		if (includes.isEmpty()  &&  excludes.isEmpty()) {
+			return ALL;
+		}
+		return new PathFilter(includes, excludes);
+	}
+
+	/** Splits a comma separated list of patterns. Commas within a <code>{a,b}</code>
+	 * group are retained.
+	 */
+	public static List<String> split(String pValue) {
+		final List<String> list = new ArrayList<>();
+		if (pValue != null) {
+			int depth = 0;
+			int start = 0;
+			for (int i = 0;  i <= pValue.length();  i++) {
+				final char c = i == pValue.length() ? ',' : pValue.charAt(i);
+				if (c == '{') {
+					depth++;
+				} else if (c == '}'  &&  depth > 0) {
+					depth--;
+				} else if (c == ','  &&  (depth == 0  ||  i == pValue.length())) {
+					final String s = pValue.substring(start, i).trim();
+					if (s.length() > 0) {
+						list.add(s);
+					}
+					start = i+1;
+				}
+			}
+		}
+		return list;
+	}
+
+	public List<String> getIncludes() { return includePatterns; }
+	public List<String> getExcludes() { return excludePatterns; }
+
+	/** Returns, whether this filter includes everything.
+	 */
+	public boolean isAll() {
+		return includes == null  &&  excludes == null;
+	}
+
+	/** Returns the state of the walks root directory.
+	 */
+	public State root() {
+		return root;
+	}
+
+	/** Returns, whether the given relative path ("/" separated) is included.
+	 */
+	@Override
+	public boolean test(String pPath) {
+		State state = root;
+		int offset = 0;
+		final int len = pPath.length();
+		while (offset < len) {
+			int end = pPath.indexOf('/', offset);
+			if (end == -1) {
+				end = len;
+			}
+			if (end > offset) {
+				state = state.enter(pPath.substring(offset, end));
+				if (state.isExcluded()) {
+					return false;
+				}
+			}
+			offset = end+1;
+		}
+		return state.isIncluded();
+	}
+
+	private State state(DState pIncludes, DState pExcludes, boolean pExcluded) {
+		final String key = (pIncludes == null ? 0 : pIncludes.id) + ":" + (pExcludes == null ? 0 : pExcludes.id) + ":" + pExcluded;
+		return states.computeIfAbsent(key, (k) -> new State(pIncludes, pExcludes, pExcluded));
+	}
+
+	private static List<String> normalize(Collection<String> pPatterns) {
+		final Set<String> set = new LinkedHashSet<>();
+		for (String pattern : pPatterns) {
+			String p = pattern.trim().replace('\\', '/');
+			while (p.startsWith("./")) {
+				p = p.substring(2);
+			}
+			while (p.startsWith("/")) {
+				p = p.substring(1);
+			}
+			if (p.endsWith("/")) {
+				p = p + "**";
+			}
+			final StringBuilder sb = new StringBuilder();
+			for (String segment : p.split("/")) {
+				if (segment.length() == 0  ||  ("**".equals(segment)  &&  sb.toString().endsWith("**/"))) {
+					continue;
+				}
+				sb.append(segment).append('/');
+			}
+			if (sb.length() > 0) {
+				sb.setLength(sb.length()-1);
+				set.add(sb.toString());
+			}
+		}
+		return Collections.unmodifiableList(new ArrayList<>(set));
+	}
+
+	private static boolean isLiteral(String pSegment) {
+		for (int i = 0;  i < pSegment.length();  i++) {
+			switch (pSegment.charAt(i)) {
+			case '*': case '?': case '[': case '{':
+				return false;
+			default:
+				break;
+			}
+		}
+		return true;
+	}
+
+	/** Converts a glob for a single name into a regular expression.
+	 */
+	static String toRegex(String pGlob) {
+		final StringBuilder sb = new StringBuilder();
+		boolean inGroup = false;
+		for (int i = 0;  i < pGlob.length();  i++) {
+			final char c = pGlob.charAt(i);
+			switch (c) {
+			case '*':
+				sb.append("[^/]*");
+				break;
+			case '?':
+				sb.append("[^/]");
+				break;
+			case '[':
+				final int end = pGlob.indexOf(']', i+2);
+				if (end == -1) {
+					sb.append("\\[");
+				} else {
+					String set = pGlob.substring(i+1, end);
+					if (set.startsWith("!")) {
+						set = "^" + set.substring(1);
+					}
+					sb.append('[').append(set.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+					i = end;
+				}
+				break;
+			case '{':
+				if (inGroup) {
+					sb.append("\\{");
+				} else {
+					sb.append("(?:");
+					inGroup = true;
+				}
+				break;
+			case '}':
+				if (inGroup) {
+					sb.append(')');
+					inGroup = false;
+				} else {
+					sb.append("\\}");
+				}
+				break;
+			case ',':
+				sb.append(inGroup ? "|" : ",");
+				break;
+			default:
+				if ("\\.^$|+()".indexOf(c) != -1) {
+					sb.append('\\');
+				}
+				sb.append(c);
+			}
+		}
+		if (inGroup) {
+			throw new IllegalArgumentException("Unterminated group in pattern: " + pGlob);
+		}
+		return sb.toString();
+	}
+}
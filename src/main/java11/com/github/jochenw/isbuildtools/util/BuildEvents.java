@@ -0,0 +1,161 @@
+package com.github.jochenw.isbuildtools.util;
+
+import java.util.zip.ZipEntry;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/** Emits Java Flight Recorder events for the build (package builds, compiler runs,
+ * copy batches, archive entries, and manifest parsing). This is the Java 11 variant.
+ * The events are in the category "IS Build Tools". They cost next to nothing, unless
+ * a recording is running, for example with
+ * <code>-XX:StartFlightRecording=filename=build.jfr</code>.
+ */
+public final class BuildEvents {
+	/** An event with a duration, which ends, when the scope is closed.
+	 */
+	public interface Scope extends AutoCloseable {
+		/** Sets the operations status (for example, the compilers exit status).
+		 */
+		void setStatus(int pStatus);
+		@Override
+		void close();
+	}
+
+	@Category("IS Build Tools")
+	@StackTrace(false)
+	abstract static class ScopeEvent extends Event implements Scope {
+		@Override
+		public void setStatus(int pStatus) {
+			// Ignored by default
+		}
+
+		@Override
+		public void close() {
+			commit();
+		}
+	}
+
+	@Name("isbuildtools.PackageBuild")
+	@Label("Package Build")
+	@Description("A package passing through the build pipeline")
+	static class PackageBuildEvent extends ScopeEvent {
+		@Label("Package")
+		String packageName;
+	}
+
+	@Name("isbuildtools.Javac")
+	@Label("Compiler Run")
+	static class JavacEvent extends ScopeEvent {
+		@Label("Package")
+		String packageName;
+		@Label("Source Files")
+		int sourceFiles;
+		@Label("Class Path Elements")
+		int classPathElements;
+		@Label("Status")
+		int status;
+
+		@Override
+		public void setStatus(int pStatus) {
+			status = pStatus;
+		}
+	}
+
+	@Name("isbuildtools.CopyBatch")
+	@Label("Copy Batch")
+	@Description("Files, which are copied concurrently from one directory tree")
+	static class CopyBatchEvent extends ScopeEvent {
+		@Label("Source Directory")
+		String sourceDir;
+		@Label("Files")
+		int files;
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+	}
+
+	@Name("isbuildtools.ManifestParse")
+	@Label("Manifest Parse")
+	static class ManifestParseEvent extends ScopeEvent {
+		@Label("Package")
+		String packageName;
+	}
+
+	@Name("isbuildtools.ArchiveEntry")
+	@Label("Archive Entry")
+	@Category("IS Build Tools")
+	@StackTrace(false)
+	static class ArchiveEntryEvent extends Event {
+		@Label("Archive")
+		String archive;
+		@Label("Entry")
+		String entry;
+		@Label("Size")
+		@DataAmount
+		long size;
+		@Label("Compressed Size")
+		@DataAmount
+		long compressedSize;
+		@Label("Method")
+		String method;
+	}
+
+	private BuildEvents() {}
+
+	/** Returns, whether JFR events are being emitted.
+	 */
+	public static boolean isAvailable() {
+		return true;
+	}
+
+	public static Scope packageBuild(String pPackageName) {
+		final PackageBuildEvent event = new PackageBuildEvent();
+		event.packageName = pPackageName;
+		event.begin();
+		return event;
+	}
+
+	public static Scope javac(String pPackageName, int pSourceFiles, int pClassPathElements) {
+		final JavacEvent event = new JavacEvent();
+		event.packageName = pPackageName;
+		event.sourceFiles = pSourceFiles;
+		event.classPathElements = pClassPathElements;
+		event.begin();
+		return event;
+	}
+
+	public static Scope copyBatch(String pSourceDir, int pFiles, long pBytes) {
+		final CopyBatchEvent event = new CopyBatchEvent();
+		event.sourceDir = pSourceDir;
+		event.files = pFiles;
+		event.bytes = pBytes;
+		event.begin();
+		return event;
+	}
+
+	public static Scope manifestParse(String pPackageName) {
+		final ManifestParseEvent event = new ManifestParseEvent();
+		event.packageName = pPackageName;
+		event.begin();
+		return event;
+	}
+
+	public static void archiveEntry(String pArchive, String pEntry, long pSize, long pCompressedSize, int pMethod) {
+		final ArchiveEntryEvent event = new ArchiveEntryEvent();
+		if (event.isEnabled()) {
+			event.archive = pArchive;
+			event.entry = pEntry;
+			event.size = pSize;
+			event.compressedSize = pCompressedSize;
+			event.method = pMethod == ZipEntry.STORED ? "STORED" : "DEFLATED";
+			event.commit();
+		}
+	}
+}
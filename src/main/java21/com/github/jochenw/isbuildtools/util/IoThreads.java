@@ -0,0 +1,20 @@
+package com.github.jochenw.isbuildtools.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/** Creates the executor for file I/O. This is the Java 21 variant, which uses a
+ * virtual thread per task. The pool size is ignored.
+ */
+final class IoThreads {
+	private IoThreads() {}
+
+	static ExecutorService newExecutorService(int pPoolSize) {
+		return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("is-build-tools-io-", 1).factory());
+	}
+
+	static String getDescription(int pPoolSize) {
+		return "virtual threads";
+	}
+}
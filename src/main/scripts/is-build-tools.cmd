@@ -0,0 +1,20 @@
+@echo off
+rem
+rem Launcher for the IS Build Tools. Expects the file is-build-tools.jar, and the
+rem directory lib (containing the dependencies) in the same directory as this script.
+rem The class path can be overridden by setting IS_BUILD_TOOLS_CLASSPATH.
+rem
+rem If an AppCDS archive (is-build-tools.jsa) is present in the same directory, then
+rem it is used to speed up the start-up. To create the archive, run this script with
+rem "-action cdsTraining" (requires Java 13, or later). The archive must be recreated
+rem after updating the JVM, or the jar files.
+rem
+setlocal
+set DIR=%~dp0
+if "%IS_BUILD_TOOLS_CLASSPATH%" == "" set IS_BUILD_TOOLS_CLASSPATH=%DIR%is-build-tools.jar;%DIR%lib\*
+set JAVA=java
+if not "%JAVA_HOME%" == "" set JAVA=%JAVA_HOME%\bin\java
+set CDS_OPTS=
+if exist "%DIR%is-build-tools.jsa" set CDS_OPTS=-XX:SharedArchiveFile="%DIR%is-build-tools.jsa" -Xshare:auto
+"%JAVA%" %CDS_OPTS% %JAVA_OPTS% -cp "%IS_BUILD_TOOLS_CLASSPATH%" com.github.jochenw.isbuildtools.cli.Main %*
+endlocal
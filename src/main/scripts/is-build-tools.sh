@@ -0,0 +1,26 @@
+#!/bin/sh
+#
+# Launcher for the IS Build Tools. Expects the file is-build-tools.jar, and the
+# directory lib (containing the dependencies) in the same directory as this script.
+# The class path can be overridden by setting IS_BUILD_TOOLS_CLASSPATH.
+#
+# If an AppCDS archive (is-build-tools.jsa) is present in the same directory, then
+# it is used to speed up the start-up. To create the archive, run this script with
+# "-action cdsTraining" (requires Java 13, or later). The archive must be recreated
+# after updating the JVM, or the jar files.
+#
+DIR=`dirname "$0"`
+DIR=`cd "$DIR" && pwd`
+if [ -z "$IS_BUILD_TOOLS_CLASSPATH" ]; then
+  IS_BUILD_TOOLS_CLASSPATH="$DIR/is-build-tools.jar:$DIR/lib/*"
+fi
+if [ -n "$JAVA_HOME" ]; then
+  JAVA="$JAVA_HOME/bin/java"
+else
+  JAVA=java
+fi
+CDS_OPTS=
+if [ -f "$DIR/is-build-tools.jsa" ]; then
+  CDS_OPTS="-XX:SharedArchiveFile=$DIR/is-build-tools.jsa -Xshare:auto"
+fi
+exec "$JAVA" $CDS_OPTS $JAVA_OPTS -cp "$IS_BUILD_TOOLS_CLASSPATH" com.github.jochenw.isbuildtools.cli.Main "$@"
@@ -0,0 +1,165 @@
+package com.github.jochenw.isbuildtools.actions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.jochenw.afw.core.components.Application;
+import com.github.jochenw.afw.core.inject.IComponentFactory;
+import com.github.jochenw.afw.core.log.ILog.Level;
+import com.github.jochenw.afw.core.log.simple.SimpleLogFactory;
+import com.github.jochenw.afw.core.props.DefaultPropertyFactory;
+import com.github.jochenw.isbuildtools.compile.PackageFileCreator;
+import com.github.jochenw.isbuildtools.compile.PackageFileIndex;
+import com.github.jochenw.isbuildtools.compile.PackageFileVerifier;
+
+
+/** Test for the round trip of a package archive through {@link PackageFileCreator#createPatch(Path, Path)},
+ * and the {@link ApplyPatchAction}.
+ */
+public class ApplyPatchActionTest {
+	public @Rule TemporaryFolder tempDir = new TemporaryFolder();
+	private Path root, baselineArchive, archive;
+
+	private IComponentFactory newComponentFactory(String... pProperties) {
+		final Properties props = new Properties();
+		for (int i = 0;  i < pProperties.length;  i += 2) {
+			props.setProperty(pProperties[i], pProperties[i+1]);
+		}
+		final Application app = new Application((b) -> {
+			Action.MODULE.configure(b);
+			b.bind(Path.class, "wm.home.dir").toInstance(root.resolve("wm"));
+			b.bind(Path.class, "project.dir").toInstance(root.resolve("project"));
+			b.bind(Path.class, "build.dir").toInstance(root.resolve("target"));
+		}, () -> SimpleLogFactory.of((Path) null, Level.WARN), () -> new DefaultPropertyFactory(props));
+		return app.getComponentFactory();
+	}
+
+	private void write(Path pFile, String pContent) throws IOException {
+		Files.createDirectories(pFile.getParent());
+		Files.write(pFile, pContent.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private List<String> getEntryNames(Path pArchive) throws IOException {
+		final List<String> names = new ArrayList<>();
+		try (ZipFile zf = new ZipFile(pArchive.toFile())) {
+			for (Enumeration<? extends ZipEntry> en = zf.entries();  en.hasMoreElements();  ) {
+				names.add(en.nextElement().getName());
+			}
+		}
+		Collections.sort(names);
+		return names;
+	}
+
+	@Before
+	public void createArchives() throws Exception {
+		root = tempDir.getRoot().toPath();
+		final Path v1 = root.resolve("v1/PkgA");
+		write(v1.resolve("manifest.v3"), "<Values version=\"2.0\"></Values>");
+		write(v1.resolve("ns/a/svc/node.ndf"), "version one");
+		write(v1.resolve("ns/a/old/node.ndf"), "deleted in version two");
+		write(v1.resolve("code/source/a/A.java"), "package a; public class A {}");
+		final Path v2 = root.resolve("v2/PkgA");
+		write(v2.resolve("manifest.v3"), "<Values version=\"2.0\"></Values>");
+		write(v2.resolve("ns/a/svc/node.ndf"), "version two, which is longer");
+		write(v2.resolve("ns/a/new/node.ndf"), "added in version two");
+		write(v2.resolve("code/source/a/A.java"), "package a; public class A {}");
+		final PackageFileCreator creator = newComponentFactory().requireInstance(PackageFileCreator.class);
+		creator.createArchive(v1, root.resolve("baseline"));
+		creator.createArchive(v2, root.resolve("dist"));
+		baselineArchive = root.resolve("baseline/PkgA.zip");
+		archive = root.resolve("dist/PkgA.zip");
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		final IComponentFactory cf = newComponentFactory();
+		final Path patch = cf.requireInstance(PackageFileCreator.class).createPatch(archive, baselineArchive);
+		assertEquals(root.resolve("dist/patches/PkgA.patch.zip"), patch);
+		// The patch contains the changed, and added entries only, and the deletions.
+		final List<String> patchEntries = getEntryNames(patch);
+		assertTrue(patchEntries.toString(), patchEntries.contains("ns/a/svc/node.ndf"));
+		assertTrue(patchEntries.toString(), patchEntries.contains("ns/a/new/node.ndf"));
+		assertFalse(patchEntries.toString(), patchEntries.contains("code/source/a/A.java"));
+		assertFalse(patchEntries.toString(), patchEntries.contains("manifest.v3"));
+
+		final Path target = root.resolve("deploy/PkgA.zip");
+		newComponentFactory("patch.baseline", baselineArchive.toString(), "patch.file", patch.toString(),
+				            "patch.target", target.toString()).requireInstance(Action.class, "applyPatch").run();
+		assertEquals(getEntryNames(archive), getEntryNames(target));
+		assertFalse(getEntryNames(target).contains("ns/a/old/node.ndf"));
+		assertTrue(Files.isRegularFile(PackageFileIndex.getEntriesFile(target)));
+		assertEquals(Collections.emptyList(), cf.requireInstance(PackageFileVerifier.class).verify(target, null));
+
+		// Without patch.target, the original archives name is used, next to the patch.
+		newComponentFactory("patch.baseline", baselineArchive.toString(), "patch.file", patch.toString())
+			.requireInstance(Action.class, "applyPatch").run();
+		final Path defaultTarget = root.resolve("dist/patches/PkgA.zip");
+		assertEquals(Collections.emptyList(), cf.requireInstance(PackageFileVerifier.class).verify(defaultTarget, null));
+	}
+
+	@Test
+	public void testWrongBaselineIsRejected() throws Exception {
+		final IComponentFactory cf = newComponentFactory();
+		final Path patch = cf.requireInstance(PackageFileCreator.class).createPatch(archive, baselineArchive);
+		final Path target = root.resolve("deploy/PkgA.zip");
+		try {
+			// The new archive isn't the baseline, for which the patch has been created.
+			newComponentFactory("patch.baseline", archive.toString(), "patch.file", patch.toString(),
+					            "patch.target", target.toString()).requireInstance(Action.class, "applyPatch").run();
+			fail("Expected IllegalStateException");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("doesn't match"));
+		}
+		assertFalse(Files.exists(target));
+	}
+
+	@Test
+	public void testTargetNameOutsideThePatchDirectoryIsRejected() throws Exception {
+		for (String targetName : new String[] {"../evil.zip", "sub/evil.zip", "sub\\evil.zip", null}) {
+			final Path patch = root.resolve("patches/evil.patch.zip");
+			Files.createDirectories(patch.getParent());
+			try (OutputStream os = Files.newOutputStream(patch);
+				 ZipOutputStream zos = new ZipOutputStream(os)) {
+				zos.putNextEntry(new ZipEntry(PackageFileCreator.PATCH_DELETIONS));
+				zos.closeEntry();
+				final Properties props = new Properties();
+				if (targetName != null) {
+					props.setProperty("target", targetName);
+				}
+				zos.putNextEntry(new ZipEntry(PackageFileCreator.PATCH_PROPERTIES));
+				props.store(zos, null);
+				zos.closeEntry();
+			}
+			try {
+				newComponentFactory("patch.baseline", baselineArchive.toString(), "patch.file", patch.toString())
+					.requireInstance(Action.class, "applyPatch").run();
+				fail("Expected IllegalStateException for " + targetName);
+			} catch (IllegalStateException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains(targetName == null ? "doesn't specify a target name" : "Invalid target name"));
+			}
+			assertFalse(Files.exists(root.resolve("evil.zip")));
+			assertFalse(Files.exists(root.resolve("patches/sub")));
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package com.github.jochenw.isbuildtools.actions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.github.jochenw.afw.core.components.Application;
+import com.github.jochenw.afw.core.inject.IComponentFactory;
+import com.github.jochenw.afw.core.log.ILog.Level;
+import com.github.jochenw.afw.core.log.ILogFactory;
+import com.github.jochenw.afw.core.log.simple.SimpleLogFactory;
+import com.github.jochenw.afw.core.props.DefaultPropertyFactory;
+import com.github.jochenw.afw.core.props.IPropertyFactory;
+
+
+/** Test for the {@link BuildPipeline}.
+ */
+public class BuildPipelineTest {
+	private static final List<String> ITEMS = Arrays.asList("a", "b", "c", "d", "e");
+
+	private BuildPipeline<String> newPipeline(String... pProperties) {
+		final Properties props = new Properties();
+		for (int i = 0;  i < pProperties.length;  i += 2) {
+			props.setProperty(pProperties[i], pProperties[i+1]);
+		}
+		final Application app = new Application((b) -> {
+		}, () -> SimpleLogFactory.of((Path) null, Level.WARN), () -> new DefaultPropertyFactory(props));
+		final IComponentFactory cf = app.getComponentFactory();
+		return new BuildPipeline<String>(cf.requireInstance(ILogFactory.class).getLog(BuildPipelineTest.class),
+				                         cf.requireInstance(IPropertyFactory.class), "test");
+	}
+
+	@Test(timeout=10000)
+	public void testItemsPassAllStages() throws Exception {
+		final Map<String,List<String>> stagesByItem = new ConcurrentHashMap<>();
+		final BuildPipeline<String> pipeline = newPipeline();
+		pipeline.stage("copy", BuildPipeline.Kind.IO, 2, (s) -> stagesByItem.computeIfAbsent(s, (k) -> Collections.synchronizedList(new ArrayList<>())).add("copy"))
+				.stage("compile", BuildPipeline.Kind.CPU, 2, (s) -> stagesByItem.get(s).add("compile"));
+		pipeline.run(ITEMS, (s) -> s);
+		assertEquals(new HashSet<>(ITEMS), stagesByItem.keySet());
+		for (List<String> stages : stagesByItem.values()) {
+			assertEquals(Arrays.asList("copy", "compile"), stages);
+		}
+	}
+
+	@Test(timeout=10000)
+	public void testBackpressure() throws Exception {
+		final CountDownLatch gate = new CountDownLatch(1);
+		final AtomicInteger started = new AtomicInteger();
+		final AtomicInteger submitted = new AtomicInteger();
+		final AtomicReference<Thread> runner = new AtomicReference<>();
+		final AtomicReference<Throwable> error = new AtomicReference<>();
+		// One thread, and a queue of one item: The third item must block the submitter.
+		final BuildPipeline<String> pipeline = newPipeline("test.slow.threads", "1", "test.slow.queue", "1");
+		pipeline.stage("slow", BuildPipeline.Kind.IO, 1, (s) -> {
+			started.incrementAndGet();
+			gate.await();
+		});
+		final Thread t = new Thread(() -> {
+			try {
+				pipeline.run(ITEMS, (s) -> {
+					if (Thread.currentThread() == runner.get()) {
+						submitted.incrementAndGet();
+					}
+					return s;
+				});
+			} catch (Throwable th) {
+				error.set(th);
+			}
+		});
+		runner.set(t);
+		t.start();
+		while (t.getState() != Thread.State.WAITING  ||  submitted.get() < 3  ||  started.get() < 1) {
+			Thread.sleep(10);
+		}
+		// The submitter stays blocked, until the stage makes progress.
+		Thread.sleep(100);
+		assertEquals(1, started.get());
+		assertEquals(3, submitted.get());
+		gate.countDown();
+		t.join();
+		assertEquals(null, error.get());
+		assertEquals(ITEMS.size(), started.get());
+		assertEquals(ITEMS.size(), submitted.get());
+	}
+
+	@Test(timeout=10000)
+	public void testFailFastCancelsRemainingItems() throws Exception {
+		final List<String> firstStage = Collections.synchronizedList(new ArrayList<>());
+		final List<String> lastStage = Collections.synchronizedList(new ArrayList<>());
+		// A single thread processes the items in order, so the items after "b" are cancelled.
+		final BuildPipeline<String> pipeline = newPipeline("test.first.threads", "1");
+		pipeline.stage("first", BuildPipeline.Kind.CPU, 1, (s) -> {
+			firstStage.add(s);
+			if ("b".equals(s)) {
+				throw new IllegalStateException("Failed: " + s);
+			}
+		}).stage("last", BuildPipeline.Kind.IO, 1, (s) -> lastStage.add(s));
+		assertTrue(pipeline.isFailingFast());
+		try {
+			pipeline.run(ITEMS, (s) -> s);
+			fail("Expected PipelineException");
+		} catch (BuildPipeline.PipelineException e) {
+			assertEquals(Collections.singleton("b"), e.getFailures().keySet());
+		}
+		assertEquals(Arrays.asList("a", "b"), firstStage);
+		// "a" may, or may not have entered the last stage before the cancellation.
+		assertTrue(String.valueOf(lastStage), lastStage.isEmpty()  ||  lastStage.equals(Collections.singletonList("a")));
+	}
+
+	@Test(timeout=10000)
+	public void testLocksAreReleasedAndFailuresAggregated() throws Exception {
+		final Map<String,AtomicInteger> locks = new ConcurrentHashMap<>();
+		final Map<String,AtomicInteger> unlocks = new ConcurrentHashMap<>();
+		final List<String> lastStage = Collections.synchronizedList(new ArrayList<>());
+		final BuildPipeline<String> pipeline = newPipeline("test.failFast", "false");
+		pipeline.setItemLocker((s) -> {
+			locks.computeIfAbsent(s, (k) -> new AtomicInteger()).incrementAndGet();
+			return () -> unlocks.computeIfAbsent(s, (k) -> new AtomicInteger()).incrementAndGet();
+		});
+		pipeline.stage("first", BuildPipeline.Kind.IO, 2, (s) -> {
+			if ("b".equals(s)) {
+				throw new IllegalStateException("Failed: " + s);
+			}
+		}).stage("second", BuildPipeline.Kind.CPU, 2, (s) -> {
+			if ("d".equals(s)) {
+				throw new IllegalStateException("Failed: " + s);
+			}
+			lastStage.add(s);
+		});
+		try {
+			pipeline.run(ITEMS, (s) -> s);
+			fail("Expected PipelineException");
+		} catch (BuildPipeline.PipelineException e) {
+			assertEquals(new HashSet<>(Arrays.asList("b", "d")), e.getFailures().keySet());
+			assertEquals(2, e.getSuppressed().length);
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Build failed for 2 item(s): "));
+			assertEquals("Failed: b", e.getFailures().get("b").getMessage());
+			assertEquals("Failed: d", e.getFailures().get("d").getMessage());
+		}
+		// Without failFast, the other items complete.
+		assertEquals(new HashSet<>(Arrays.asList("a", "c", "e")), new HashSet<>(lastStage));
+		// Every item has been locked, and unlocked exactly once, including the failed ones.
+		for (String item : ITEMS) {
+			assertEquals(item, 1, locks.get(item).get());
+			assertEquals(item, 1, unlocks.get(item).get());
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package com.github.jochenw.isbuildtools.compile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/** Test for the {@link ClassStubber}.
+ */
+public class ClassStubberTest {
+	private static final String SAMPLE_SOURCE =
+		"package sample;\n"
+		+ "import java.util.ArrayList;\n"
+		+ "import java.util.List;\n"
+		+ "import java.util.function.Supplier;\n"
+		+ "public class Sample<T extends Number> {\n"
+		+ "  public static final long LONG_CONSTANT = 1234567890123L;\n"
+		+ "  public static final double DOUBLE_CONSTANT = 3.5;\n"
+		+ "  public static final String STRING_CONSTANT = \"text\";\n"
+		+ "  private T value;\n"
+		+ "  public class Inner { public int size() { return 42; } }\n"
+		+ "  public T getValue() { return value; }\n"
+		+ "  public static <E> List<E> listOf(E pElement) { final List<E> list = new ArrayList<>(); list.add(pElement); return list; }\n"
+		+ "  public Supplier<String> supplier() { return () -> STRING_CONSTANT + LONG_CONSTANT + DOUBLE_CONSTANT; }\n"
+		+ "  @Deprecated public void old() throws java.io.IOException { }\n"
+		+ "}\n";
+	private static final String CLIENT_SOURCE =
+		"package client;\n"
+		+ "import java.util.List;\n"
+		+ "import sample.Sample;\n"
+		+ "public class Client {\n"
+		+ "  public static String run() {\n"
+		+ "    final List<String> list = Sample.listOf(\"a\");\n"
+		+ "    final String s = list.get(0);\n"
+		+ "    final Integer i = new Sample<Integer>().getValue();\n"
+		+ "    final Sample<Long> sample = new Sample<>();\n"
+		+ "    final int size = sample.new Inner().size();\n"
+		+ "    return s + i + size + sample.supplier().get() + Sample.STRING_CONSTANT + Sample.LONG_CONSTANT;\n"
+		+ "  }\n"
+		+ "}\n";
+
+	public @Rule TemporaryFolder tempDir = new TemporaryFolder();
+
+	private void compile(Path pSourceFile, Path pOutputDir, Path pClassPath) {
+		final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		assertNotNull("No system Java compiler available", compiler);
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final int status = compiler.run(null, baos, baos, "-d", pOutputDir.toString(),
+				                        "-cp", pClassPath == null ? pOutputDir.toString() : pClassPath.toString(),
+				                        pSourceFile.toString());
+		assertEquals(new String(baos.toByteArray(), StandardCharsets.UTF_8), 0, status);
+	}
+
+	private Path write(Path pDir, String pName, String pContent) throws IOException {
+		final Path file = pDir.resolve(pName);
+		Files.createDirectories(file.getParent());
+		Files.write(file, pContent.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	@Test
+	public void testStubIsUsableByTheCompiler() throws Exception {
+		final Path root = tempDir.getRoot().toPath();
+		final Path classesDir = root.resolve("classes");
+		final Path stubsDir = root.resolve("stubs");
+		final Path clientDir = root.resolve("client");
+		Files.createDirectories(classesDir);
+		Files.createDirectories(clientDir);
+		compile(write(root, "src/sample/Sample.java", SAMPLE_SOURCE), classesDir, null);
+		Files.createDirectories(stubsDir.resolve("sample"));
+		for (String name : new String[] {"Sample.class", "Sample$Inner.class"}) {
+			final byte[] original = Files.readAllBytes(classesDir.resolve("sample").resolve(name));
+			final byte[] stub = ClassStubber.strip(original);
+			assertTrue(name, stub.length < original.length);
+			Files.write(stubsDir.resolve("sample").resolve(name), stub);
+		}
+		// The client uses generic signatures, constants, and the inner class. It compiles
+		// only, if the stub has kept them.
+		compile(write(root, "src/client/Client.java", CLIENT_SOURCE), clientDir, stubsDir);
+		// The client runs against the original classes.
+		try (URLClassLoader cl = new URLClassLoader(new URL[] {clientDir.toUri().toURL(), classesDir.toUri().toURL()}, null)) {
+			final Method run = cl.loadClass("client.Client").getMethod("run");
+			assertEquals("anull42text12345678901233.5text1234567890123", run.invoke(null));
+		}
+		// The stub can't be loaded, because the method bodies are gone, but the original can.
+		try (URLClassLoader cl = new URLClassLoader(new URL[] {stubsDir.toUri().toURL()}, null)) {
+			cl.loadClass("sample.Sample").getMethods();
+			fail("Expected ClassFormatError");
+		} catch (ClassFormatError e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("Code"));
+		}
+		try (URLClassLoader cl = new URLClassLoader(new URL[] {classesDir.toUri().toURL()}, null)) {
+			final Class<?> cls = cl.loadClass("sample.Sample");
+			assertNotNull(cls.getMethod("listOf", Object.class));
+			assertNotNull(cls.getMethod("old").getAnnotation(Deprecated.class));
+		}
+	}
+
+	@Test(expected=IOException.class)
+	public void testInvalidClassFile() throws Exception {
+		ClassStubber.strip(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+	}
+}
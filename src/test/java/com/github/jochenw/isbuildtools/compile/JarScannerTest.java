@@ -0,0 +1,114 @@
+package com.github.jochenw.isbuildtools.compile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.jochenw.afw.core.components.Application;
+import com.github.jochenw.afw.core.inject.Scopes;
+import com.github.jochenw.afw.core.log.ILog.Level;
+import com.github.jochenw.afw.core.log.simple.SimpleLogFactory;
+import com.github.jochenw.afw.core.props.DefaultPropertyFactory;
+import com.github.jochenw.isbuildtools.util.BuildTracer;
+import com.github.jochenw.isbuildtools.util.IoExecutor;
+
+
+/** Test for the {@link JarScanner}.
+ */
+public class JarScannerTest {
+	public @Rule TemporaryFolder tempDir = new TemporaryFolder();
+
+	private Path createJar(String pName, String pComment, List<String> pEntries) throws IOException {
+		final Path jar = tempDir.getRoot().toPath().resolve(pName);
+		try (OutputStream os = Files.newOutputStream(jar);
+			 ZipOutputStream zos = new ZipOutputStream(os)) {
+			for (String entry : pEntries) {
+				zos.putNextEntry(new ZipEntry(entry));
+				zos.write(entry.getBytes("UTF-8"));
+				zos.closeEntry();
+			}
+			if (pComment != null) {
+				zos.setComment(pComment);
+			}
+		}
+		return jar;
+	}
+
+	private Path createJar(String pName, String... pEntries) throws IOException {
+		return createJar(pName, null, Arrays.asList(pEntries));
+	}
+
+	private JarScanner newJarScanner() {
+		final Application app = new Application((b) -> {
+			b.bind(IoExecutor.class).in(Scopes.SINGLETON);
+			b.bind(BuildTracer.class).in(Scopes.SINGLETON);
+			b.bind(JarScanner.class).in(Scopes.SINGLETON);
+		}, () -> SimpleLogFactory.of((Path) null, Level.WARN), () -> new DefaultPropertyFactory(new Properties()));
+		return app.getComponentFactory().requireInstance(JarScanner.class);
+	}
+
+	@Test
+	public void testReadClassNames() throws Exception {
+		final Path jar = createJar("normal.jar", "META-INF/MANIFEST.MF", "a/A.class", "a/b/B.class", "a/res.txt",
+				                   "a/package-info.class", "module-info.class", "META-INF/versions/11/a/A.class", "C.class");
+		assertEquals(Arrays.asList("a.A", "a.b.B", "C"), JarScanner.readClassNames(jar));
+	}
+
+	@Test
+	public void testReadClassNamesWithLongComment() throws Exception {
+		final StringBuilder sb = new StringBuilder();
+		while (sb.length() < 65000) {
+			sb.append("A long archive comment, which pushes the end record away from the end of the file. ");
+		}
+		final String comment = sb.substring(0, 65000);
+		final Path jar = createJar("comment.jar", comment, Arrays.asList("a/A.class", "a/B.class"));
+		assertEquals(Arrays.asList("a.A", "a.B"), JarScanner.readClassNames(jar));
+	}
+
+	@Test
+	public void testReadClassNamesWithZip64EndRecord() throws Exception {
+		// More than 65535 entries force a ZIP64 end of central directory record.
+		final List<String> entries = new ArrayList<>();
+		for (int i = 0;  i < 70000;  i++) {
+			entries.add("p" + (i % 100) + "/C" + i + ".class");
+		}
+		final Path jar = createJar("zip64.jar", null, entries);
+		final List<String> classNames = JarScanner.readClassNames(jar);
+		assertEquals(70000, classNames.size());
+		assertEquals("p0.C0", classNames.get(0));
+		assertEquals("p99.C69999", classNames.get(69999));
+	}
+
+	@Test
+	public void testFindConflicts() throws Exception {
+		final Path jar1 = createJar("one.jar", "p/X.class", "q/Y.class", "r/R.class");
+		final Path jar2 = createJar("two.jar", "p/X.class", "q/Z.class");
+		final Path serverJar = createJar("server.jar", "r/R.class", "s/S.class");
+		final Path jar3 = createJar("three.jar", "s/T.class");
+		final JarScanner scanner = newJarScanner();
+		final List<String> conflicts = scanner.findConflicts(Arrays.asList(jar1, jar2, jar3), Collections.singletonList(serverJar));
+		assertEquals(String.valueOf(conflicts), 4, conflicts.size());
+		// Conflicts are sorted by the names of the jar files, which are involved.
+		assertTrue(conflicts.get(0), conflicts.get(0).startsWith("1 duplicate class(es) in " + jar1 + ", " + serverJar + " (r.R)"));
+		assertTrue(conflicts.get(1), conflicts.get(1).startsWith("1 duplicate class(es) in " + jar1 + ", " + jar2 + " (p.X)"));
+		assertTrue(conflicts.get(2), conflicts.get(2).startsWith("1 split package(s) in " + jar1 + ", " + jar2 + " (q)"));
+		assertTrue(conflicts.get(3), conflicts.get(3).startsWith("1 split package(s) in " + serverJar + ", " + jar3 + " (s)"));
+		// Without package jars, there is nothing to report.
+		assertEquals(Collections.emptyList(), scanner.findConflicts(Collections.emptyList(), Collections.singletonList(serverJar)));
+	}
+}
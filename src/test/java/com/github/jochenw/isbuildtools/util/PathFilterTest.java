@@ -0,0 +1,104 @@
+package com.github.jochenw.isbuildtools.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+
+/** Test for the {@link PathFilter}.
+ */
+public class PathFilterTest {
+	private static PathFilter filter(String pIncludes, String pExcludes) {
+		return new PathFilter(PathFilter.split(pIncludes), PathFilter.split(pExcludes));
+	}
+
+	@Test
+	public void testDoubleStarMatchesZeroDirectories() {
+		final PathFilter filter = filter("code/**/*.java", null);
+		assertTrue(filter.test("code/A.java"));
+		assertTrue(filter.test("code/source/a/A.java"));
+		assertFalse(filter.test("code/A.class"));
+		assertFalse(filter.test("A.java"));
+		final PathFilter leading = filter("**/*.bak", null);
+		assertTrue(leading.test("x.bak"));
+		assertTrue(leading.test("a/b/x.bak"));
+	}
+
+	@Test
+	public void testDirectoryPatternMatchesTheDirectoryItself() {
+		final PathFilter filter = filter(null, "pub/**");
+		assertFalse(filter.test("pub"));
+		assertFalse(filter.test("pub/a.html"));
+		assertFalse(filter.test("pub/a/b.html"));
+		assertTrue(filter.test("public"));
+		assertTrue(filter.test("ns/pub"));
+		// A trailing "/" is a shorthand for "/**".
+		final PathFilter trailing = filter(null, "pub/");
+		assertFalse(trailing.test("pub"));
+		assertFalse(trailing.test("pub/a/b.html"));
+		assertTrue(trailing.test("public"));
+	}
+
+	@Test
+	public void testExcludedSubtreesArePruned() {
+		final PathFilter filter = filter(null, "code/classes");
+		final PathFilter.State code = filter.root().enter("code");
+		assertFalse(code.isPruned());
+		final PathFilter.State classes = code.enter("classes");
+		assertTrue(classes.isExcluded());
+		assertTrue(classes.isPruned());
+		// Everything below an excluded directory is excluded, too.
+		assertFalse(classes.enter("a").enter("A.class").isIncluded());
+		assertFalse(filter.test("code/classes/a/A.class"));
+		assertTrue(filter.test("code/source/a/A.java"));
+
+		// Directories, which can't contain an included file, are pruned as well.
+		final PathFilter includes = filter("code/source/**", null);
+		assertTrue(includes.root().enter("pub").isPruned());
+		assertFalse(includes.root().enter("code").isPruned());
+		assertTrue(includes.root().enter("code").enter("jars").isPruned());
+	}
+
+	@Test
+	public void testAlternatives() {
+		final PathFilter filter = filter("**/*.{java,frag}", null);
+		assertEquals(Collections.singletonList("**/*.{java,frag}"), filter.getIncludes());
+		assertTrue(filter.test("a/A.java"));
+		assertTrue(filter.test("a/A.frag"));
+		assertFalse(filter.test("a/A.class"));
+		assertEquals(Arrays.asList("a/{b,c}", "d"), PathFilter.split("a/{b,c}, d"));
+	}
+
+	@Test
+	public void testCharacterClasses() {
+		final PathFilter filter = filter("[abc]*.txt", null);
+		assertTrue(filter.test("a.txt"));
+		assertTrue(filter.test("cx.txt"));
+		assertFalse(filter.test("d.txt"));
+		assertFalse(filter.test("x/a.txt"));
+		final PathFilter single = filter("?.txt", null);
+		assertTrue(single.test("a.txt"));
+		assertFalse(single.test("ab.txt"));
+	}
+
+	@Test
+	public void testExcludesTakePrecedenceOverIncludes() {
+		final PathFilter filter = filter("**/*.java", "**/test/**");
+		assertTrue(filter.test("a/A.java"));
+		assertFalse(filter.test("a/test/A.java"));
+		assertFalse(filter.test("test/A.java"));
+		assertFalse(filter.test("a/A.txt"));
+		// No patterns at all: Everything is included.
+		assertTrue(PathFilter.ALL.isAll());
+		assertTrue(PathFilter.ALL.test("a/b/c"));
+		// No includes: Everything, which isn't excluded, is included.
+		final PathFilter excluding = PathFilter.excluding("**/*.bak");
+		assertTrue(excluding.test("a/b.txt"));
+		assertFalse(excluding.test("a/b.bak"));
+	}
+}